@@ -0,0 +1,63 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark and writes all their results to one JSON file, to compare runs over
+ * time. The request benchmark runs once per thread count in THREADS.
+ * <br> Usage, after "mvn -P bench package":
+ *      java -jar target/benchmarks.jar [RESULT_FILE] [JMH_OPTIONS...]
+ * <br> RESULT_FILE defaults to jmh-result.json. JMH_OPTIONS are the usual JMH command-line
+ *      options, e.g. "-f 3" or "-p size=1000", and apply to every run.
+ */
+public final class Benchmarks {
+
+    /** Numbers of client threads of the request benchmark. */
+    private static final int[] THREADS = { 1, 4, 16, 64 };
+
+    private Benchmarks() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * @param args arguments as described
+     * @throws RunnerException if a benchmark fails
+     * @throws CommandLineOptionException if JMH_OPTIONS are not valid
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        boolean named = args.length > 0 && !args[0].startsWith("-");
+        String file = named ? args[0] : "jmh-result.json";
+        CommandLineOptions parent = new CommandLineOptions(named ? Arrays.copyOfRange(args, 1, args.length) : args);
+
+        List<RunResult> results = new ArrayList<>();
+        results.addAll(run(new OptionsBuilder().parent(parent)
+                .include(BoardBenchmark.class.getName())));
+        for (int threads : THREADS) {
+            results.addAll(run(new OptionsBuilder().parent(parent)
+                    .include("minesweeper.server.RequestBenchmark")
+                    .threads(threads)));
+        }
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, file).writeOut(results);
+        System.out.println("Wrote " + results.size() + " results to " + file);
+    }
+
+    private static Collection<RunResult> run(ChainedOptionsBuilder options) throws RunnerException {
+        return new Runner(options.build()).run();
+    }
+}
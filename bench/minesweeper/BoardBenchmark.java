@@ -0,0 +1,130 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the Board operations whose cost grows with the size of the board: making one,
+ * placing its bombs, counting them, a dig that reveals the whole board, and rendering it.
+ * Each runs on square boards of 100, 1000 and 4000 squares a side, except the dig, which runs on
+ * the two bigger ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BoardBenchmark {
+
+    /** Side of the board. */
+    @State(Scope.Benchmark)
+    public static class Size {
+
+        @Param({ "100", "1000", "4000" })
+        public int size;
+    }
+
+    /** A board with its bombs placed. */
+    @State(Scope.Benchmark)
+    public static class Placed {
+
+        @Param({ "100", "1000", "4000" })
+        public int size;
+
+        @Param({ "0.1", "0.25", "0.5" })
+        public double density;
+
+        Board board;
+
+        @Setup(Level.Trial)
+        public void place() {
+            board = new Board(size, size, density);
+            board.setBombs(6005);
+        }
+    }
+
+    /**
+     * A board without bombs, so that a dig in its corner reveals every square. Each dig needs a
+     * fresh board, made outside the measured time; on a board of 100 squares a side the dig takes
+     * too little time for that to be timed correctly, so it only runs on the bigger ones.
+     */
+    @State(Scope.Benchmark)
+    public static class Empty {
+
+        @Param({ "1000", "4000" })
+        public int size;
+
+        Board board;
+
+        @Setup(Level.Invocation)
+        public void clear() {
+            board = new Board(size, size, 0);
+        }
+    }
+
+    /** A board half of whose squares were dug, to render. */
+    @State(Scope.Benchmark)
+    public static class Played {
+
+        @Param({ "100", "1000", "4000" })
+        public int size;
+
+        Board board;
+
+        @Setup(Level.Trial)
+        public void play() {
+            board = new Board(size, size, 0.1);
+            board.setBombs(6005);
+            for (int y = 0; y < size; y += 2) {
+                for (int x = 0; x < size; x++) {
+                    board.dig(x, y);
+                }
+            }
+            for (int y = 1; y < size; y += 4) {
+                board.setFlag(0, y);
+            }
+        }
+    }
+
+    @Benchmark
+    public Board construct(Size state) {
+        return new Board(state.size, state.size);
+    }
+
+    @Benchmark
+    public Board setBombs(Placed state) {
+        state.board.setBombs(6005);
+        return state.board;
+    }
+
+    @Benchmark
+    public Board bombCount(Placed state) {
+        state.board.bombCount();
+        return state.board;
+    }
+
+    @Benchmark
+    public int digCascade(Empty state) {
+        return state.board.dig(0, 0);
+    }
+
+    @Benchmark
+    public String render(Played state) {
+        return state.board.toString();
+    }
+}
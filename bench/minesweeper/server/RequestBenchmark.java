@@ -0,0 +1,111 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import minesweeper.Board;
+
+/**
+ * Benchmark of the server's request path without the network: parse a request line out of its
+ * bytes and run it with handleRequest(), as a connection's thread does. Each benchmark thread
+ * is one client playing flag, deflag and dig at random squares of one shared 1000x1000 board.
+ * Every iteration starts on a fresh board, so that later iterations do not measure a board the
+ * earlier ones already dug. Benchmarks.main(..) runs it with 1 to 64 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark {
+
+    /** Number of request lines each client cycles through. */
+    private static final int LINES = 4096;
+
+    /** The server and its board, shared by every client. */
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({ "global", "striped" })
+        public String locking;
+
+        MinesweeperServer server;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            ServerOptions options = new ServerOptions();
+            options.setStripedLocking(locking.equals("striped"));
+            server = new MinesweeperServer(0, true, options);
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            Board board = new Board(1000, 1000, 0.1);
+            board.setBombs(6005);
+            server.setBoard(board);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            server.close();
+        }
+    }
+
+    /** One client: its session, its parser and the request lines it sends. */
+    @State(Scope.Thread)
+    public static class Client {
+
+        final Command command = new Command();
+        final byte[][] lines = new byte[LINES][];
+        Session session;
+        int next;
+
+        @Setup(Level.Trial)
+        public void write() {
+            SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+            String[] verbs = { "flag", "deflag", "dig" };
+            for (int i = 0; i < LINES; i++) {
+                String line = verbs[random.nextInt(verbs.length)] + " " + random.nextInt(1000) + " " + random.nextInt(1000);
+                lines[i] = line.getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        /** Enter the fresh board of the iteration, replaying the same lines on it. */
+        @Setup(Level.Iteration)
+        public void connect(Server server) {
+            session = new Session(() -> { });
+            server.server.welcome(session);
+            next = 0;
+        }
+    }
+
+    @Benchmark
+    public byte[] parseAndExecute(Server server, Client client) {
+        byte[] line = client.lines[client.next++ & (LINES - 1)];
+        Command command = client.command;
+        command.reset();
+        for (byte b : line) {
+            command.accept(b);
+        }
+        return server.server.handleRequest(command.finish(), client.session);
+    }
+}
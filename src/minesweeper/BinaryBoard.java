@@ -0,0 +1,102 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+/**
+ * The binary form of a board: 4 bits per square, two squares per byte, row-major, the first
+ * square of each pair in the high bits. A square is
+ * <pre>
+ *   0..8   dug, with that many neighboring bombs
+ *   9      untouched
+ *   10     flagged
+ * </pre>
+ * and an odd number of squares is padded with a 0 nibble.
+ */
+public final class BinaryBoard {
+
+    /** Code of an untouched square. */
+    public static final int UNTOUCHED = 9;
+    /** Code of a flagged square. */
+    public static final int FLAGGED = 10;
+
+    private BinaryBoard() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * @param cols number of columns
+     * @param rows number of rows
+     * @return number of bytes of the binary form of a board of that size
+     */
+    public static int length(int cols, int rows) {
+        return (int) (((long) cols * rows + 1) / 2);
+    }
+
+    /**
+     * Encode a snapshot into out.
+     *
+     * @param snapshot board to encode
+     * @param out array with room for length(cols, rows) bytes from offset
+     * @param offset index in out of the first byte
+     */
+    public static void encode(BoardSnapshot snapshot, byte[] out, int offset) {
+        int cols = snapshot.getCols();
+        int rows = snapshot.getRows();
+        int size = BoardSnapshot.TILE_SIZE;
+        int tilesX = (cols + size - 1) / size;
+        long index = 0;
+        for (int y = 0; y < rows; y++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                byte[] tile = snapshot.tile(tx, y / size);
+                int width = Math.min(size, cols - tx * size);
+                int start = (y % size) * width;
+                for (int i = start; i < start + width; i++, index++) {
+                    int code = code(tile[i]);
+                    int at = offset + (int) (index >>> 1);
+                    if ((index & 1) == 0) {
+                        out[at] = (byte) (code << 4);
+                    } else {
+                        out[at] |= (byte) code;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int code(int cell) {
+        int state = cell & Board.STATE_MASK;
+        if (state == 0) {
+            return UNTOUCHED;
+        } else if (state == Board.FLAGGED) {
+            return FLAGGED;
+        }
+        return cell & Board.COUNT_MASK;
+    }
+
+    /**
+     * @param in binary form of a board
+     * @param offset index in in of its first byte
+     * @param index row-major index of a square
+     * @return code of the square
+     */
+    public static int square(byte[] in, int offset, long index) {
+        int packed = in[offset + (int) (index >>> 1)];
+        return (index & 1) == 0 ? (packed >> 4) & 0xF : packed & 0xF;
+    }
+
+    /**
+     * @param code code of a square
+     * @return the square as in Board.toString()
+     */
+    public static char symbol(int code) {
+        if (code == UNTOUCHED) {
+            return '-';
+        } else if (code == FLAGGED) {
+            return 'F';
+        } else if (code == 0) {
+            return ' ';
+        }
+        return (char) ('0' + code);
+    }
+}
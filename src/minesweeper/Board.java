@@ -3,7 +3,16 @@
  */
 package minesweeper;
 
-import java.util.Random;
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 /**
  * TODO: Specification
@@ -12,150 +21,597 @@ public class Board {
 
 
     // TODO: Abstraction function, rep invariant, rep exposure, thread safety
-    
+
     // TODO: Specify, test, and implement in problem 2
 
-    private final Square[][] board;
+    // Rep: one byte per square in a flat row-major array, cells[y * cols + x].
+    //   bits 0-3  number of bombs in the 3x3 block around the square (0..9)
+    //   bit  4    square contains a bomb
+    //   bits 5-6  SquareState ordinal (UNTOUCHED, FLAGGED, DUG)
+    // A Square object per cell costs ~36 bytes (header, outer reference, array slot);
+    // packed storage costs 1 byte: 1k^2 is 1 MB instead of 36 MB, 10k^2 is 100 MB
+    // instead of 3.6 GB, 30k^2 is 900 MB instead of 32 GB.
+
+    /** Mask of the neighbor bomb count bits. */
+    static final int COUNT_MASK = 0x0F;
+    /** Bomb bit. */
+    static final int BOMB = 0x10;
+    /** Shift of the SquareState bits. */
+    static final int STATE_SHIFT = 5;
+    /** Mask of the SquareState bits. */
+    static final int STATE_MASK = 0x3 << STATE_SHIFT;
+    static final int FLAGGED = 1 << STATE_SHIFT;
+    static final int DUG = 2 << STATE_SHIFT;
+    /** Largest number of squares a flat array can index. */
+    static final long MAX_CELLS = Integer.MAX_VALUE - 8;
+    /** Fraction of squares that get a bomb when none is given. */
+    public static final double DEFAULT_DENSITY = 0.25;
+    /** Rows per band in parallel generation; fixed so a seed gives the same board on any machine. */
+    static final int BAND_ROWS = 64;
+
+    private final byte[] cells;
     private final int rows;
     private final int cols;
     private final int bombNums;
+    /** Latest published snapshot, or null until enableSnapshots(). */
+    private final AtomicReference<BoardSnapshot> snapshot = new AtomicReference<>();
 
     public Board(int x, int y) {
+        this(x, y, DEFAULT_DENSITY);
+    }
+
+    /**
+     * Make an empty board with no bombs placed yet.
+     *
+     * @param x number of columns, requires x > 0
+     * @param y number of rows, requires y > 0
+     * @param density fraction of squares setBombs() fills with bombs, requires 0 <= density <= 1
+     */
+    public Board(int x, int y, double density) {
+        if (x <= 0 || y <= 0 || (long) x * y > MAX_CELLS) {
+            throw new IllegalArgumentException("invalid board size " + x + "x" + y);
+        }
+        if (!(density >= 0 && density <= 1)) {
+            throw new IllegalArgumentException("invalid bomb density " + density);
+        }
         rows = y;
         cols = x;
-        bombNums = (int)(x * y * 0.25);
-        board = new Square[rows][cols];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                board[i][j] = new Square();
-            }
-        }
+        bombNums = (int)(x * (long) y * density);
+        cells = new byte[x * y];
     }
 
     public void setBombs(boolean[][] mines) {
         for (int i = 0; i < mines.length; i++) {
             for (int j = 0; j < mines[0].length; j++) {
-                board[i][j].hasBomb = mines[i][j];
+                int idx = i * cols + j;
+                cells[idx] = (byte) (mines[i][j] ? cells[idx] | BOMB : cells[idx] & ~BOMB);
             }
         }
         bombCount();
+        republish();
     }
 
+    /**
+     * Replace any bombs on the board with a uniformly random layout of density * x * y bombs.
+     */
     public void setBombs() {
-        spreadBombs();
+        setBombs(new SplittableRandom());
+    }
+
+    /**
+     * Like setBombs(), but the layout is fully determined by seed, so the same seed on the
+     * same board size and density always gives the same board.
+     */
+    public void setBombs(long seed) {
+        setBombs(new SplittableRandom(seed));
+    }
+
+    private void setBombs(SplittableRandom random) {
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] &= ~BOMB;
+        }
+        spreadBombs(random);
         bombCount();
+        republish();
     }
 
-    private void spreadBombs() {
-        Random random = new Random();
-        int bombPlaced = 0;
-        while (bombPlaced < bombNums) {
-            int x = random.nextInt(cols);
-            int y = random.nextInt(rows);
-            if (!board[y][x].hasBomb) {
-                board[y][x].hasBomb = true;
-                bombPlaced++;
+    /**
+     * Like setBombs(), but generated on pool: the board is split into bands of BAND_ROWS rows,
+     * each band places its share of the bombs with its own split of the random generator, and
+     * then each band computes its own counts. The share of a band is proportional to its size,
+     * so bombs are uniform within each band rather than over all layouts of the whole board.
+     */
+    public void setBombs(ForkJoinPool pool) {
+        setBombs(new SplittableRandom(), pool);
+    }
+
+    /**
+     * Like setBombs(pool), but the layout is fully determined by seed. It is not the same layout
+     * setBombs(seed) gives.
+     */
+    public void setBombs(long seed, ForkJoinPool pool) {
+        setBombs(new SplittableRandom(seed), pool);
+    }
+
+    private void setBombs(SplittableRandom random, ForkJoinPool pool) {
+        int bands = (rows + BAND_ROWS - 1) / BAND_ROWS;
+        SplittableRandom[] randoms = new SplittableRandom[bands];
+        int[] bombs = new int[bands];
+        int assigned = 0;
+        for (int b = 0; b < bands; b++) {
+            randoms[b] = random.split();
+            bombs[b] = (int) ((long) bombNums * bandRows(b) * cols / cells.length);
+            assigned += bombs[b];
+        }
+        for (int b = 0; assigned < bombNums; b++, assigned++) {
+            bombs[b]++;
+        }
+        // the bomb bits of every band must be final before any band reads its halo rows
+        pool.invoke(new BandTask(0, bands, b -> {
+            int from = b * BAND_ROWS * cols;
+            int to = from + bandRows(b) * cols;
+            for (int i = from; i < to; i++) {
+                cells[i] &= ~BOMB;
+            }
+            spreadBombs(randoms[b], from, to, bombs[b]);
+        }));
+        pool.invoke(new BandTask(0, bands, b -> countRows(b * BAND_ROWS, b * BAND_ROWS + bandRows(b))));
+        republish();
+    }
+
+    private int bandRows(int band) {
+        return Math.min(BAND_ROWS, rows - band * BAND_ROWS);
+    }
+
+    /**
+     * Runs work for each band in [from, to), splitting the range in halves across the pool.
+     */
+    private static final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer work;
+
+        BandTask(int from, int to, IntConsumer work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                work.accept(from);
+                return;
             }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BandTask(from, mid, work), new BandTask(mid, to, work));
         }
     }
 
+    /**
+     * Choose bombNums distinct squares with Floyd's algorithm: one random draw per bomb no
+     * matter how dense the board is, using the bomb bits themselves as the set of chosen squares.
+     */
+    private void spreadBombs(SplittableRandom random) {
+        spreadBombs(random, 0, cells.length, bombNums);
+    }
+
+    /**
+     * Place count bombs on distinct squares with index in [from, to), which have no bombs yet.
+     */
+    private void spreadBombs(SplittableRandom random, int from, int to, int count) {
+        int n = to - from;
+        for (int j = n - count; j < n; j++) {
+            int idx = from + random.nextInt(j + 1);
+            if ((cells[idx] & BOMB) != 0) {
+                idx = from + j;
+            }
+            cells[idx] |= BOMB;
+        }
+    }
+
+    /**
+     * Recompute every count in one pass. Counts are a 3x3 box sum of the bomb bits, done
+     * separably: each row's horizontal 3-sums are computed once with a sliding window and
+     * kept in a rolling window of three rows, so each bomb bit is read once per pass.
+     */
     void bombCount() {
-        for (int i = 0; i < rows; i++) {
+        countRows(0, rows);
+    }
+
+    /**
+     * Like bombCount(), with the row bands of parallel generation counted in parallel on pool.
+     */
+    void bombCount(ForkJoinPool pool) {
+        int bands = (rows + BAND_ROWS - 1) / BAND_ROWS;
+        pool.invoke(new BandTask(0, bands, b -> countRows(b * BAND_ROWS, b * BAND_ROWS + bandRows(b))));
+    }
+
+    /**
+     * Recompute the counts of rows [from, to). Reads the bomb bits of the halo rows from - 1 and
+     * to as well, but only writes count bits, so bands next to each other can run concurrently.
+     */
+    private void countRows(int from, int to) {
+        int[] above = new int[cols];
+        int[] current = new int[cols];
+        int[] below = new int[cols];
+        if (from > 0) {
+            rowSums(from - 1, above);
+        }
+        rowSums(from, current);
+        if (from + 1 < rows) {
+            rowSums(from + 1, below);
+        }
+        for (int i = from; i < to; i++) {
+            int rowStart = i * cols;
             for (int j = 0; j < cols; j++) {
-                board[i][j].countNums = count(j, i);
+                setCount(rowStart + j, above[j] + current[j] + below[j]);
+            }
+            int[] recycled = above;
+            above = current;
+            current = below;
+            below = recycled;
+            if (i + 1 == to) {
+                break;
+            }
+            if (i + 2 < rows) {
+                rowSums(i + 2, below);
+            } else {
+                Arrays.fill(below, 0);
             }
         }
     }
 
-    private int count(int x, int y) {
-        int nums = 0;
-        for (int i = x - 1; i <= x + 1; i++) {
-            for (int j = y - 1; j <= y + 1; j++) {
-                if (i < 0 || i >= cols || j < 0 || j >= rows) {
-                    continue;
-                }
-                if (board[j][i].hasBomb) {
-                    nums++;
-                }
+    /**
+     * Store in sums[j] the number of bombs in columns j-1..j+1 of row i.
+     */
+    private void rowSums(int i, int[] sums) {
+        int rowStart = i * cols;
+        int left = 0;
+        int middle = (cells[rowStart] & BOMB) >> 4;
+        for (int j = 0; j < cols; j++) {
+            int right = j + 1 < cols ? (cells[rowStart + j + 1] & BOMB) >> 4 : 0;
+            sums[j] = left + middle + right;
+            left = middle;
+            middle = right;
+        }
+    }
+
+    /**
+     * Put a bomb on the square at column x, row y, adjusting only the counts around it.
+     * Does nothing if there is already a bomb there.
+     */
+    public void placeBomb(int x, int y) {
+        int idx = y * cols + x;
+        if ((cells[idx] & BOMB) == 0) {
+            cells[idx] |= BOMB;
+            adjustCounts(x, y, 1);
+            BitSet changed = changes();
+            markBlock(changed, x, y);
+            publish(changed);
+        }
+    }
+
+    /**
+     * Remove the bomb from the square at column x, row y, adjusting only the counts around it.
+     * Does nothing if there is no bomb there.
+     */
+    public void removeBomb(int x, int y) {
+        if (detonate(x, y)) {
+            BitSet changed = changes();
+            markBlock(changed, x, y);
+            publish(changed);
+        }
+    }
+
+    /**
+     * Remove the bomb at column x, row y, if any, without publishing the change.
+     *
+     * @return true if there was a bomb
+     */
+    private boolean detonate(int x, int y) {
+        int idx = y * cols + x;
+        if ((cells[idx] & BOMB) == 0) {
+            return false;
+        }
+        cells[idx] &= ~BOMB;
+        adjustCounts(x, y, -1);
+        return true;
+    }
+
+    private void adjustCounts(int x, int y, int delta) {
+        int minX = Math.max(x - 1, 0);
+        int maxX = Math.min(x + 1, cols - 1);
+        int minY = Math.max(y - 1, 0);
+        int maxY = Math.min(y + 1, rows - 1);
+        for (int j = minY; j <= maxY; j++) {
+            for (int i = minX; i <= maxX; i++) {
+                // the count bits are the low bits of the byte, so this never touches bomb or state
+                cells[j * cols + i] += delta;
             }
         }
-        return nums;
+    }
+
+    private void setCount(int idx, int count) {
+        cells[idx] = (byte) ((cells[idx] & ~COUNT_MASK) | count);
+    }
+
+    private int state(int idx) {
+        return cells[idx] & STATE_MASK;
+    }
+
+    private void setState(int idx, int state) {
+        cells[idx] = (byte) ((cells[idx] & ~STATE_MASK) | state);
     }
 
     public boolean touched(int x, int y) {
-        return board[y][x].state == SquareState.DUG;
+        return state(y * cols + x) == DUG;
     }
 
     public boolean flagged(int x, int y) {
-        return board[y][x].state == SquareState.FLAGGED;
+        return state(y * cols + x) == FLAGGED;
     }
 
     public void setFlag(int x, int y) {
-        if (board[y][x].state == SquareState.UNTOUCHED) {
-            board[y][x].state = SquareState.FLAGGED;
+        int idx = y * cols + x;
+        if (state(idx) == 0) {
+            setState(idx, FLAGGED);
+            BitSet changed = changes();
+            mark(changed, x, y);
+            publish(changed);
         }
     }
 
     public void removeFlag(int x, int y) {
-        if (board[y][x].state == SquareState.FLAGGED) {
-            board[y][x].state = SquareState.UNTOUCHED;
+        int idx = y * cols + x;
+        if (state(idx) == FLAGGED) {
+            setState(idx, 0);
+            BitSet changed = changes();
+            mark(changed, x, y);
+            publish(changed);
         }
     }
 
-    public void dig(int x, int y) {
-        if (x < 0 || x >= cols || y < 0 || y >= rows || board[y][x].state == SquareState.DUG) {
-            return;
+    /**
+     * Decides whether a cascade may touch a square right now. Used by TileLocks to let a
+     * cascade spread only into squares whose locks the digging thread holds.
+     */
+    interface CascadeGuard {
+        /**
+         * @return true if the cascade may read and change (x, y) now; false if the guard has
+         *         taken note of (x, y) to continue the cascade there later with reveal()
+         */
+        boolean enter(int x, int y);
+    }
+
+    /**
+     * Dig the square at column x, row y. A bomb there is removed and the counts around it
+     * are updated. If the square then has no neighbor bombs, every connected square reachable
+     * through bomb-free squares is revealed as well.
+     *
+     * @return number of squares changed to dug, 0 if (x, y) is off the board or already dug
+     */
+    public int dig(int x, int y) {
+        return dig(x, y, null);
+    }
+
+    /**
+     * Like dig(x, y), but the cascade only touches squares guard lets it enter.
+     *
+     * @param guard guard for the cascade, or null to touch any square
+     */
+    int dig(int x, int y, CascadeGuard guard) {
+        if (x < 0 || x >= cols || y < 0 || y >= rows || state(y * cols + x) == DUG) {
+            return 0;
         }
-        board[y][x].state = SquareState.DUG;
-        if (board[y][x].hasBomb) {
-            board[y][x].hasBomb = false;
-            for (int i = x - 1; i <= x + 1; i++) {
-                for (int j = y - 1; j <= y + 1; j++) {
-                    if (i < 0 || i >= cols || j < 0 || j >= rows) {
+        int idx = y * cols + x;
+        BitSet changed = changes();
+        setState(idx, DUG);
+        if (detonate(x, y)) {
+            markBlock(changed, x, y);
+        } else {
+            mark(changed, x, y);
+        }
+        int revealed = 1;
+        if ((cells[idx] & COUNT_MASK) == 0) {
+            revealed += flood(idx, guard, changed);
+        }
+        publish(changed);
+        return revealed;
+    }
+
+    /**
+     * Continue a cascade at column x, row y, a square next to a dug square with no neighbor
+     * bombs: change it to dug unless it already is, and keep revealing from it if it has no
+     * neighbor bombs either.
+     *
+     * @return number of squares changed to dug
+     */
+    int reveal(int x, int y, CascadeGuard guard) {
+        int idx = y * cols + x;
+        if (state(idx) == DUG) {
+            return 0;
+        }
+        BitSet changed = changes();
+        setState(idx, DUG);
+        mark(changed, x, y);
+        int revealed = 1;
+        if ((cells[idx] & COUNT_MASK) == 0) {
+            revealed += flood(idx, guard, changed);
+        }
+        publish(changed);
+        return revealed;
+    }
+
+    /**
+     * Breadth-first reveal from a dug square with no neighbor bombs. Squares are marked dug
+     * when they are queued, so each is queued at most once and the queue only ever holds the
+     * current frontier rather than the whole region.
+     *
+     * @param start index of a dug square whose count is 0
+     * @param guard guard for the cascade, or null to touch any square
+     * @param changed tiles changed so far, or null if snapshots are off
+     * @return number of squares changed to dug, not including start
+     */
+    private int flood(int start, CascadeGuard guard, BitSet changed) {
+        IntQueue queue = new IntQueue();
+        queue.add(start);
+        int revealed = 0;
+        while (!queue.isEmpty()) {
+            int idx = queue.poll();
+            int x = idx % cols;
+            int y = idx / cols;
+            int minX = Math.max(x - 1, 0);
+            int maxX = Math.min(x + 1, cols - 1);
+            int minY = Math.max(y - 1, 0);
+            int maxY = Math.min(y + 1, rows - 1);
+            for (int j = minY; j <= maxY; j++) {
+                for (int i = minX; i <= maxX; i++) {
+                    if (guard != null && !guard.enter(i, j)) {
                         continue;
                     }
-                    board[j][i].countNums = count(i, j);
+                    int next = j * cols + i;
+                    if (state(next) == DUG) {
+                        continue;
+                    }
+                    setState(next, DUG);
+                    mark(changed, i, j);
+                    revealed++;
+                    if ((cells[next] & COUNT_MASK) == 0) {
+                        queue.add(next);
+                    }
                 }
             }
-            return;        
-        }
-    // 如果周围没有炸弹，递归挖开相邻格子
-    if (board[y][x].countNums == 0) {
-        for (int i = x - 1; i <= x + 1; i++) {
-            for (int j = y - 1; j <= y + 1; j++) {
-                // 跳过当前格子
-                if (i == x && j == y) {
-                    continue;
-                }
-                // 递归挖开相邻的未触碰格子
-                dig(i, j);
+        }
+        return revealed;
+    }
+
+    /**
+     * @return the packed squares of the board, row-major, shared with the board so that files
+     *         can be read into it and written from it in bulk; they may only be changed before
+     *         snapshots are enabled
+     */
+    byte[] cells() {
+        return cells;
+    }
+
+    /**
+     * Read a board written by BoardSnapshot.write(), with its bombs, flags and dug squares.
+     *
+     * @param in where to read
+     * @return the board, with snapshots off
+     * @throws IOException if reading from in fails or what it holds is not a valid board
+     */
+    public static Board read(DataInput in) throws IOException {
+        int x = in.readInt();
+        int y = in.readInt();
+        if (x <= 0 || y <= 0 || (long) x * y > MAX_CELLS) {
+            throw new IOException("invalid board size " + x + "x" + y);
+        }
+        Board board = new Board(x, y);
+        in.readFully(board.cells);
+        for (byte cell : board.cells) {
+            if ((cell & COUNT_MASK) > 9 || (cell & STATE_MASK) == STATE_MASK || cell < 0) {
+                throw new IOException("invalid square " + cell);
             }
         }
+        return board;
+    }
+
+    /**
+     * Start publishing a snapshot after every change. Requires that no other thread is using
+     * the board yet.
+     */
+    public void enableSnapshots() {
+        snapshot.compareAndSet(null, BoardSnapshot.of(0, cells, cols, rows));
     }
-}
 
+    /**
+     * Get the latest snapshot without waiting for any change in progress. Any thread may call
+     * this at any time, without holding any lock the board's writers use.
+     *
+     * @return the latest published snapshot, requires enableSnapshots() was called
+     */
+    public BoardSnapshot snapshot() {
+        BoardSnapshot latest = snapshot.get();
+        if (latest == null) {
+            throw new IllegalStateException("snapshots are not enabled");
+        }
+        return latest;
+    }
+
+    /**
+     * @return an empty set of tiles to record a change in, or null if snapshots are off
+     */
+    private BitSet changes() {
+        return snapshot.get() == null ? null : new BitSet();
+    }
+
+    private void mark(BitSet changed, int x, int y) {
+        if (changed != null) {
+            changed.set((y / BoardSnapshot.TILE_SIZE) * tilesX() + x / BoardSnapshot.TILE_SIZE);
+        }
+    }
+
+    /**
+     * Record the tiles covering the 3x3 block around (x, y).
+     */
+    private void markBlock(BitSet changed, int x, int y) {
+        int maxX = Math.min(x + 1, cols - 1);
+        int maxY = Math.min(y + 1, rows - 1);
+        mark(changed, Math.max(x - 1, 0), Math.max(y - 1, 0));
+        mark(changed, maxX, Math.max(y - 1, 0));
+        mark(changed, Math.max(x - 1, 0), maxY);
+        mark(changed, maxX, maxY);
+    }
+
+    private int tilesX() {
+        return (cols + BoardSnapshot.TILE_SIZE - 1) / BoardSnapshot.TILE_SIZE;
+    }
+
+    /**
+     * Publish a new snapshot version with the changed tiles. Requires that the calling thread
+     * keeps those tiles from changing, e.g. holds their TileLocks, so only the swap of the
+     * latest version needs to be atomic.
+     */
+    private void publish(BitSet changed) {
+        if (changed == null || changed.isEmpty()) {
+            return;
+        }
+        byte[][] copies = new byte[changed.cardinality()][];
+        int i = 0;
+        for (int t = changed.nextSetBit(0); t >= 0; t = changed.nextSetBit(t + 1)) {
+            copies[i++] = BoardSnapshot.copyTile(cells, cols, rows, t);
+        }
+        BoardSnapshot current;
+        do {
+            current = snapshot.get();
+        } while (!snapshot.compareAndSet(current, current.with(changed, copies)));
+    }
+
+    /**
+     * Publish a snapshot of the whole board, after a change to every square.
+     */
+    private void republish() {
+        BoardSnapshot current = snapshot.get();
+        if (current != null) {
+            snapshot.set(BoardSnapshot.of(current.getVersion() + 1, cells, cols, rows));
+        }
+    }
 
     public boolean isBombAt(int x, int y) {
-        return board[y][x].hasBomb;
+        return (cells[y * cols + x] & BOMB) != 0;
     }
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder(rows * (2 * cols + 1));
         for (int i = 0; i < rows; i++) {
+            int rowStart = i * cols;
             for (int j = 0; j < cols; j++) {
-                Square square = board[i][j];
-                if (square.state == SquareState.UNTOUCHED) {
-                    sb.append('-');
-                } else if (square.state == SquareState.FLAGGED) {
-                    sb.append('F');
-                } else if (square.state == SquareState.DUG) {
-                    if (square.countNums == 0) {
-                        sb.append(' ');
-                    } else {
-                        sb.append(square.countNums);
-                    }
-                }
+                sb.append(symbol(cells[rowStart + j]));
 
                 // 在每个字符后添加空格，但最后一个字符后不添加
                 if (j < cols - 1) {
@@ -171,36 +627,85 @@ public class Board {
         return sb.toString();
     }
 
+    /**
+     * @return how a packed square appears in the board message: '-' untouched, 'F' flagged,
+     *         ' ' dug with no neighbor bombs, else the digit of the neighbor bomb count
+     */
+    static char symbol(int cell) {
+        int state = cell & STATE_MASK;
+        if (state == 0) {
+            return '-';
+        } else if (state == FLAGGED) {
+            return 'F';
+        }
+        int countNums = cell & COUNT_MASK;
+        return countNums == 0 ? ' ' : (char) ('0' + countNums);
+    }
+
     public int getRows() {
         return rows;
     }
 
-    public Square getSquare(int j, int i) {
-        return board[i][j];
+    /**
+     * @return state of the square at column x, row y
+     */
+    SquareState getState(int x, int y) {
+        return SquareState.values()[state(y * cols + x) >> STATE_SHIFT];
+    }
+
+    /**
+     * @return number of bombs in the 3x3 block centered on column x, row y
+     */
+    int getCount(int x, int y) {
+        return cells[y * cols + x] & COUNT_MASK;
     }
 
     public int getCols() {
         return cols;
     }
+
+    /**
+     * Print board to standard output, as printBoard(board, System.out) does.
+     */
     public static void printBoard(Board board) {
-        for (int i = 0; i < board.getRows(); i++) {
-            for (int j = 0; j < board.getCols(); j++) {
-                Board.Square square = board.getSquare(j, i);
-                if (square.state == Board.SquareState.UNTOUCHED) {
-                    System.out.print("-");
-                } else if (square.state == Board.SquareState.FLAGGED) {
-                    System.out.print("F");
-                } else if (square.state == Board.SquareState.DUG) {
-                    if (square.hasBomb) {
-                        System.out.print("B");
+        printBoard(board, System.out);
+    }
+
+    /**
+     * Print board compactly, one character per square and one line per row: '-' untouched,
+     * 'F' flagged, 'B' a dug bomb, else the digit of the neighbor bomb count. Rows are printed
+     * some 64K characters at a time rather than square by square, so even a large board prints
+     * in a few writes.
+     *
+     * @param board board to print
+     * @param out where to print it
+     */
+    public static void printBoard(Board board, PrintStream out) {
+        int line = board.cols + 1;
+        int band = Math.max(1, (1 << 16) / line);
+        char[] chars = new char[Math.min(band, board.rows) * line];
+        for (int top = 0; top < board.rows; top += band) {
+            int bottom = Math.min(top + band, board.rows);
+            int c = 0;
+            for (int y = top; y < bottom; y++) {
+                for (int i = y * board.cols; i < (y + 1) * board.cols; i++) {
+                    int cell = board.cells[i];
+                    int state = cell & STATE_MASK;
+                    if (state == 0) {
+                        chars[c++] = '-';
+                    } else if (state == FLAGGED) {
+                        chars[c++] = 'F';
+                    } else if ((cell & BOMB) != 0) {
+                        chars[c++] = 'B';
                     } else {
-                        System.out.print(square.countNums);
+                        chars[c++] = (char) ('0' + (cell & COUNT_MASK));
                     }
                 }
-                System.out.print(" ");
+                chars[c++] = '\n';
             }
-            System.out.println();
+            out.print(c == chars.length ? chars : Arrays.copyOf(chars, c));
         }
+        out.flush();
     }
 
     enum SquareState {
@@ -209,16 +714,4 @@ public class Board {
         DUG
     }
 
-    class Square {
-        SquareState state;
-        boolean hasBomb;
-        int countNums;
-
-        private Square() {
-            state = SquareState.UNTOUCHED;
-            hasBomb = false;
-            countNums = 0;
-        }
-    }
-
 }
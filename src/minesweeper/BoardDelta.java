@@ -0,0 +1,157 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The delta format: one line that carries only the squares that changed between two snapshots
+ * of a board, so its length grows with the change rather than with the board.
+ * <pre>
+ *   DELTA ::= "delta" SPACE VERSION (SPACE RUN)*
+ *   RUN ::= X "," Y ":" SQUARE+
+ *   SQUARE ::= "-" | "F" | "_" | [1-8]
+ *   VERSION ::= [0-9]+
+ *   X ::= [0-9]+
+ *   Y ::= [0-9]+
+ * </pre>
+ * A run gives consecutive squares in row-major order starting at column X, row Y; it may go on
+ * past the end of a row into the next ones, so a patch of whole rows is a single run starting at
+ * column 0. Squares are as in Board.toString(), except that a dug square with no neighboring
+ * bombs is "_" instead of " ". VERSION is the version of the snapshot the squares are from.
+ */
+public final class BoardDelta {
+
+    /** Unchanged squares between two changed ones that are sent rather than starting a new run. */
+    private static final int MAX_GAP = 4;
+
+    /**
+     * Receives the squares of a delta line.
+     */
+    public interface SquareVisitor {
+        /**
+         * @param x column of the square
+         * @param y row of the square
+         * @param symbol square as in Board.toString(), with ' ' for a dug square with no neighboring bombs
+         */
+        void square(int x, int y, char symbol);
+    }
+
+    private BoardDelta() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * Encode the squares that differ between two snapshots of a board.
+     *
+     * @param previous snapshot the client already has, or null if it has none
+     * @param next snapshot to bring the client up to
+     * @return bytes of a delta line, without line terminator
+     */
+    public static byte[] encode(BoardSnapshot previous, BoardSnapshot next) {
+        int cols = next.getCols();
+        int rows = next.getRows();
+        boolean all = previous == null || previous.getCols() != cols || previous.getRows() != rows;
+        int size = BoardSnapshot.TILE_SIZE;
+        int tilesX = (cols + size - 1) / size;
+        boolean[] changedTiles = new boolean[tilesX];
+
+        StringBuilder sb = new StringBuilder(32).append("delta ").append(next.getVersion());
+        long runStart = -1;
+        long runEnd = -1;
+        for (int y = 0; y < rows; y++) {
+            if (y % size == 0) {
+                boolean any = false;
+                for (int tx = 0; tx < tilesX; tx++) {
+                    changedTiles[tx] = all || !next.sharesTile(previous, tx * size, y);
+                    any |= changedTiles[tx];
+                }
+                if (!any) {
+                    // nothing changed in this row of tiles
+                    y += size - 1;
+                    continue;
+                }
+            }
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (!changedTiles[tx]) {
+                    continue;
+                }
+                int maxX = Math.min((tx + 1) * size, cols);
+                for (int x = tx * size; x < maxX; x++) {
+                    if (!all && next.cell(x, y) == previous.cell(x, y)) {
+                        continue;
+                    }
+                    long index = (long) y * cols + x;
+                    if (runStart >= 0 && index - runEnd <= MAX_GAP) {
+                        runEnd = index + 1;
+                    } else {
+                        appendRun(sb, next, runStart, runEnd);
+                        runStart = index;
+                        runEnd = index + 1;
+                    }
+                }
+            }
+        }
+        appendRun(sb, next, runStart, runEnd);
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void appendRun(StringBuilder sb, BoardSnapshot snapshot, long start, long end) {
+        if (start < 0) {
+            return;
+        }
+        int cols = snapshot.getCols();
+        int x = (int) (start % cols);
+        int y = (int) (start / cols);
+        sb.append(' ').append(x).append(',').append(y).append(':');
+        for (long i = start; i < end; i++) {
+            char symbol = Board.symbol(snapshot.cell(x, y));
+            sb.append(symbol == ' ' ? '_' : symbol);
+            if (++x == cols) {
+                x = 0;
+                y++;
+            }
+        }
+    }
+
+    /**
+     * Decode a delta line.
+     *
+     * @param line a line in the delta format, without line terminator
+     * @param cols number of columns of the board
+     * @param visitor receives every square of the line, in order
+     * @return version of the snapshot the squares are from
+     * @throws IllegalArgumentException if line is not in the delta format
+     */
+    public static long decode(String line, int cols, SquareVisitor visitor) {
+        String[] parts = line.split(" ");
+        if (parts.length < 2 || !parts[0].equals("delta")) {
+            throw new IllegalArgumentException("not a delta: " + line);
+        }
+        try {
+            long version = Long.parseLong(parts[1]);
+            for (int i = 2; i < parts.length; i++) {
+                String run = parts[i];
+                int comma = run.indexOf(',');
+                int colon = run.indexOf(':', comma + 1);
+                if (comma < 0 || colon < 0) {
+                    throw new IllegalArgumentException("bad run: " + run);
+                }
+                int x = Integer.parseInt(run.substring(0, comma));
+                int y = Integer.parseInt(run.substring(comma + 1, colon));
+                for (int j = colon + 1; j < run.length(); j++) {
+                    char symbol = run.charAt(j);
+                    visitor.square(x, y, symbol == '_' ? ' ' : symbol);
+                    if (++x == cols) {
+                        x = 0;
+                        y++;
+                    }
+                }
+            }
+            return version;
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("not a delta: " + line, nfe);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Board files: the text format that MinesweeperServer.main(..) documents, and a binary format
+ * a board loads from without parsing. A binary board file is
+ * <pre>
+ *   header  MAGIC, VERSION, flags, columns and rows, as big-endian ints, padded to HEADER_BYTES
+ *   mines   one bit per square, row-major, square i in bit (i % 8) of byte (i / 8)
+ *   cells   only if flags has CELLS: one byte per square, row-major, packed as Board keeps
+ *           them, with counts and any flagged or dug squares
+ * </pre>
+ * The file is mapped rather than read, and with CELLS the board's squares are copied straight
+ * out of the mapping, so loading a board of hundreds of millions of squares costs about one
+ * copy of it and nothing in between but a check of each square and a count of the bombs; the
+ * counts in the file are not trusted. Run main(..) to convert a text board file.
+ */
+public final class BoardFile {
+
+    /** "MSBD", the first bytes of a binary board file. */
+    public static final int MAGIC = 0x4D534244;
+    /** Version of the format this class reads and writes. */
+    public static final int VERSION = 1;
+    /** Flag of a file with the cells section. */
+    public static final int CELLS = 1;
+    /** Size of the header, in bytes. */
+    public static final int HEADER_BYTES = 32;
+
+    private BoardFile() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * @param file a file
+     * @return true if file starts like a binary board file
+     * @throws IOException if file cannot be read
+     */
+    public static boolean isBinary(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // keep reading
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Load a board from a binary board file.
+     *
+     * @param file a binary board file
+     * @return the board it holds, with snapshots off
+     * @throws IOException if file cannot be read or is not a valid binary board file
+     */
+    public static Board map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("not a board file: " + file);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("not a board file: " + file);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("unknown board file version " + header.getInt(4) + ": " + file);
+            }
+            int flags = header.getInt(8);
+            int cols = header.getInt(12);
+            int rows = header.getInt(16);
+            long squares = (long) cols * rows;
+            if (cols <= 0 || rows <= 0 || squares > Board.MAX_CELLS) {
+                throw new IOException("invalid board size " + cols + "x" + rows + ": " + file);
+            }
+            long minesBytes = (squares + 7) / 8;
+            boolean withCells = (flags & CELLS) != 0;
+            if (channel.size() < HEADER_BYTES + minesBytes + (withCells ? squares : 0)) {
+                throw new IOException("truncated board file: " + file);
+            }
+            Board board = new Board(cols, rows);
+            byte[] cells = board.cells();
+            if (withCells) {
+                channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + minesBytes, squares).get(cells);
+                for (int i = 0; i < cells.length; i++) {
+                    if ((cells[i] & ~(Board.COUNT_MASK | Board.BOMB | Board.STATE_MASK)) != 0
+                            || (cells[i] & Board.STATE_MASK) == Board.STATE_MASK) {
+                        throw new IOException("invalid square " + (i % cols) + "," + (i / cols) + ": " + file);
+                    }
+                }
+                // recount rather than trust the counts, which must match the bombs
+                board.bombCount(ForkJoinPool.commonPool());
+                return board;
+            }
+            MappedByteBuffer mines = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, minesBytes);
+            mines.order(ByteOrder.LITTLE_ENDIAN);
+            // 64 squares at a time, skipping runs without bombs
+            int words = (int) (minesBytes / 8);
+            for (int w = 0; w < words; w++) {
+                for (long bits = mines.getLong(w * 8); bits != 0; bits &= bits - 1) {
+                    cells[w * 64 + Long.numberOfTrailingZeros(bits)] = Board.BOMB;
+                }
+            }
+            for (int i = words * 64; i < cells.length; i++) {
+                if ((mines.get(i >>> 3) & (1 << (i & 7))) != 0) {
+                    cells[i] = Board.BOMB;
+                }
+            }
+            board.bombCount(ForkJoinPool.commonPool());
+            return board;
+        }
+    }
+
+    /**
+     * Write board to a binary board file.
+     *
+     * @param board board to write; must not change while it is written
+     * @param file file to write, replaced if it exists
+     * @param withCells true to write the cells section, which makes the file 9 times bigger
+     *                  but keeps flagged and dug squares
+     * @throws IOException if writing file fails
+     */
+    public static void write(Board board, Path file, boolean withCells) throws IOException {
+        byte[] cells = board.cells();
+        try (OutputStream stream = Files.newOutputStream(file);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(withCells ? CELLS : 0);
+            out.writeInt(board.getCols());
+            out.writeInt(board.getRows());
+            out.write(new byte[HEADER_BYTES - 20]);
+            for (int i = 0; i < cells.length; i += 8) {
+                int bits = 0;
+                for (int j = Math.min(i + 8, cells.length) - 1; j >= i; j--) {
+                    bits = (bits << 1) | ((cells[j] & Board.BOMB) >>> 4);
+                }
+                out.write(bits);
+            }
+            if (withCells) {
+                out.write(cells);
+            }
+        }
+    }
+
+    /**
+     * Load a board from a text board file, in the format MinesweeperServer.main(..) documents.
+     *
+     * @param file a text board file
+     * @return the board it holds
+     * @throws RuntimeException if file cannot be read or is not a valid board file
+     */
+    public static Board parseText(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return parseText(channel);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load a board from a text board file, in the format MinesweeperServer.main(..) documents,
+     * except that the last line may lack its NEWLINE. The file is read through one buffer and
+     * checked a byte at a time, and the bombs go straight into the board.
+     *
+     * @param in the text of a board file, read up to its end
+     * @return the board it holds
+     * @throws IOException if reading from in fails
+     * @throws RuntimeException if in does not hold a valid board file
+     */
+    public static Board parseText(ReadableByteChannel in) throws IOException {
+        return new TextReader(in).read();
+    }
+
+    /**
+     * Parser of one text board file. The first line is short, and is parsed as a String; the
+     * lines of squares are checked and stored a byte at a time.
+     */
+    private static final class TextReader {
+
+        private final ReadableByteChannel in;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final byte[] bytes = buffer.array();
+        private int position;
+        private int limit;
+
+        TextReader(ReadableByteChannel in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the next byte of the file, 0 to 255, or -1 at its end
+         */
+        private int next() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        /**
+         * Read more of the file into the buffer, which must be used up.
+         *
+         * @return false at the end of the file
+         */
+        private boolean fill() throws IOException {
+            buffer.clear();
+            int n;
+            do {
+                n = in.read(buffer);
+            } while (n == 0);
+            position = 0;
+            limit = Math.max(n, 0);
+            return n > 0;
+        }
+
+        /**
+         * Finish a line whose terminator starts with c.
+         *
+         * @return true if c starts a NEWLINE or is the end of the file
+         */
+        private boolean endOfLine(int c) throws IOException {
+            if (c == '\r') {
+                int after = next();
+                if (after != '\n' && after != -1) {
+                    // not part of the NEWLINE, and still in the buffer
+                    position--;
+                }
+                return true;
+            }
+            return c == '\n' || c == -1;
+        }
+
+        Board read() throws IOException {
+            StringBuilder firstLine = new StringBuilder();
+            int c = next();
+            if (c == -1) {
+                throw new RuntimeException("File is empty");
+            }
+            for (; !endOfLine(c); c = next()) {
+                firstLine.append((char) c);
+            }
+            String[] dimensions = firstLine.toString().split(" ");
+            if (dimensions.length != 2) {
+                throw new RuntimeException("Invalid dimensions");
+            }
+            int x;
+            int y;
+            try {
+                x = Integer.parseInt(dimensions[0]);
+                y = Integer.parseInt(dimensions[1]);
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid number format: " + e.getMessage());
+            }
+            if (x <= 0 || y <= 0) {
+                throw new RuntimeException("Invalid dimensions");
+            }
+            Board board = new Board(x, y);
+            byte[] cells = board.cells();
+            for (int i = 0; i < y; i++) {
+                int rowStart = i * x;
+                for (int j = 0; j < x; j++) {
+                    int separator;
+                    if (limit - position >= 2) {
+                        // the common case, without a refill to check for
+                        c = bytes[position] & 0xFF;
+                        separator = bytes[position + 1] & 0xFF;
+                        position += 2;
+                    } else {
+                        c = next();
+                        separator = next();
+                    }
+                    if (c == '1') {
+                        cells[rowStart + j] = Board.BOMB;
+                    } else if (c != '0') {
+                        throw new RuntimeException("Invalid board file");
+                    }
+                    if (j < x - 1 ? separator != ' ' : !endOfLine(separator)) {
+                        throw new RuntimeException("Invalid board file");
+                    }
+                }
+            }
+            if (next() != -1) {
+                throw new RuntimeException("Invalid board file");
+            }
+            board.bombCount(ForkJoinPool.commonPool());
+            return board;
+        }
+    }
+
+    /**
+     * Convert a text board file to a binary one.
+     * <br> Usage: BoardFile [--cells] TEXT_FILE BINARY_FILE
+     * <br> With --cells, the binary file also has the cells section.
+     *
+     * @param args arguments as described
+     */
+    public static void main(String[] args) {
+        boolean withCells = args.length == 3 && args[0].equals("--cells");
+        if (args.length != (withCells ? 3 : 2)) {
+            System.err.println("usage: BoardFile [--cells] TEXT_FILE BINARY_FILE");
+            return;
+        }
+        String in = args[args.length - 2];
+        String out = args[args.length - 1];
+        Board board = parseText(new File(in));
+        try {
+            write(board, Paths.get(out), withCells);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        System.out.println("Wrote " + board.getCols() + "x" + board.getRows() + " board to " + out);
+    }
+}
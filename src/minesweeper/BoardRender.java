@@ -0,0 +1,106 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders snapshots of a Board to the bytes of Board.toString(), reusing the last rendering.
+ *
+ * Every square has a fixed offset in the text, y * (2 * cols + 1) + 2 * x, so the next rendering
+ * is a copy of the last one with only the squares of changed tiles written again. The arrays
+ * returned are shared by every caller and must not be changed; any number of clients can be
+ * sent the same bytes.
+ */
+public final class BoardRender {
+
+    // Rep: latest is null or a rendering of some snapshot of board.
+    // Rep exposure: rendered arrays are handed out, and are never written once they are.
+    // Thread safety argument:
+    //   a Rendered is immutable once published through the AtomicReference; threads that race to
+    //   render keep whichever rendering has the latest version, and each returns its own.
+
+    private static final class Rendered {
+        private final BoardSnapshot snapshot;
+        private final byte[] bytes;
+
+        private Rendered(BoardSnapshot snapshot, byte[] bytes) {
+            this.snapshot = snapshot;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Board board;
+    private final AtomicReference<Rendered> latest = new AtomicReference<>();
+
+    /**
+     * Make a render cache for board.
+     *
+     * @param board board with snapshots enabled, with at most (Integer.MAX_VALUE - 8) / 2 squares
+     */
+    public BoardRender(Board board) {
+        this.board = board;
+    }
+
+    /**
+     * @return the latest snapshot of the board as the bytes of its toString(), without a final
+     *         line terminator; must not be changed
+     */
+    public byte[] render() {
+        return render(board.snapshot());
+    }
+
+    /**
+     * @param snapshot snapshot of this render's board
+     * @return snapshot.toString() as bytes; must not be changed
+     */
+    public byte[] render(BoardSnapshot snapshot) {
+        Rendered last = latest.get();
+        if (last != null && last.snapshot == snapshot) {
+            return last.bytes;
+        }
+        byte[] bytes = last == null ? full(snapshot) : patch(last, snapshot);
+        Rendered next = new Rendered(snapshot, bytes);
+        while (last == null || last.snapshot.getVersion() < snapshot.getVersion()) {
+            if (latest.compareAndSet(last, next)) {
+                break;
+            }
+            last = latest.get();
+        }
+        return bytes;
+    }
+
+    private static byte[] full(BoardSnapshot snapshot) {
+        return snapshot.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Copy the bytes of last and write again every square of the tiles snapshot does not share
+     * with last.snapshot.
+     */
+    private static byte[] patch(Rendered last, BoardSnapshot snapshot) {
+        byte[] bytes = last.bytes.clone();
+        int cols = snapshot.getCols();
+        int rows = snapshot.getRows();
+        int size = BoardSnapshot.TILE_SIZE;
+        int lineLength = 2 * cols + 1;
+        for (int y0 = 0; y0 < rows; y0 += size) {
+            for (int x0 = 0; x0 < cols; x0 += size) {
+                if (snapshot.sharesTile(last.snapshot, x0, y0)) {
+                    continue;
+                }
+                int maxY = Math.min(y0 + size, rows);
+                int maxX = Math.min(x0 + size, cols);
+                for (int y = y0; y < maxY; y++) {
+                    int offset = y * lineLength;
+                    for (int x = x0; x < maxX; x++) {
+                        bytes[offset + 2 * x] = (byte) Board.symbol(snapshot.cell(x, y));
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+}
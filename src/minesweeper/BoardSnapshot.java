@@ -0,0 +1,192 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * An immutable, versioned copy of what players can see of a Board. Snapshots are made of
+ * TILE_SIZE x TILE_SIZE tiles; a new version shares every tile that did not change with the
+ * version before it, so publishing one costs in proportion to what changed.
+ */
+public final class BoardSnapshot {
+
+    /** Side of a square tile, in squares; the same tiles TileLocks locks. */
+    public static final int TILE_SIZE = TileLocks.TILE_SIZE;
+
+    // Rep: tiles[ty][tx] holds the packed squares of columns [tx * TILE_SIZE, tx * TILE_SIZE + width)
+    //      and rows [ty * TILE_SIZE, ty * TILE_SIZE + height), row-major, where width and height are
+    //      TILE_SIZE clipped to the board.
+    // Rep exposure: no array is ever written after construction; tile() hands them out only within
+    //      the package, whose code never writes them.
+    // Thread safety: immutable.
+
+    private final long version;
+    private final int cols;
+    private final int rows;
+    private final byte[][][] tiles;
+
+    private BoardSnapshot(long version, int cols, int rows, byte[][][] tiles) {
+        this.version = version;
+        this.cols = cols;
+        this.rows = rows;
+        this.tiles = tiles;
+    }
+
+    /**
+     * Make a snapshot of every square.
+     *
+     * @param cells packed squares of a board, as in Board
+     */
+    static BoardSnapshot of(long version, byte[] cells, int cols, int rows) {
+        int tilesX = (cols + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesY = (rows + TILE_SIZE - 1) / TILE_SIZE;
+        byte[][][] tiles = new byte[tilesY][tilesX][];
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                tiles[ty][tx] = copyTile(cells, cols, rows, ty * tilesX + tx);
+            }
+        }
+        return new BoardSnapshot(version, cols, rows, tiles);
+    }
+
+    /**
+     * Copy one tile out of the packed squares of a board.
+     *
+     * @param tile tile index, row-major over tiles as in TileLocks
+     */
+    static byte[] copyTile(byte[] cells, int cols, int rows, int tile) {
+        int tilesX = (cols + TILE_SIZE - 1) / TILE_SIZE;
+        int x0 = (tile % tilesX) * TILE_SIZE;
+        int y0 = (tile / tilesX) * TILE_SIZE;
+        int width = Math.min(TILE_SIZE, cols - x0);
+        int height = Math.min(TILE_SIZE, rows - y0);
+        byte[] copy = new byte[width * height];
+        for (int j = 0; j < height; j++) {
+            System.arraycopy(cells, (y0 + j) * cols + x0, copy, j * width, width);
+        }
+        return copy;
+    }
+
+    /**
+     * Make the next version of this snapshot.
+     *
+     * @param changed indices of the tiles that changed
+     * @param copies copies[i] is the new content of the i-th tile in changed
+     */
+    BoardSnapshot with(BitSet changed, byte[][] copies) {
+        int tilesX = tiles[0].length;
+        byte[][][] next = tiles.clone();
+        int i = 0;
+        int clonedRow = -1;
+        for (int t = changed.nextSetBit(0); t >= 0; t = changed.nextSetBit(t + 1), i++) {
+            int ty = t / tilesX;
+            if (ty != clonedRow) {
+                next[ty] = tiles[ty].clone();
+                clonedRow = ty;
+            }
+            next[ty][t % tilesX] = copies[i];
+        }
+        return new BoardSnapshot(version + 1, cols, rows, next);
+    }
+
+    /**
+     * @return version of the board this is a snapshot of; later versions have larger numbers
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return packed square at column x, row y
+     */
+    int cell(int x, int y) {
+        byte[] tile = tiles[y / TILE_SIZE][x / TILE_SIZE];
+        int width = Math.min(TILE_SIZE, cols - x / TILE_SIZE * TILE_SIZE);
+        return tile[(y % TILE_SIZE) * width + x % TILE_SIZE];
+    }
+
+    /**
+     * @param tx column of the tile
+     * @param ty row of the tile
+     * @return packed squares of the tile, row-major, TILE_SIZE wide or clipped to the board;
+     *         shared with this snapshot and must not be changed
+     */
+    byte[] tile(int tx, int ty) {
+        return tiles[ty][tx];
+    }
+
+    /**
+     * @param other snapshot of the same board
+     * @return true if the tile containing (x, y) did not change between other and this
+     */
+    boolean sharesTile(BoardSnapshot other, int x, int y) {
+        return tiles[y / TILE_SIZE][x / TILE_SIZE] == other.tiles[y / TILE_SIZE][x / TILE_SIZE];
+    }
+
+    public boolean touched(int x, int y) {
+        return (cell(x, y) & Board.STATE_MASK) == Board.DUG;
+    }
+
+    public boolean flagged(int x, int y) {
+        return (cell(x, y) & Board.STATE_MASK) == Board.FLAGGED;
+    }
+
+    /**
+     * Write every square of this snapshot, packed as Board keeps them, in the format Board.read()
+     * reads: the number of columns and of rows as ints, then one byte per square, row-major.
+     *
+     * @param out where to write
+     * @throws IOException if writing to out fails
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(cols);
+        out.writeInt(rows);
+        for (int i = 0; i < rows; i++) {
+            byte[][] tileRow = tiles[i / TILE_SIZE];
+            int offset = i % TILE_SIZE;
+            for (int tx = 0; tx < tileRow.length; tx++) {
+                int width = Math.min(TILE_SIZE, cols - tx * TILE_SIZE);
+                out.write(tileRow[tx], offset * width, width);
+            }
+        }
+    }
+
+    /**
+     * @return the board in the same format as Board.toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(rows * (2 * cols + 1));
+        for (int i = 0; i < rows; i++) {
+            byte[][] tileRow = tiles[i / TILE_SIZE];
+            int offset = i % TILE_SIZE;
+            for (int tx = 0; tx < tileRow.length; tx++) {
+                byte[] tile = tileRow[tx];
+                int width = Math.min(TILE_SIZE, cols - tx * TILE_SIZE);
+                for (int j = 0; j < width; j++) {
+                    if (tx > 0 || j > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(Board.symbol(tile[offset * width + j]));
+                }
+            }
+            if (i < rows - 1) {
+                sb.append('\r');
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,68 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+/**
+ * Growable FIFO queue of ints backed by a ring buffer. Not thread safe.
+ */
+final class IntQueue {
+
+    // Rep: elements are items[(head + i) & (items.length - 1)] for 0 <= i < size;
+    //      items.length is a power of two.
+
+    private int[] items;
+    private int head;
+    private int size;
+
+    IntQueue() {
+        this(64);
+    }
+
+    /**
+     * @param capacity initial capacity, requires capacity > 0
+     */
+    IntQueue(int capacity) {
+        items = new int[Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(int value) {
+        if (size == items.length) {
+            grow();
+        }
+        items[(head + size) & (items.length - 1)] = value;
+        size++;
+    }
+
+    /**
+     * @return the oldest element, requires !isEmpty()
+     */
+    int poll() {
+        int value = items[head];
+        head = (head + 1) & (items.length - 1);
+        size--;
+        return value;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        int[] larger = new int[items.length << 1];
+        int firstPart = items.length - head;
+        System.arraycopy(items, head, larger, 0, firstPart);
+        System.arraycopy(items, 0, larger, firstPart, head);
+        items = larger;
+        head = 0;
+    }
+}
@@ -13,6 +13,8 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -164,8 +166,8 @@ public class MinesweeperGUI extends JFrame {
                     initializeButtons();
                     pack();
                     
-                    // 发送look命令获取初始棋盘
-                    sendCommand("look");
+                    // 订阅棋盘变化：服务器先发送整个棋盘，之后主动推送所有玩家造成的变化，无需轮询 look
+                    sendCommand("watch");
                 } catch (Exception e) {
                     System.err.println("解析棋盘大小失败: " + e.getMessage());
                 }
@@ -197,9 +199,13 @@ public class MinesweeperGUI extends JFrame {
     }
     
    /**
- * 根据服务器返回的数据更新棋盘显示
+ * 根据服务器返回的数据更新棋盘显示。数据可以是整个棋盘，也可以是一行增量（见 BoardDelta）。
  */
 private void updateBoard(String boardData) {
+    if (boardData.startsWith("delta ")) {
+        applyDelta(boardData);
+        return;
+    }
     SwingUtilities.invokeLater(() -> {
         try {
             String[] lines = boardData.split("\r\n");
@@ -215,42 +221,7 @@ private void updateBoard(String boardData) {
                     String cell = cells[x + startIdx];
                     if (x >= cols || y >= rows) continue; // 防止数组越界
                     
-                    JButton button = buttons[y][x];
-                    
-                    if ("-".equals(cell)) {
-                        button.setText("");
-                        button.setBackground(null);
-                    } else if ("F".equals(cell)) {
-                        button.setText("F");
-                        button.setBackground(Color.YELLOW);
-                    } else if (cell.isEmpty() || " ".equals(cell)) {
-                        // 已挖开且周围无地雷
-                        button.setText("");
-                        button.setBackground(Color.LIGHT_GRAY);
-                        button.setEnabled(false);
-                    } else {
-                        try {
-                            // 尝试解析为数字
-                            int count = Integer.parseInt(cell);
-                            // 已挖开且周围有地雷
-                            button.setText(cell);
-                            button.setBackground(Color.LIGHT_GRAY);
-                            button.setEnabled(false);
-                            
-                            // 根据周围地雷数量设置不同颜色
-                            switch (count) {
-                                case 1: button.setForeground(Color.BLUE); break;
-                                case 2: button.setForeground(Color.GREEN); break;
-                                case 3: button.setForeground(Color.RED); break;
-                                case 4: button.setForeground(Color.MAGENTA); break;
-                                default: button.setForeground(Color.BLACK); break;
-                            }
-                        } catch (NumberFormatException e) {
-                            // 不是数字，可能是其他特殊符号
-                            button.setText(cell);
-                            button.setBackground(Color.LIGHT_GRAY);
-                        }
-                    }
+                    showCell(buttons[y][x], cell);
                 }
             }
         } catch (Exception e) {
@@ -260,6 +231,69 @@ private void updateBoard(String boardData) {
     });
 }
 
+    /**
+     * 应用一行增量：只更新变化的格子
+     */
+    private void applyDelta(String delta) {
+        int boardCols = cols;
+        List<int[]> squares = new ArrayList<>();
+        try {
+            BoardDelta.decode(delta, boardCols, (x, y, symbol) -> squares.add(new int[] {x, y, symbol}));
+        } catch (IllegalArgumentException e) {
+            System.err.println("更新棋盘失败: " + e.getMessage());
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            for (int[] square : squares) {
+                int x = square[0];
+                int y = square[1];
+                if (x < cols && y < rows) { // 防止数组越界
+                    showCell(buttons[y][x], String.valueOf((char) square[2]));
+                }
+            }
+        });
+    }
+
+    /**
+     * 按服务器的格子符号显示一个按钮
+     */
+    private void showCell(JButton button, String cell) {
+        if ("-".equals(cell)) {
+            button.setText("");
+            button.setBackground(null);
+        } else if ("F".equals(cell)) {
+            button.setText("F");
+            button.setBackground(Color.YELLOW);
+        } else if (cell.isEmpty() || " ".equals(cell)) {
+            // 已挖开且周围无地雷
+            button.setText("");
+            button.setBackground(Color.LIGHT_GRAY);
+            button.setEnabled(false);
+        } else {
+            try {
+                // 尝试解析为数字
+                int count = Integer.parseInt(cell);
+                // 已挖开且周围有地雷
+                button.setText(cell);
+                button.setBackground(Color.LIGHT_GRAY);
+                button.setEnabled(false);
+                
+                // 根据周围地雷数量设置不同颜色
+                switch (count) {
+                    case 1: button.setForeground(Color.BLUE); break;
+                    case 2: button.setForeground(Color.GREEN); break;
+                    case 3: button.setForeground(Color.RED); break;
+                    case 4: button.setForeground(Color.MAGENTA); break;
+                    default: button.setForeground(Color.BLACK); break;
+                }
+            } catch (NumberFormatException e) {
+                // 不是数字，可能是其他特殊符号
+                button.setText(cell);
+                button.setBackground(Color.LIGHT_GRAY);
+            }
+        }
+    }
+
     
     /**
      * 主方法
@@ -0,0 +1,190 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks over a Board: one lock per TILE_SIZE x TILE_SIZE tile, so players on different
+ * parts of the board do not wait for each other.
+ *
+ * A thread may read or change a square only while it holds the lock of the square's tile.
+ * Locks are ordered by tile index, and a thread only ever blocks on a tile with a higher index
+ * than every tile it holds, which rules out deadlock. A cascade that reaches a busy tile with a
+ * lower index does not wait for it: the square is set aside, and the cascade continues there
+ * after the thread has released everything, in finishCascade().
+ */
+public class TileLocks {
+
+    /** Side of a square tile, in squares. */
+    public static final int TILE_SIZE = 64;
+
+    // Thread safety argument:
+    //   board is only touched by callers holding the locks of the tiles they read or change;
+    //   locks and the dimensions are final. A Hold is confined to the thread that made it.
+
+    private final Board board;
+    private final int tilesX;
+    private final ReentrantLock[] locks;
+
+    /**
+     * Make locks for the tiles of board.
+     */
+    public TileLocks(Board board) {
+        this.board = board;
+        this.tilesX = (board.getCols() + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesY = (board.getRows() + TILE_SIZE - 1) / TILE_SIZE;
+        this.locks = new ReentrantLock[tilesX * tilesY];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    private int tileOf(int x, int y) {
+        return (y / TILE_SIZE) * tilesX + x / TILE_SIZE;
+    }
+
+    /**
+     * Lock the tiles covering the 3x3 block around (x, y), which is everything a dig changes
+     * before it cascades.
+     *
+     * @param x column on the board
+     * @param y row on the board
+     * @return hold on those tiles
+     */
+    public Hold lockBlock(int x, int y) {
+        Hold hold = new Hold();
+        int minX = Math.max(x - 1, 0);
+        int maxX = Math.min(x + 1, board.getCols() - 1);
+        int minY = Math.max(y - 1, 0);
+        int maxY = Math.min(y + 1, board.getRows() - 1);
+        // row-major order over tiles is increasing index order
+        for (int j = minY; j <= maxY; j++) {
+            for (int i = minX; i <= maxX; i++) {
+                hold.acquire(tileOf(i, j));
+            }
+        }
+        return hold;
+    }
+
+    /**
+     * Lock the tile of (x, y).
+     *
+     * @param x column on the board
+     * @param y row on the board
+     * @return hold on that tile
+     */
+    public Hold lockSquare(int x, int y) {
+        Hold hold = new Hold();
+        hold.acquire(tileOf(x, y));
+        return hold;
+    }
+
+    /**
+     * Lock every tile, for reading the whole board consistently.
+     *
+     * @return hold on all tiles
+     */
+    public Hold lockAll() {
+        Hold hold = new Hold();
+        for (int t = 0; t < locks.length; t++) {
+            hold.acquire(t);
+        }
+        return hold;
+    }
+
+    /**
+     * The set of tiles one thread holds for one operation.
+     */
+    public class Hold {
+
+        // Rep: held is the set of tile indices this thread has locked, highest is the largest
+        //      of them or -1; deferred holds squares a cascade could not enter, or is null.
+
+        private final BitSet held = new BitSet();
+        private int highest = -1;
+        private IntQueue deferred;
+        private final Board.CascadeGuard guard = this::enter;
+
+        private Hold() {
+        }
+
+        /**
+         * Lock tile, which must be higher than every tile held.
+         */
+        private void acquire(int tile) {
+            if (held.get(tile)) {
+                return;
+            }
+            assert tile > highest;
+            locks[tile].lock();
+            held.set(tile);
+            highest = tile;
+        }
+
+        private boolean enter(int x, int y) {
+            int tile = tileOf(x, y);
+            if (held.get(tile)) {
+                return true;
+            }
+            if (tile > highest) {
+                acquire(tile);
+                return true;
+            }
+            if (locks[tile].tryLock()) {
+                held.set(tile);
+                return true;
+            }
+            if (deferred == null) {
+                deferred = new IntQueue();
+            }
+            deferred.add(y * board.getCols() + x);
+            return false;
+        }
+
+        /**
+         * Dig (x, y) as Board.dig does, spreading the cascade into further tiles as it goes.
+         * Requires this hold to come from lockBlock(x, y).
+         *
+         * @return number of squares changed to dug so far; finishCascade() may dig more
+         */
+        public int dig(int x, int y) {
+            return board.dig(x, y, guard);
+        }
+
+        /**
+         * Release every tile held.
+         */
+        public void unlock() {
+            for (int t = held.nextSetBit(0); t >= 0; t = held.nextSetBit(t + 1)) {
+                locks[t].unlock();
+            }
+            held.clear();
+            highest = -1;
+        }
+
+        /**
+         * Continue the cascade into squares that dig() had to set aside, locking their tiles
+         * afresh. Requires that no tiles are held, i.e. unlock() was called.
+         *
+         * @return number of further squares changed to dug
+         */
+        public int finishCascade() {
+            int revealed = 0;
+            while (deferred != null && !deferred.isEmpty()) {
+                int idx = deferred.poll();
+                int x = idx % board.getCols();
+                int y = idx / board.getCols();
+                acquire(tileOf(x, y));
+                try {
+                    revealed += board.reveal(x, y, guard);
+                } finally {
+                    unlock();
+                }
+            }
+            return revealed;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.load;
+
+/**
+ * A histogram of latencies in nanoseconds, recorded in log-linear buckets the way HdrHistogram
+ * does: values below SUB_BUCKETS each have a bucket of their own, and above that every power of
+ * two is split into SUB_BUCKETS / 2 buckets, so a percentile is exact to within 1/128 of its
+ * value whatever its size. Recording is a few instructions and never allocates; keep one
+ * histogram per thread and add() them up at the end.
+ */
+public final class LatencyHistogram {
+
+    /** Buckets of the values below the first power of two that is split. */
+    private static final int SUB_BUCKETS = 256;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+    /** Largest value recorded as itself, about 18 minutes; larger values are recorded as it. */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    // Rep: counts[index(v)] is the number of recorded values v; total is the sum of counts,
+    //      max the largest recorded value or 0, sum the sum of the recorded values.
+    // Thread safety argument: not thread-safe; each thread records into its own histogram.
+
+    private final long[] counts = new long[index(MAX_VALUE) + 1];
+    private long total;
+    private long max;
+    private long sum;
+
+    /**
+     * @return bucket of value, requires 0 <= value <= MAX_VALUE
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // value >>> shift is in [HALF, SUB_BUCKETS)
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    /**
+     * @return largest value in bucket index
+     */
+    private static long highest(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long sub = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Record one latency.
+     *
+     * @param nanos latency in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Record one latency of a client that sends a request every expectedIntervalNanos, and
+     * correct for coordinated omission: while the request took longer than the interval, the
+     * requests the client would have sent meanwhile would have waited too, so record them as
+     * well, with latencies shorter by one interval each. This is what HdrHistogram's
+     * recordValueWithExpectedInterval does.
+     *
+     * @param nanos latency in nanoseconds
+     * @param expectedIntervalNanos nanoseconds between requests, or 0 to record nanos alone
+     */
+    public void recordCorrected(long nanos, long expectedIntervalNanos) {
+        record(nanos);
+        if (expectedIntervalNanos <= 0) {
+            return;
+        }
+        for (long missed = nanos - expectedIntervalNanos; missed >= expectedIntervalNanos; missed -= expectedIntervalNanos) {
+            record(missed);
+        }
+    }
+
+    /**
+     * Add every value recorded in other to this histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * @return largest value recorded, or 0 if there is none
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return mean of the values recorded, or 0 if there is none
+     */
+    public double getMean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /**
+     * @param percentile percentile to compute, requires 0 <= percentile <= 100
+     * @return smallest value, up to bucket precision, that percentile percent of the recorded
+     *         values are at or below; 0 if none were recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highest(i), max);
+            }
+        }
+        return 0;
+    }
+}
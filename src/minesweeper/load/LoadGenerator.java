@@ -0,0 +1,590 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives a running MinesweeperServer with many clients over the text protocol and measures the
+ * latency of their requests.
+ *
+ * Each client has a connection and a thread of its own, and sends a mix of look, dig, flag and
+ * deflag requests at random squares, waiting for each reply before it sends the next request.
+ * In closed-loop mode a client sends its next request thinkMillis after the last reply; in
+ * open-loop mode the clients together send rate requests per second on a fixed schedule,
+ * whatever the replies take, and a request's latency counts from the time it was due, not the
+ * time it could be sent. A closed-loop client with a think time corrects its latencies for
+ * coordinated omission with LatencyHistogram.recordCorrected(..). A client whose dig hit a bomb
+ * reconnects, since the server hangs up on it unless it runs in debug mode.
+ *
+ * Requests sent during the warmup are not counted.
+ */
+public final class LoadGenerator {
+
+    /** Requests a client sends. */
+    public enum Verb {
+        LOOK, DIG, FLAG, DEFLAG;
+
+        private final String word = name().toLowerCase();
+    }
+
+    private static final Pattern WELCOME = Pattern.compile("Board: (\\d+) columns by (\\d+) rows");
+    private static final long RECONNECT_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private String host = "localhost";
+    private int port = 4444;
+    private int clients = 16;
+    private long durationMillis = 10 * 1000;
+    private long warmupMillis = 2 * 1000;
+    private long thinkMillis = 0;
+    private double rate = 0;
+    private int[] mix = { 1, 8, 1, 0 };
+    private long seed = 6005;
+
+    /**
+     * @param host host the server runs on
+     */
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    /**
+     * @param port port the server listens on, requires 0 < port <= 65535
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * @param clients number of client connections, requires clients > 0
+     */
+    public void setClients(int clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * @param durationMillis milliseconds to measure for, after the warmup, requires durationMillis > 0
+     */
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @param warmupMillis milliseconds to send requests for before measuring, requires warmupMillis >= 0
+     */
+    public void setWarmupMillis(long warmupMillis) {
+        this.warmupMillis = warmupMillis;
+    }
+
+    /**
+     * @param thinkMillis in closed-loop mode, milliseconds a client waits after a reply before
+     *                    it sends its next request, requires thinkMillis >= 0
+     */
+    public void setThinkMillis(long thinkMillis) {
+        this.thinkMillis = thinkMillis;
+    }
+
+    /**
+     * @param rate requests per second all clients together send in open-loop mode, or 0 for
+     *             closed-loop mode, requires rate >= 0
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * @param verb a request
+     * @param weight relative frequency of verb among the requests, requires weight >= 0, and
+     *               some verb must keep a positive weight
+     */
+    public void setWeight(Verb verb, int weight) {
+        mix[verb.ordinal()] = weight;
+    }
+
+    /**
+     * @param seed seed of the clients' choices of requests and squares
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Connect the clients, run the load, and disconnect them.
+     *
+     * @return what was measured
+     * @throws IOException if a client cannot connect at the start
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public Report run() throws IOException, InterruptedException {
+        int total = Arrays.stream(mix).sum();
+        if (total <= 0) {
+            throw new IllegalArgumentException("every verb has weight 0");
+        }
+        List<Client> all = new ArrayList<>();
+        try {
+            SplittableRandom seeds = new SplittableRandom(seed);
+            for (int i = 0; i < clients; i++) {
+                all.add(new Client(i, seeds.split()));
+            }
+        } catch (IOException ioe) {
+            for (Client client : all) {
+                client.connection.close();
+            }
+            throw ioe;
+        }
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        List<Thread> threads = new ArrayList<>();
+        for (Client client : all) {
+            Thread thread = new Thread(() -> client.run(start, measureFrom, end, total), "load-client-" + client.id);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Report report = new Report(TimeUnit.MILLISECONDS.toNanos(durationMillis));
+        for (Client client : all) {
+            for (Verb verb : Verb.values()) {
+                report.latencies[verb.ordinal()].add(client.latencies[verb.ordinal()]);
+                report.all.add(client.latencies[verb.ordinal()]);
+            }
+            report.errors += client.errors;
+            report.booms += client.booms;
+        }
+        return report;
+    }
+
+    /**
+     * One client: its connection, its random choices and what it measured.
+     */
+    private final class Client {
+
+        // Rep: connection is open, or null after a BOOM or a failed request until the next
+        //      request reconnects; latencies[v.ordinal()] holds the latencies of v requests.
+        // Thread safety argument: a client is used by the thread that runs it alone, and the
+        //      thread that started it reads latencies, errors and booms after join().
+
+        private final int id;
+        private final SplittableRandom random;
+        private final LatencyHistogram[] latencies = new LatencyHistogram[Verb.values().length];
+        private Connection connection;
+        private long errors;
+        private long booms;
+
+        Client(int id, SplittableRandom random) throws IOException {
+            this.id = id;
+            this.random = random;
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+            connection = new Connection(host, port);
+        }
+
+        void run(long start, long measureFrom, long end, int total) {
+            boolean open = rate > 0;
+            long interval = open ? (long) (1e9 * clients / rate) : 0;
+            long think = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+            // spread the clients' schedules evenly over one interval
+            long due = start + interval * id / clients;
+            try {
+                while (true) {
+                    long sent;
+                    if (open) {
+                        if (due >= end) {
+                            return;
+                        }
+                        for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        sent = due;
+                        due += interval;
+                    } else {
+                        sent = System.nanoTime();
+                    }
+                    if (sent >= end) {
+                        return;
+                    }
+
+                    Verb verb = pick(total);
+                    boolean boom;
+                    try {
+                        if (connection == null) {
+                            connection = new Connection(host, port);
+                        }
+                        boom = connection.request(verb, random);
+                    } catch (IOException ioe) {
+                        if (sent >= measureFrom) {
+                            errors++;
+                        }
+                        disconnect();
+                        LockSupport.parkNanos(RECONNECT_PAUSE_NANOS);
+                        continue;
+                    }
+                    long latency = System.nanoTime() - sent;
+                    if (sent >= measureFrom) {
+                        // open-loop latency already counts from when the request was due
+                        latencies[verb.ordinal()].recordCorrected(latency, open ? 0 : think);
+                        if (boom) {
+                            booms++;
+                        }
+                    }
+                    if (boom) {
+                        disconnect();
+                    }
+                    if ( ! open && think > 0) {
+                        LockSupport.parkNanos(think);
+                    }
+                }
+            } finally {
+                disconnect();
+            }
+        }
+
+        private Verb pick(int total) {
+            int r = random.nextInt(total);
+            for (Verb verb : Verb.values()) {
+                r -= mix[verb.ordinal()];
+                if (r < 0) {
+                    return verb;
+                }
+            }
+            throw new AssertionError("weights changed");
+        }
+
+        private void disconnect() {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * A blocking text-protocol connection to the server.
+     */
+    private static final class Connection {
+
+        // Rep: buffer[position..limit) are bytes read from socket and not consumed yet;
+        //      cols and rows are the size of the board the server welcomed the connection with.
+
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position;
+        private int limit;
+        private final int cols;
+        private final int rows;
+
+        /**
+         * Connect and read the welcome message.
+         */
+        Connection(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            try {
+                socket.setTcpNoDelay(true);
+                in = socket.getInputStream();
+                out = socket.getOutputStream();
+                String welcome = readLine();
+                Matcher matcher = WELCOME.matcher(welcome);
+                if ( ! matcher.find()) {
+                    throw new IOException("unexpected welcome message: \"" + welcome + "\"");
+                }
+                cols = Integer.parseInt(matcher.group(1));
+                rows = Integer.parseInt(matcher.group(2));
+            } catch (IOException | RuntimeException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Send verb, at a random square if it takes one, and read the reply.
+         *
+         * @return true if the reply was BOOM!
+         */
+        boolean request(Verb verb, SplittableRandom random) throws IOException {
+            String line = verb == Verb.LOOK ? "look\n"
+                    : verb.word + " " + random.nextInt(cols) + " " + random.nextInt(rows) + "\n";
+            out.write(line.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            if (peek() == 'B') {
+                readLine();
+                return true;
+            }
+            skipLines(rows);
+            return false;
+        }
+
+        private int peek() throws IOException {
+            if (position == limit) {
+                fill();
+            }
+            return buffer[position];
+        }
+
+        private void fill() throws IOException {
+            int n = in.read(buffer);
+            if (n < 0) {
+                throw new IOException("connection closed by server");
+            }
+            position = 0;
+            limit = n;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                if (position == limit) {
+                    fill();
+                }
+                byte b = buffer[position++];
+                if (b == '\n') {
+                    return line.toString().trim();
+                }
+                line.append((char) b);
+            }
+        }
+
+        private void skipLines(int lines) throws IOException {
+            while (lines > 0) {
+                if (position == limit) {
+                    fill();
+                }
+                while (position < limit && lines > 0) {
+                    if (buffer[position++] == '\n') {
+                        lines--;
+                    }
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // nothing more to do with it
+            }
+        }
+    }
+
+    /**
+     * What a run measured: latencies in nanoseconds of all requests and of each verb, and how
+     * many requests failed or hit a bomb.
+     */
+    public static final class Report {
+
+        private final long nanos;
+        private final LatencyHistogram all = new LatencyHistogram();
+        private final LatencyHistogram[] latencies = new LatencyHistogram[Verb.values().length];
+        private long errors;
+        private long booms;
+
+        private Report(long nanos) {
+            this.nanos = nanos;
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        /**
+         * @return latencies of all requests that were answered
+         */
+        public LatencyHistogram getLatencies() {
+            return all;
+        }
+
+        /**
+         * @return latencies of the verb requests that were answered
+         */
+        public LatencyHistogram getLatencies(Verb verb) {
+            return latencies[verb.ordinal()];
+        }
+
+        /**
+         * @return answered requests per second; with coordinated-omission correction in
+         *         closed-loop mode this counts the corrected requests too
+         */
+        public double getThroughput() {
+            return all.getCount() * 1e9 / nanos;
+        }
+
+        /**
+         * @return number of requests whose connection failed
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return number of digs that hit a bomb
+         */
+        public long getBooms() {
+            return booms;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%d requests in %.1f s: %.1f per second, %d errors, %d BOOMs%n",
+                    all.getCount(), nanos / 1e9, getThroughput(), errors, booms));
+            report.append(String.format("%-7s %10s %10s %10s %10s %10s %10s%n",
+                    "", "count", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+            row(report, "all", all);
+            for (Verb verb : Verb.values()) {
+                if (latencies[verb.ordinal()].getCount() > 0) {
+                    row(report, verb.word, latencies[verb.ordinal()]);
+                }
+            }
+            return report.toString();
+        }
+
+        private static void row(StringBuilder report, String name, LatencyHistogram histogram) {
+            report.append(String.format("%-7s %10d %10.3f %10.3f %10.3f %10.3f %10.3f%n", name, histogram.getCount(),
+                    histogram.getMean() / 1e6, histogram.getValueAtPercentile(50) / 1e6,
+                    histogram.getValueAtPercentile(99) / 1e6, histogram.getValueAtPercentile(99.9) / 1e6,
+                    histogram.getMax() / 1e6));
+        }
+    }
+
+    /**
+     * Run a load against a server and print the report.
+     *
+     * <br> Usage: LoadGenerator [--host HOST] [--port PORT] [--clients CLIENTS] [--duration SECONDS]
+     *      [--warmup SECONDS] [--rate REQUESTS_PER_SECOND | --think MILLIS] [--mix WEIGHTS] [--seed SEED]
+     *
+     * <br> HOST and PORT: where the server runs, by default localhost and 4444.
+     *
+     * <br> CLIENTS: number of connections, by default 16.
+     *
+     * <br> SECONDS: how long to measure for, by default 10, after a warmup of 2.
+     *
+     * <br> REQUESTS_PER_SECOND: run open-loop at this total arrival rate. Without --rate the
+     *      clients run closed-loop, waiting MILLIS after each reply, by default 0. At most one of
+     *      --rate and --think may be given.
+     *
+     * <br> WEIGHTS: relative frequencies of the requests, as a comma-separated list of VERB:WEIGHT
+     *      with VERB one of look, dig, flag and deflag, by default "look:1,dig:8,flag:1,deflag:0".
+     *      Verbs not listed keep their default weight.
+     *
+     * @param args arguments as described
+     */
+    public static void main(String[] args) {
+        LoadGenerator load = new LoadGenerator();
+
+        Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
+        boolean rated = false;
+        boolean thinking = false;
+        try {
+            while ( ! arguments.isEmpty()) {
+                String flag = arguments.remove();
+                try {
+                    if (flag.equals("--host")) {
+                        load.setHost(arguments.remove());
+                    } else if (flag.equals("--port")) {
+                        int port = Integer.parseInt(arguments.remove());
+                        if (port <= 0 || port > 65535) {
+                            throw new IllegalArgumentException("port " + port + " out of range");
+                        }
+                        load.setPort(port);
+                    } else if (flag.equals("--clients")) {
+                        int clients = Integer.parseInt(arguments.remove());
+                        if (clients <= 0) {
+                            throw new IllegalArgumentException("clients " + clients + " out of range");
+                        }
+                        load.setClients(clients);
+                    } else if (flag.equals("--duration")) {
+                        double seconds = Double.parseDouble(arguments.remove());
+                        if ( ! (seconds > 0)) {
+                            throw new IllegalArgumentException("duration " + seconds + " out of range");
+                        }
+                        load.setDurationMillis((long) (seconds * 1000));
+                    } else if (flag.equals("--warmup")) {
+                        double seconds = Double.parseDouble(arguments.remove());
+                        if ( ! (seconds >= 0)) {
+                            throw new IllegalArgumentException("warmup " + seconds + " out of range");
+                        }
+                        load.setWarmupMillis((long) (seconds * 1000));
+                    } else if (flag.equals("--rate")) {
+                        double rate = Double.parseDouble(arguments.remove());
+                        if ( ! (rate > 0)) {
+                            throw new IllegalArgumentException("rate " + rate + " out of range");
+                        }
+                        load.setRate(rate);
+                        rated = true;
+                    } else if (flag.equals("--think")) {
+                        long think = Long.parseLong(arguments.remove());
+                        if (think < 0) {
+                            throw new IllegalArgumentException("think time " + think + " out of range");
+                        }
+                        load.setThinkMillis(think);
+                        thinking = true;
+                    } else if (flag.equals("--mix")) {
+                        for (String entry : arguments.remove().split(",")) {
+                            String[] parts = entry.split(":");
+                            Verb verb;
+                            try {
+                                verb = Verb.valueOf(parts[0].toUpperCase());
+                            } catch (IllegalArgumentException iae) {
+                                throw new IllegalArgumentException("unknown request: \"" + parts[0] + "\"");
+                            }
+                            int weight = parts.length == 2 ? Integer.parseInt(parts[1]) : -1;
+                            if (weight < 0) {
+                                throw new IllegalArgumentException("invalid weight: \"" + entry + "\"");
+                            }
+                            load.setWeight(verb, weight);
+                        }
+                        if (Arrays.stream(load.mix).sum() <= 0) {
+                            throw new IllegalArgumentException("every request has weight 0");
+                        }
+                    } else if (flag.equals("--seed")) {
+                        load.setSeed(Long.parseLong(arguments.remove()));
+                    } else {
+                        throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                    }
+                } catch (NoSuchElementException nsee) {
+                    throw new IllegalArgumentException("missing argument for " + flag);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("unable to parse number for " + flag);
+                }
+            }
+            if (rated && thinking) {
+                throw new IllegalArgumentException("--rate and --think cannot be used together");
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.err.println("usage: LoadGenerator [--host HOST] [--port PORT] [--clients CLIENTS] [--duration SECONDS]"
+                    + " [--warmup SECONDS] [--rate REQUESTS_PER_SECOND | --think MILLIS] [--mix WEIGHTS] [--seed SEED]");
+            return;
+        }
+
+        try {
+            System.out.print(load.run());
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
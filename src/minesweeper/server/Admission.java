@@ -0,0 +1,99 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a new connection may be served: there is a limit on the connections open at
+ * once, and optionally on those from any one address. A connection admitted must be released
+ * when it ends, so that it stops counting.
+ */
+final class Admission {
+
+    /** Why a connection was not admitted. */
+    enum Refusal {
+        /** The server has as many connections as it serves. */
+        FULL,
+        /** The client's address has as many connections as one address may have. */
+        ADDRESS
+    }
+
+    // Rep: open is the number of connections admitted and not released, 0 <= open <= max.
+    //      perAddress maps each address with connections admitted and not released to their
+    //      number, 0 < perAddress.get(a) <= maxPerAddress; it is empty if maxPerAddress is 0.
+    // Thread safety argument:
+    //   open is atomic and only grows by a CAS that keeps it within max. Counts per address
+    //   change inside ConcurrentHashMap.compute, which runs atomically per key.
+
+    private final int max;
+    private final int maxPerAddress;
+    private final AtomicInteger open = new AtomicInteger();
+    private final ConcurrentHashMap<InetAddress, Integer> perAddress = new ConcurrentHashMap<>();
+
+    /**
+     * @param max most connections open at once, requires max > 0
+     * @param maxPerAddress most connections open at once from one address, or 0 for no limit,
+     *                      requires maxPerAddress >= 0
+     */
+    Admission(int max, int maxPerAddress) {
+        this.max = max;
+        this.maxPerAddress = maxPerAddress;
+    }
+
+    /**
+     * Admit a connection from address, if the limits allow it.
+     *
+     * @param address address the connection is from
+     * @return null if the connection is admitted and must be release()d, else why it is not
+     */
+    Refusal admit(InetAddress address) {
+        while (true) {
+            int count = open.get();
+            if (count >= max) {
+                return Refusal.FULL;
+            }
+            if (open.compareAndSet(count, count + 1)) {
+                break;
+            }
+        }
+        if (maxPerAddress > 0) {
+            boolean[] admitted = { false };
+            perAddress.compute(address, (key, count) -> {
+                int n = count == null ? 0 : count;
+                if (n >= maxPerAddress) {
+                    return count;
+                }
+                admitted[0] = true;
+                return n + 1;
+            });
+            if (!admitted[0]) {
+                open.decrementAndGet();
+                return Refusal.ADDRESS;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Note that a connection admitted from address ended.
+     *
+     * @param address address the connection was from
+     */
+    void release(InetAddress address) {
+        if (maxPerAddress > 0) {
+            perAddress.computeIfPresent(address, (key, count) -> count == 1 ? null : count - 1);
+        }
+        open.decrementAndGet();
+    }
+
+    /**
+     * @return number of connections admitted and not released
+     */
+    int getOpen() {
+        return open.get();
+    }
+}
@@ -0,0 +1,78 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+/**
+ * A reusable batch of requests from one client that arrived together, and their replies.
+ * MinesweeperServer.execute() runs a batch under one acquisition of the board lock, and the
+ * engines write all its replies with one flush. Not thread safe.
+ */
+final class Batch {
+
+    /** Most requests in one batch, which bounds how long a batch holds the board lock. */
+    static final int CAPACITY = 64;
+
+    // Rep: commands[0, size) are the requests in the order they arrived; replies[i] is the reply
+    //      to commands[i] once the batch was executed, else null. 0 <= size <= CAPACITY.
+
+    private final Command[] commands = new Command[CAPACITY];
+    private final byte[][] replies = new byte[CAPACITY][];
+    private int size;
+
+    Batch() {
+        for (int i = 0; i < CAPACITY; i++) {
+            commands[i] = new Command();
+        }
+    }
+
+    /**
+     * Append a copy of the parsed request command; requires !isFull().
+     */
+    void add(Command command) {
+        Command copy = commands[size++];
+        copy.type = command.type;
+        copy.x = command.x;
+        copy.y = command.y;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isFull() {
+        return size == CAPACITY;
+    }
+
+    /**
+     * @return the i-th request, requires 0 <= i < size()
+     */
+    Command get(int i) {
+        return commands[i];
+    }
+
+    /**
+     * @return reply to the i-th request, as returned by handleRequest, or null if there is none
+     */
+    byte[] reply(int i) {
+        return replies[i];
+    }
+
+    void setReply(int i, byte[] reply) {
+        replies[i] = reply;
+    }
+
+    /**
+     * Empty the batch for the next requests.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            replies[i] = null;
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,264 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import minesweeper.BinaryBoard;
+import minesweeper.BoardSnapshot;
+
+/**
+ * The binary protocol, which a client picks by sending MAGIC as the first byte after the welcome
+ * message. From then on the client sends command frames
+ * <pre>
+ *   COMMAND ::= LOOK | HELP | BYE | (DIG | FLAG | DEFLAG) VARINT VARINT
+ *   LOOK ::= 0x01    HELP ::= 0x02    BYE ::= 0x03
+ *   DIG ::= 0x04     FLAG ::= 0x05    DEFLAG ::= 0x06
+ * </pre>
+ * where the two VARINTs are x and y, zigzag-encoded as in protobuf: 7 bits per byte, least
+ * significant first, high bit set on every byte but the last. Any other opcode, or a number that
+ * does not fit in an int, is an invalid command. The server answers each command with one frame
+ * <pre>
+ *   REPLY ::= BOARD VARINT VARINT VARINT SQUARES | BOOM | BYE | TEXT VARINT ASCII*
+ *   BOARD ::= 0x01    BOOM ::= 0x02    BYE ::= 0x03    TEXT ::= 0x04
+ * </pre>
+ * A BOARD frame carries the snapshot version, columns and rows, then the squares as in
+ * BinaryBoard. A TEXT frame carries the length and bytes of any other message of the text
+ * protocol, such as the help message. Frames are not followed by line terminators.
+ */
+final class BinaryProtocol {
+
+    /** First byte from a client that switches its connection to the binary protocol. */
+    static final byte MAGIC = (byte) 0xCD;
+
+    static final int LOOK = 0x01;
+    static final int HELP = 0x02;
+    static final int BYE = 0x03;
+    static final int DIG = 0x04;
+    static final int FLAG = 0x05;
+    static final int DEFLAG = 0x06;
+
+    static final int BOARD_FRAME = 0x01;
+    static final int BOOM_FRAME = 0x02;
+    static final int BYE_FRAME = 0x03;
+    static final int TEXT_FRAME = 0x04;
+
+    /** The BOOM and BYE frames; MinesweeperServer returns these very arrays. */
+    static final byte[] BOOM_REPLY = {BOOM_FRAME};
+    static final byte[] BYE_REPLY = {BYE_FRAME};
+
+    private BinaryProtocol() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * Turn a reply of the text protocol into a frame.
+     *
+     * @param reply one of the message constants of MinesweeperServer, or any other text message;
+     *              not a board
+     * @return the frame
+     */
+    static byte[] frame(byte[] reply) {
+        if (reply == MinesweeperServer.BOOM_MESSAGE) {
+            return BOOM_REPLY;
+        } else if (reply == MinesweeperServer.BYE_MESSAGE) {
+            return BYE_REPLY;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(reply.length + 6);
+        out.write(TEXT_FRAME);
+        writeVarint(out, reply.length);
+        out.write(reply, 0, reply.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return a BOARD frame of snapshot
+     */
+    static byte[] boardFrame(BoardSnapshot snapshot) {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(16);
+        header.write(BOARD_FRAME);
+        writeVarint(header, snapshot.getVersion());
+        writeVarint(header, snapshot.getCols());
+        writeVarint(header, snapshot.getRows());
+        byte[] frame = new byte[header.size() + BinaryBoard.length(snapshot.getCols(), snapshot.getRows())];
+        System.arraycopy(header.toByteArray(), 0, frame, 0, header.size());
+        BinaryBoard.encode(snapshot, frame, header.size());
+        return frame;
+    }
+
+    /**
+     * Write an unsigned varint.
+     */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * @return value zigzag-encoded, so that small negative numbers are small too
+     */
+    static long zigzag(int value) {
+        return ((long) value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Encode a command frame, as a client does.
+     *
+     * @param opcode one of LOOK, HELP, BYE, DIG, FLAG, DEFLAG
+     * @param x column, used by DIG, FLAG and DEFLAG
+     * @param y row, used by DIG, FLAG and DEFLAG
+     * @return the frame
+     */
+    static byte[] command(int opcode, int x, int y) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(11);
+        out.write(opcode);
+        if (opcode >= DIG && opcode <= DEFLAG) {
+            writeVarint(out, zigzag(x));
+            writeVarint(out, zigzag(y));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param buffer bytes from a client, starting at a frame boundary
+     * @param from index of the first byte
+     * @param to index past the last byte
+     * @return true if buffer[from, to) begins with a whole command frame
+     */
+    static boolean complete(byte[] buffer, int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+        int opcode = buffer[from] & 0xFF;
+        if (opcode < DIG || opcode > DEFLAG) {
+            return true;
+        }
+        int varints = 0;
+        for (int i = from + 1; i < to; i++) {
+            if ((buffer[i] & 0x80) == 0 && ++varints == 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Caches the BOARD frame of the latest snapshot, shared by every binary client.
+     */
+    static final class BoardFrames {
+
+        // Thread safety argument: each pair is immutable and published through the AtomicReference.
+
+        private final AtomicReference<Object[]> latest = new AtomicReference<>(new Object[2]);
+
+        /**
+         * @return a BOARD frame of snapshot; must not be changed
+         */
+        byte[] frame(BoardSnapshot snapshot) {
+            Object[] last = latest.get();
+            if (last[0] == snapshot) {
+                return (byte[]) last[1];
+            }
+            byte[] frame = boardFrame(snapshot);
+            BoardSnapshot cached = (BoardSnapshot) last[0];
+            if (cached == null || cached.getVersion() < snapshot.getVersion()) {
+                latest.compareAndSet(last, new Object[] {snapshot, frame});
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * Parses command frames fed one byte at a time into a Command. Not thread safe.
+     */
+    static final class Decoder {
+
+        // Rep: opcode is the opcode of the frame being read, or -1 between frames; argument is the
+        //      number of varints of it read so far, value and shift the varint being read, and
+        //      invalid is true once the frame is known to be invalid.
+
+        private int opcode = -1;
+        private int argument;
+        private long value;
+        private int shift;
+        private boolean invalid;
+
+        /**
+         * Feed the next byte.
+         *
+         * @param b next byte from the client
+         * @param command set from the frame if it ends with b
+         * @return true if a frame ended with b
+         */
+        boolean accept(byte b, Command command) {
+            if (opcode < 0) {
+                opcode = b & 0xFF;
+                if (opcode >= DIG && opcode <= DEFLAG) {
+                    return false;
+                }
+                return finish(command);
+            }
+            if (shift < 35) {
+                value |= (long) (b & 0x7F) << shift;
+            } else {
+                invalid = true;
+            }
+            shift += 7;
+            if ((b & 0x80) != 0) {
+                return false;
+            }
+            long decoded = (value >>> 1) ^ -(value & 1);
+            if (decoded < Integer.MIN_VALUE || decoded > Integer.MAX_VALUE) {
+                invalid = true;
+            } else if (argument == 0) {
+                command.x = (int) decoded;
+            } else {
+                command.y = (int) decoded;
+            }
+            value = 0;
+            shift = 0;
+            if (++argument < 2) {
+                return false;
+            }
+            return finish(command);
+        }
+
+        private boolean finish(Command command) {
+            switch (opcode) {
+            case LOOK:
+                command.type = Command.Type.LOOK;
+                break;
+            case HELP:
+                command.type = Command.Type.HELP;
+                break;
+            case BYE:
+                command.type = Command.Type.BYE;
+                break;
+            case DIG:
+                command.type = Command.Type.DIG;
+                break;
+            case FLAG:
+                command.type = Command.Type.FLAG;
+                break;
+            case DEFLAG:
+                command.type = Command.Type.DEFLAG;
+                break;
+            default:
+                command.type = Command.Type.INVALID;
+                break;
+            }
+            if (invalid) {
+                command.type = Command.Type.INVALID;
+            }
+            opcode = -1;
+            argument = 0;
+            invalid = false;
+            return true;
+        }
+    }
+}
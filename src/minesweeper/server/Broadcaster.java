@@ -0,0 +1,154 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import minesweeper.BoardDelta;
+import minesweeper.BoardSnapshot;
+
+/**
+ * The registry of watching clients. Once per interval it takes the latest snapshot of the board
+ * and, if the board changed, pushes one delta with every change since the last push to each
+ * client. The delta is encoded once and shared by every client that was up to date.
+ *
+ * Pushing only queues messages in each client's Subscription, so a stalled client never blocks
+ * the broadcaster or the game.
+ */
+final class Broadcaster {
+
+    // Thread safety argument:
+    //   subscribers is a concurrent set; last is confined to the broadcasting thread, since
+    //   the timer runs one broadcast at a time. task is volatile.
+
+    private final Supplier<BoardSnapshot> board;
+    private final long intervalMillis;
+    private final Set<Subscription> subscribers = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer;
+    /** True if timer was made for this broadcaster alone. */
+    private final boolean ownTimer;
+    /** Told of whatever a push throws. */
+    private final Consumer<RuntimeException> failures;
+    private volatile ScheduledFuture<?> task;
+    private BoardSnapshot last;
+
+    /**
+     * Make a broadcaster with a thread of its own; it does nothing until start(). A push that
+     * fails is retried at the next interval, and not reported.
+     *
+     * @param board gives the latest snapshot of the board
+     * @param intervalMillis milliseconds between pushes, requires intervalMillis > 0
+     */
+    Broadcaster(Supplier<BoardSnapshot> board, long intervalMillis) {
+        this(board, intervalMillis, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "minesweeper-broadcaster");
+            thread.setDaemon(true);
+            return thread;
+        }), true, failure -> { });
+    }
+
+    /**
+     * Make a broadcaster that pushes on timer, which it may share with others; it does nothing
+     * until start().
+     *
+     * @param board gives the latest snapshot of the board
+     * @param intervalMillis milliseconds between pushes, requires intervalMillis > 0
+     * @param timer runs the pushes; requires that it runs one task at a time
+     * @param failures told, on the timer, of whatever a push throws; the push is retried at the
+     *                 next interval
+     */
+    Broadcaster(Supplier<BoardSnapshot> board, long intervalMillis, ScheduledExecutorService timer,
+            Consumer<RuntimeException> failures) {
+        this(board, intervalMillis, timer, false, failures);
+    }
+
+    private Broadcaster(Supplier<BoardSnapshot> board, long intervalMillis, ScheduledExecutorService timer,
+            boolean ownTimer, Consumer<RuntimeException> failures) {
+        this.board = board;
+        this.intervalMillis = intervalMillis;
+        this.timer = timer;
+        this.ownTimer = ownTimer;
+        this.failures = failures;
+    }
+
+    /**
+     * Start pushing changes every interval.
+     */
+    void start() {
+        task = timer.scheduleWithFixedDelay(this::broadcast, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop pushing changes.
+     */
+    void stop() {
+        ScheduledFuture<?> started = task;
+        if (started != null) {
+            started.cancel(false);
+        }
+        if (ownTimer) {
+            timer.shutdown();
+        }
+    }
+
+    /**
+     * Start pushing changes to subscription, after queueing the whole board in it. The
+     * subscription stops getting the changes of any other broadcaster.
+     */
+    void subscribe(Subscription subscription) {
+        subscription.restart(this);
+        subscription.reply(board.get());
+        subscribers.add(subscription);
+    }
+
+    /**
+     * Stop pushing changes to subscription, without closing it, because it moves to another
+     * broadcaster.
+     */
+    void leave(Subscription subscription) {
+        subscribers.remove(subscription);
+    }
+
+    /**
+     * Stop pushing changes to subscription.
+     */
+    void unsubscribe(Subscription subscription) {
+        subscription.close();
+        subscribers.remove(subscription);
+    }
+
+    /**
+     * @return number of watching clients
+     */
+    int size() {
+        return subscribers.size();
+    }
+
+    /**
+     * Push the changes since the last push to every subscriber.
+     */
+    void broadcast() {
+        try {
+            BoardSnapshot latest = board.get();
+            if (latest == last) {
+                return;
+            }
+            byte[] shared = BoardDelta.encode(last, latest);
+            for (Subscription subscription : subscribers) {
+                subscription.push(this, last, shared, latest);
+            }
+            last = latest;
+        } catch (RuntimeException e) {
+            // keep the timer going for the next interval
+            failures.accept(e);
+        }
+    }
+}
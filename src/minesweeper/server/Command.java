@@ -0,0 +1,205 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+/**
+ * A mutable, reusable parsed client request. The parser is a small state machine fed one byte
+ * at a time, so a line can be parsed straight out of a read buffer without building a String.
+ * The grammar is
+ * <pre>
+ *   REQUEST ::= "look" | "help" | "bye" | "delta" | "watch" | "stats" | ("dig" | "flag" | "deflag") SPACE INT SPACE INT
+ *             | "new" SPACE INT "x" INT | "join" SPACE INT
+ *   INT ::= "-"? [0-9]+
+ * </pre>
+ * where INT must fit in an int. Any other line parses as INVALID. For new, x and y are the
+ * columns and rows of the board; for join, x is the id of the game.
+ */
+final class Command {
+
+    /** Kinds of request. */
+    enum Type {
+        LOOK, HELP, BYE, DELTA, WATCH, DIG, FLAG, DEFLAG, NEW, JOIN, STATS, INVALID
+    }
+
+    // Parser states
+    private static final int WORD = 0;
+    private static final int SIGN_OR_DIGIT = 1;
+    private static final int DIGIT = 2;
+    private static final int DIGITS = 3;
+    private static final int REJECT = 4;
+
+    /** Keywords packed one byte per character, as built by accept(). */
+    private static final long LOOK_WORD = pack("look");
+    private static final long HELP_WORD = pack("help");
+    private static final long BYE_WORD = pack("bye");
+    private static final long DELTA_WORD = pack("delta");
+    private static final long WATCH_WORD = pack("watch");
+    private static final long DIG_WORD = pack("dig");
+    private static final long FLAG_WORD = pack("flag");
+    private static final long DEFLAG_WORD = pack("deflag");
+    private static final long NEW_WORD = pack("new");
+    private static final long JOIN_WORD = pack("join");
+    private static final long STATS_WORD = pack("stats");
+    /** Longest keyword. */
+    private static final int MAX_WORD = 6;
+
+    // Rep: type, x, y are the result of the last finish(); x and y are meaningful only if
+    //      type is DIG, FLAG, DEFLAG or NEW, and x only if it is JOIN. The other fields are parser state for the current line.
+
+    /** Kind of the last parsed request. */
+    Type type = Type.INVALID;
+    /** Column argument of the last parsed request. */
+    int x;
+    /** Row argument of the last parsed request. */
+    int y;
+
+    private int state;
+    private long word;
+    private int wordLength;
+    private int argument;
+    private boolean negative;
+    private long value;
+
+    /**
+     * Start parsing a new line.
+     */
+    void reset() {
+        state = WORD;
+        word = 0;
+        wordLength = 0;
+        argument = 0;
+        negative = false;
+        value = 0;
+    }
+
+    /**
+     * Feed the next byte of the current line, not including the line terminator.
+     */
+    void accept(byte b) {
+        switch (state) {
+        case WORD:
+            if (b == ' ' && (word == DIG_WORD || word == FLAG_WORD || word == DEFLAG_WORD
+                    || word == NEW_WORD || word == JOIN_WORD)) {
+                state = SIGN_OR_DIGIT;
+            } else if (b >= 'a' && b <= 'z' && wordLength < MAX_WORD) {
+                word = (word << 8) | b;
+                wordLength++;
+            } else {
+                state = REJECT;
+            }
+            return;
+        case SIGN_OR_DIGIT:
+            if (b == '-') {
+                negative = true;
+                state = DIGIT;
+            } else {
+                acceptDigit(b);
+            }
+            return;
+        case DIGIT:
+        case DIGITS:
+            acceptDigit(b);
+            return;
+        default:
+            return;
+        }
+    }
+
+    /**
+     * Feed the next byte of a number, or the separator after the first one.
+     */
+    private void acceptDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            // once past the int range, stay there without overflowing the long
+            value = Math.min(value * 10 + (b - '0'), Integer.MAX_VALUE + 2L);
+            state = DIGITS;
+        } else if (b == (word == NEW_WORD ? 'x' : ' ') && word != JOIN_WORD
+                && state == DIGITS && argument == 0 && endArgument()) {
+            state = SIGN_OR_DIGIT;
+        } else {
+            state = REJECT;
+        }
+    }
+
+    /**
+     * End the current line and set type, x and y from it.
+     *
+     * @return this
+     */
+    Command finish() {
+        type = Type.INVALID;
+        if (state == WORD) {
+            if (word == LOOK_WORD) {
+                type = Type.LOOK;
+            } else if (word == HELP_WORD) {
+                type = Type.HELP;
+            } else if (word == BYE_WORD) {
+                type = Type.BYE;
+            } else if (word == DELTA_WORD) {
+                type = Type.DELTA;
+            } else if (word == WATCH_WORD) {
+                type = Type.WATCH;
+            } else if (word == STATS_WORD) {
+                type = Type.STATS;
+            }
+        } else if (state == DIGITS && argument == (word == JOIN_WORD ? 0 : 1) && endArgument()) {
+            if (word == DIG_WORD) {
+                type = Type.DIG;
+            } else if (word == FLAG_WORD) {
+                type = Type.FLAG;
+            } else if (word == DEFLAG_WORD) {
+                type = Type.DEFLAG;
+            } else if (word == NEW_WORD) {
+                type = Type.NEW;
+            } else {
+                type = Type.JOIN;
+            }
+        }
+        reset();
+        return this;
+    }
+
+    /**
+     * Parse a whole line, not including the line terminator.
+     *
+     * @return this
+     */
+    Command parse(CharSequence line) {
+        reset();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            accept(c < 0x80 ? (byte) c : (byte) 0x80);
+        }
+        return finish();
+    }
+
+    /**
+     * Store the number just read as the next argument.
+     *
+     * @return false if the number does not fit in an int
+     */
+    private boolean endArgument() {
+        long signed = negative ? -value : value;
+        if (signed < Integer.MIN_VALUE || signed > Integer.MAX_VALUE) {
+            return false;
+        }
+        if (argument == 0) {
+            x = (int) signed;
+        } else {
+            y = (int) signed;
+        }
+        argument++;
+        negative = false;
+        value = 0;
+        return true;
+    }
+
+    private static long pack(String keyword) {
+        long packed = 0;
+        for (int i = 0; i < keyword.length(); i++) {
+            packed = (packed << 8) | keyword.charAt(i);
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads request lines from a stream and parses them in place, without building a String per
+ * line. Lines end the same way as for BufferedReader.readLine(): "\n", "\r" or "\r\n".
+ * Also reads the command frames of the binary protocol. Not thread safe.
+ */
+final class CommandReader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Rep: buffer[position, limit) holds bytes read but not yet parsed.
+    //      skipNewline is true if the last byte parsed was a '\r' that ended a line.
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean skipNewline;
+
+    CommandReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Take the next byte if it is b, waiting until the client sends one.
+     *
+     * @return true if the next byte was b
+     * @throws IOException if reading from the stream fails
+     */
+    boolean skip(byte b) throws IOException {
+        if (!fill()) {
+            return false;
+        }
+        if (buffer[position] != b) {
+            return false;
+        }
+        position++;
+        return true;
+    }
+
+    /**
+     * Read and parse the next command frame of the binary protocol into command.
+     *
+     * @param decoder parse state of the binary protocol for this stream
+     * @return false if the stream ended before another whole frame was read
+     * @throws IOException if reading from the stream fails
+     */
+    boolean next(BinaryProtocol.Decoder decoder, Command command) throws IOException {
+        command.reset();
+        while (fill()) {
+            if (decoder.accept(buffer[position++], command)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check, without reading from the stream, whether the next request is already buffered whole,
+     * so that the next call to next() returns it without waiting for the client.
+     *
+     * @param decoder parse state of the binary protocol if the client speaks it, else null;
+     *                requires that it is between frames
+     * @return true if the next request is buffered whole
+     */
+    boolean ready(BinaryProtocol.Decoder decoder) {
+        if (decoder != null) {
+            return BinaryProtocol.complete(buffer, position, limit);
+        }
+        int from = position;
+        if (skipNewline && from < limit && buffer[from] == '\n') {
+            from++;
+        }
+        for (int i = from; i < limit; i++) {
+            if (buffer[i] == '\n' || buffer[i] == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Make sure buffer has a byte not yet parsed, unless the stream ended.
+     *
+     * @return false if the stream ended
+     */
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        int read = in.read(buffer, 0, buffer.length);
+        if (read < 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Read and parse the next line into command.
+     *
+     * @return false if the stream ended before another line began
+     * @throws IOException if reading from the stream fails
+     */
+    boolean next(Command command) throws IOException {
+        command.reset();
+        boolean started = false;
+        while (true) {
+            if (position == limit) {
+                int read = in.read(buffer, 0, buffer.length);
+                if (read < 0) {
+                    if (started) {
+                        command.finish();
+                    }
+                    return started;
+                }
+                position = 0;
+                limit = read;
+            }
+            byte b = buffer[position++];
+            if (b == '\n' && skipNewline) {
+                skipNewline = false;
+                continue;
+            }
+            skipNewline = false;
+            if (b == '\n' || b == '\r') {
+                skipNewline = b == '\r';
+                command.finish();
+                return true;
+            }
+            started = true;
+            command.accept(b);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A log of what happens on the server, such as clients connecting and games being created, one
+ * line per event:
+ * <pre>
+ *   2016-04-01T12:00:00.123Z connect client=127.0.0.1:51234
+ * </pre>
+ * that is the time of the event, its name and its fields as NAME=VALUE. Threads that log an event
+ * never wait for the output: the event goes into a bounded ring buffer, and one writer thread
+ * takes every event there is out of it and writes them in one go. When the buffer is full the
+ * event is dropped and counted, and the writer logs how many were dropped.
+ */
+final class EventLog implements Closeable {
+
+    /** Longest the writer sleeps while there is nothing to write, in case a wakeup was missed. */
+    private static final long IDLE_NANOS = 100_000_000;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    /** An event in the buffer. */
+    private static final class Event {
+        private final long millis;
+        private final String text;
+
+        private Event(long millis, String text) {
+            this.millis = millis;
+            this.text = text;
+        }
+    }
+
+    // Rep: the events logged and not written yet are at positions head, head + 1, ..., tail - 1
+    //      of slots, position p at index p & mask; tail - head <= slots.length(). A slot of a
+    //      position below tail may still be null while the thread that claimed it fills it in.
+    //      The other slots are null. dropped counts the events that found the buffer full.
+    // Thread safety argument:
+    //   a logging thread claims a position by a CAS on tail, then fills its slot; only the writer
+    //   thread empties slots and advances head, emptying a slot before head passes it, so a
+    //   position claimed is never one whose slot is still full. waiting and the slots are
+    //   volatile, so a logging thread that fills a slot after the writer found the buffer empty
+    //   sees waiting and wakes the writer up. out is confined to the writer thread until close()
+    //   joined it.
+
+    private final AtomicReferenceArray<Event> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final LongAdder dropped = new LongAdder();
+    private volatile long written;
+    private volatile boolean waiting;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final OutputStream out;
+    private final boolean closeOut;
+    private final Thread writer;
+
+    /**
+     * Make a log writing to out and start its writer thread.
+     *
+     * @param out where to write the events
+     * @param closeOut true to close out when the log is closed
+     * @param capacity most events waiting to be written; rounded up to a power of two,
+     *                 requires 0 < capacity <= 2^30
+     */
+    EventLog(OutputStream out, boolean closeOut, int capacity) {
+        int size = Integer.highestOneBit(capacity);
+        size = size < capacity ? size << 1 : size;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.out = out;
+        this.closeOut = closeOut;
+        this.writer = new Thread(this::write, "minesweeper-events");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Make a log appending to file, or writing to standard output.
+     *
+     * @param file file to append the events to, created if needed; if empty, standard output
+     * @param capacity most events waiting to be written, requires 0 < capacity <= 2^30
+     * @return the log, its writer running
+     * @throws IOException if the file cannot be opened
+     */
+    static EventLog open(Optional<Path> file, int capacity) throws IOException {
+        if (file.isPresent()) {
+            return new EventLog(new FileOutputStream(file.get().toFile(), true), true, capacity);
+        }
+        return new EventLog(System.out, false, capacity);
+    }
+
+    /**
+     * Log an event, unless the buffer is full. Never waits.
+     *
+     * @param event name of the event, then its fields as NAME=VALUE, separated by spaces and
+     *              without line terminators
+     * @return true if the event was logged, false if it was dropped
+     */
+    boolean log(String event) {
+        Event entry = new Event(System.currentTimeMillis(), event);
+        while (true) {
+            long position = tail.get();
+            if (position - head >= slots.length() || closed.get()) {
+                dropped.increment();
+                return false;
+            }
+            if (tail.compareAndSet(position, position + 1)) {
+                slots.set((int) position & mask, entry);
+                break;
+            }
+        }
+        if (waiting) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * @return number of events written so far
+     */
+    long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return number of events dropped because the buffer was full
+     */
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Write the events logged so far and stop the writer. Events logged from now on are dropped.
+     * Safe to call more than once.
+     *
+     * @throws IOException if the output cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (closeOut) {
+            out.close();
+        }
+    }
+
+    /**
+     * Body of the writer thread: write whatever is in the buffer, then sleep until there is more.
+     */
+    private void write() {
+        OutputStream buffered = new BufferedOutputStream(out, 64 * 1024);
+        StringBuilder lines = new StringBuilder();
+        long reportedDrops = 0;
+        boolean failed = false;
+        while (true) {
+            // closed is read before draining, so nothing logged before close() is left behind
+            boolean last = closed.get();
+            int count = drain(lines);
+            while (last && head < tail.get()) {
+                // a thread claimed a slot just before close() and is filling it in
+                Thread.onSpinWait();
+                count += drain(lines);
+            }
+            long drops = dropped.sum();
+            if (drops > reportedDrops) {
+                lines.append(TIME.format(Instant.now())).append(" dropped events=").append(drops - reportedDrops).append('\n');
+                reportedDrops = drops;
+            }
+            if (lines.length() > 0 && !failed) {
+                try {
+                    buffered.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                    buffered.flush();
+                    written += count;
+                } catch (IOException ioe) {
+                    // nowhere left to say so; keep emptying the buffer so that logging never blocks
+                    failed = true;
+                }
+            }
+            lines.setLength(0);
+            if (last) {
+                return;
+            }
+            if (count == 0) {
+                waiting = true;
+                if (slots.get((int) head & mask) == null && !closed.get()) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    /**
+     * Move the events in the buffer, as lines, to lines.
+     *
+     * @return number of events moved
+     */
+    private int drain(StringBuilder lines) {
+        long position = head;
+        int count = 0;
+        // at most one buffer's worth, so that a steady stream of events still gets written
+        for (Event event; count < slots.length() && (event = slots.get((int) position & mask)) != null; position++, count++) {
+            slots.set((int) position & mask, null);
+            head = position + 1;
+            lines.append(TIME.format(Instant.ofEpochMilli(event.millis))).append(' ').append(event.text).append('\n');
+        }
+        return count;
+    }
+}
@@ -0,0 +1,364 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import minesweeper.Board;
+import minesweeper.BoardDelta;
+import minesweeper.BoardRender;
+import minesweeper.BoardSnapshot;
+import minesweeper.TileLocks;
+
+/**
+ * One game hosted by a MinesweeperServer: a board and what the server keeps per board, namely its
+ * lock, its render caches and the clients watching it. Games are independent; requests on one
+ * never wait for another.
+ */
+final class Game {
+
+    // Rep: board has snapshots enabled. tileLocks is non-null iff the game uses striped locking;
+    //      otherwise lock guards changes to board. players is the number of clients in the game,
+    //      or -1 once the game is retired, after which it stays -1. lastUsed is the
+    //      System.nanoTime() of the last request on the game.
+    // Thread safety argument:
+    //   changes to board happen under lock or the tile locks; replies are rendered from immutable
+    //   snapshots through caches that are safe to share. players and lastUsed are atomic.
+
+    private final int id;
+    private final Board board;
+    /** A ReentrantLock rather than a monitor, so that a virtual thread waiting for it does not pin its carrier. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TileLocks tileLocks;
+    /** Cached rendering of board's snapshots, shared by every client. */
+    private final BoardRender render;
+    /** Cached BOARD frame of board's latest snapshot, shared by every binary client. */
+    private final BinaryProtocol.BoardFrames frames = new BinaryProtocol.BoardFrames();
+    /** Pushes board changes to watching clients. */
+    private final Broadcaster broadcaster;
+    private final AtomicInteger players = new AtomicInteger();
+    private volatile long lastUsed = System.nanoTime();
+    /** Log the moves on the board go to, or null if the game is not kept on disk. */
+    private volatile GameLog log;
+    /** Where the lock times and dig sizes go. */
+    private final Metrics metrics;
+
+    /**
+     * Make a game of board. Its watching clients get changes once it is start()ed.
+     *
+     * @param id identifier of the game
+     * @param board board of the game, owned by the game from now on
+     * @param striped true to lock tiles of the board instead of the whole board
+     * @param timer runs the pushes to watching clients
+     * @param pushIntervalMillis milliseconds between pushes, requires pushIntervalMillis > 0
+     */
+    Game(int id, Board board, boolean striped, ScheduledExecutorService timer, long pushIntervalMillis) {
+        this(id, board, striped, timer, pushIntervalMillis, new Metrics(), event -> { });
+    }
+
+    /**
+     * Make a game of board. Its watching clients get changes once it is start()ed.
+     *
+     * @param id identifier of the game
+     * @param board board of the game, owned by the game from now on
+     * @param striped true to lock tiles of the board instead of the whole board
+     * @param timer runs the pushes to watching clients
+     * @param pushIntervalMillis milliseconds between pushes, requires pushIntervalMillis > 0
+     * @param metrics where to record lock times and dig sizes
+     * @param events where to log a failed push, as MinesweeperServer.event(..) takes it
+     */
+    Game(int id, Board board, boolean striped, ScheduledExecutorService timer, long pushIntervalMillis,
+            Metrics metrics, Consumer<String> events) {
+        board.enableSnapshots();
+        this.metrics = metrics;
+        this.id = id;
+        this.board = board;
+        this.tileLocks = striped ? new TileLocks(board) : null;
+        this.render = new BoardRender(board);
+        this.broadcaster = new Broadcaster(board::snapshot, pushIntervalMillis, timer,
+                failure -> events.accept("error game=" + id + " exception=" + failure));
+    }
+
+    int getId() {
+        return id;
+    }
+
+    Board getBoard() {
+        return board;
+    }
+
+    Broadcaster getBroadcaster() {
+        return broadcaster;
+    }
+
+    /**
+     * Log every move that changes the board from now on.
+     *
+     * @param log where to log the moves, or null to stop logging them
+     */
+    void setLog(GameLog log) {
+        this.log = log;
+    }
+
+    /**
+     * @return number of squares of the board
+     */
+    long getCells() {
+        return (long) board.getCols() * board.getRows();
+    }
+
+    /**
+     * Start pushing changes to watching clients.
+     */
+    void start() {
+        broadcaster.start();
+    }
+
+    /**
+     * Stop pushing changes to watching clients.
+     */
+    void stop() {
+        broadcaster.stop();
+    }
+
+    /**
+     * Note that a client entered the game, unless it is retired.
+     *
+     * @return number of clients in the game, including it, or -1 if the game is retired
+     */
+    int enter() {
+        touch();
+        while (true) {
+            int count = players.get();
+            if (count < 0) {
+                return -1;
+            }
+            if (players.compareAndSet(count, count + 1)) {
+                return count + 1;
+            }
+        }
+    }
+
+    /**
+     * Retire the game if nobody is in it, so that nobody can enter it any more.
+     *
+     * @return true if the game was retired by this call
+     */
+    boolean retire() {
+        return players.compareAndSet(0, -1);
+    }
+
+    /**
+     * Note that a client that entered the game left it.
+     */
+    void leave() {
+        touch();
+        players.decrementAndGet();
+    }
+
+    int getPlayers() {
+        return players.get();
+    }
+
+    /**
+     * Note that a request ran on the game now.
+     */
+    void touch() {
+        lastUsed = System.nanoTime();
+    }
+
+    /**
+     * @param now a System.nanoTime()
+     * @return nanoseconds from the last request on the game to now
+     */
+    long idleNanos(long now) {
+        return now - lastUsed;
+    }
+
+    /**
+     * @return true if requests that change the board all take one lock, the one lock() returns
+     */
+    boolean isGloballyLocked() {
+        return tileLocks == null;
+    }
+
+    /**
+     * @return the lock guarding changes to the board if isGloballyLocked()
+     */
+    ReentrantLock lock() {
+        return lock;
+    }
+
+    /**
+     * Take lock(), recording how long that took unless this thread already held it.
+     *
+     * @return System.nanoTime() when the lock was taken, to pass to unlockTimed()
+     */
+    long lockTimed() {
+        if (lock.isHeldByCurrentThread()) {
+            lock.lock();
+            return 0;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        long acquired = System.nanoTime();
+        metrics.lockWaited(acquired - start);
+        return acquired;
+    }
+
+    /**
+     * Release lock(), recording how long it was held if this releases it for good.
+     *
+     * @param acquired what the matching lockTimed() returned
+     */
+    void unlockTimed(long acquired) {
+        boolean outermost = lock.getHoldCount() == 1;
+        lock.unlock();
+        if (outermost) {
+            metrics.lockHeld(System.nanoTime() - acquired);
+        }
+    }
+
+    /**
+     * Perform a dig, flag or deflag request on a square of the board.
+     *
+     * @param command dig, flag or deflag request from client, with coordinates on the board
+     * @return true if the request dug a bomb
+     */
+    boolean play(Command command) {
+        return tileLocks != null ? playStriped(command) : playGlobal(command);
+    }
+
+    /**
+     * @return true if (x, y) is a square of the board
+     */
+    boolean contains(int x, int y) {
+        return x >= 0 && x < board.getCols() && y >= 0 && y < board.getRows();
+    }
+
+    /**
+     * @param session state of the client's connection
+     * @return the latest board for the client: the whole board, or in the delta protocol the
+     *         squares that changed since the board the client was last sent, or a BOARD frame in
+     *         the binary protocol; null if the client watches the board and the reply was queued
+     *         in its subscription
+     */
+    byte[] boardReply(Session session) {
+        Subscription subscription = session.getSubscription();
+        if (subscription != null) {
+            subscription.reply(board.snapshot());
+            return null;
+        }
+        if (session.isBinary()) {
+            return frames.frame(board.snapshot());
+        }
+        if (!session.isDelta()) {
+            return render.render();
+        }
+        BoardSnapshot latest = board.snapshot();
+        byte[] delta = BoardDelta.encode(session.getSent(), latest);
+        session.setSent(latest);
+        return delta;
+    }
+
+    /**
+     * Perform a dig, flag or deflag request on a square of the board under lock.
+     */
+    private boolean playGlobal(Command command) {
+        int x = command.x;
+        int y = command.y;
+        long acquired = lockTimed();
+        try {
+            switch (command.type) {
+            case DIG:
+                // 检查状态
+                if (board.touched(x, y) || board.flagged(x, y)) {
+                    return false;
+                }
+                boolean wasBomb = board.isBombAt(x, y);
+                metrics.dug(board.dig(x, y));
+                logged(command);
+                return wasBomb;
+            case FLAG:
+                if (!board.touched(x, y) && !board.flagged(x, y)) {
+                    board.setFlag(x, y);
+                    logged(command);
+                }
+                return false;
+            case DEFLAG:
+                if (board.flagged(x, y)) {
+                    board.removeFlag(x, y);
+                    logged(command);
+                }
+                return false;
+            default:
+                throw new UnsupportedOperationException();
+            }
+        } finally {
+            unlockTimed(acquired);
+        }
+    }
+
+    /**
+     * Perform a dig, flag or deflag request on a square of the board holding only the tile locks it needs.
+     */
+    private boolean playStriped(Command command) {
+        int x = command.x;
+        int y = command.y;
+        long start = System.nanoTime();
+        if (command.type == Command.Type.DIG) {
+            TileLocks.Hold hold = tileLocks.lockBlock(x, y);
+            long acquired = System.nanoTime();
+            metrics.lockWaited(acquired - start);
+            int dug = -1;
+            boolean wasBomb = false;
+            try {
+                if (!board.touched(x, y) && !board.flagged(x, y)) {
+                    wasBomb = board.isBombAt(x, y);
+                    dug = hold.dig(x, y);
+                }
+            } finally {
+                hold.unlock();
+                metrics.lockHeld(System.nanoTime() - acquired);
+            }
+            int more = hold.finishCascade();
+            // only now that the whole cascade is on the board, so a snapshot taken after
+            // the move is logged has all of it
+            if (dug >= 0) {
+                metrics.dug(dug + more);
+                logged(command);
+            }
+            return wasBomb;
+        }
+        TileLocks.Hold hold = tileLocks.lockSquare(x, y);
+        long acquired = System.nanoTime();
+        metrics.lockWaited(acquired - start);
+        try {
+            if (command.type == Command.Type.FLAG && !board.touched(x, y) && !board.flagged(x, y)) {
+                board.setFlag(x, y);
+                logged(command);
+            } else if (command.type == Command.Type.DEFLAG && board.flagged(x, y)) {
+                board.removeFlag(x, y);
+                logged(command);
+            }
+        } finally {
+            hold.unlock();
+            metrics.lockHeld(System.nanoTime() - acquired);
+        }
+        return false;
+    }
+
+    /**
+     * Log a move that changed the board, if the game is kept on disk.
+     */
+    private void logged(Command command) {
+        GameLog log = this.log;
+        if (log != null) {
+            log.append(command.type, command.x, command.y);
+        }
+    }
+}
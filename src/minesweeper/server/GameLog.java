@@ -0,0 +1,391 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import minesweeper.Board;
+import minesweeper.BoardSnapshot;
+
+/**
+ * Keeps a game on disk, so that a restarted server goes on from where it stopped. Every move
+ * that changes the board is appended to a write-ahead log, and now and then a snapshot of the
+ * whole board is written, after which the log before it is deleted. Recovery reads the latest
+ * snapshot and replays the log after it.
+ *
+ * Appending a move only copies it to memory. A single writer thread writes what was appended
+ * and fsyncs it once per commit interval, so one fsync covers every move of the interval and no
+ * request waits for the disk. The price is that a crash loses the moves of about the last
+ * interval; close() commits every move appended before it.
+ *
+ * The directory holds:
+ * <pre>
+ *   snapshot  MAGIC (int), the number of the first segment to replay (long), the board as
+ *             BoardSnapshot.write() writes it, then the CRC32 of all of that (int)
+ *   log-N     segment N of the log, a sequence of commits, each the number of bytes of its
+ *             moves (int), their CRC32 (int), then the moves, each an op byte, x and y (ints)
+ * </pre>
+ */
+final class GameLog implements Closeable {
+
+    /** "MSWP", the first bytes of a snapshot file. */
+    private static final int MAGIC = 0x4D535750;
+    private static final String SNAPSHOT = "snapshot";
+    private static final String SEGMENT = "log-";
+    private static final int MOVE_BYTES = 9;
+    private static final int HEADER_BYTES = 8;
+    // Ops of the moves in the log
+    private static final byte DIG = 1;
+    private static final byte FLAG = 2;
+    private static final byte DEFLAG = 3;
+
+    // Rep: segment is the number of the segment commits go to, and out is that segment open for
+    //      writing, or null before start(). Once start() has run, the snapshot file holds a board
+    //      with every move of the segments before segment, and no such segment is left. pending
+    //      holds the moves appended since the last commit, in order; writing holds moves that
+    //      were taken out of pending but are not on disk yet.
+    // Thread safety argument:
+    //   append() and the moves taken out of pending are guarded by lock. Everything else is
+    //   only touched by the thread calling recover(), replay() and start(), and from then on by
+    //   the writer thread, which is the only thread running commits and checkpoints, until
+    //   close() waits for it to finish.
+
+    private final Path dir;
+    private final ReentrantLock lock = new ReentrantLock();
+    private ByteBuffer pending = ByteBuffer.allocate(4096);
+    private ByteBuffer writing = ByteBuffer.allocate(4096);
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "minesweeper-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long segment;
+    private FileChannel out;
+    private Game game;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Make a log that keeps a game in dir.
+     *
+     * @param dir directory of the files of the game, created if it does not exist
+     * @throws IOException if dir cannot be created
+     */
+    GameLog(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+    }
+
+    /**
+     * Read the board of the latest snapshot in the directory, if any.
+     *
+     * @return the board of the snapshot, without the moves logged after it, or null if the
+     *         directory holds no game
+     * @throws IOException if the snapshot cannot be read or is corrupt
+     */
+    Board recover() throws IOException {
+        Path file = dir.resolve(SNAPSHOT);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16), new CRC32());
+        try (DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a game snapshot: " + file);
+            }
+            long first = in.readLong();
+            Board board = Board.read(in);
+            int crc = (int) checked.getChecksum().getValue();
+            if (in.readInt() != crc) {
+                throw new IOException("corrupt game snapshot: " + file);
+            }
+            segment = first;
+            return board;
+        } catch (EOFException eofe) {
+            throw new IOException("truncated game snapshot: " + file);
+        }
+    }
+
+    /**
+     * Replay the moves logged after the snapshot recover() read, or every logged move if there
+     * was none. A commit that was cut short by a crash ends the log.
+     *
+     * @param game game with the board recover() returned, or the board the game starts with
+     * @return number of moves replayed
+     * @throws IOException if reading the log fails
+     */
+    int replay(Game game) throws IOException {
+        Command command = new Command();
+        int moves = 0;
+        for (long number : segments()) {
+            if (number < segment) {
+                continue;
+            }
+            segment = number;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(segment(number)), 1 << 16)) {
+                byte[] body;
+                while ((body = readCommit(in)) != null) {
+                    ByteBuffer buffer = ByteBuffer.wrap(body);
+                    while (buffer.remaining() >= MOVE_BYTES) {
+                        byte op = buffer.get();
+                        command.x = buffer.getInt();
+                        command.y = buffer.getInt();
+                        command.type = op == DIG ? Command.Type.DIG
+                                : op == FLAG ? Command.Type.FLAG
+                                : op == DEFLAG ? Command.Type.DEFLAG
+                                : Command.Type.INVALID;
+                        if (command.type != Command.Type.INVALID && game.contains(command.x, command.y)) {
+                            game.play(command);
+                            moves++;
+                        }
+                    }
+                }
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * @return the next whole commit in in, or null at the end of the log or at a commit that was
+     *         cut short or is corrupt
+     */
+    private static byte[] readCommit(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        try {
+            int length = data.readInt();
+            int crc = data.readInt();
+            if (length < 0 || length % MOVE_BYTES != 0) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            data.readFully(body);
+            CRC32 check = new CRC32();
+            check.update(body);
+            return (int) check.getValue() == crc ? body : null;
+        } catch (EOFException eofe) {
+            return null;
+        }
+    }
+
+    /**
+     * Start keeping game on disk: write a snapshot of it, which replaces whatever the directory
+     * held, then log its moves, committing them every commitMillis and writing a new snapshot
+     * every snapshotMillis.
+     *
+     * @param game the game, after replay() if the directory held one; its moves are logged from now on
+     * @param commitMillis milliseconds between commits, requires commitMillis > 0
+     * @param snapshotMillis milliseconds between snapshots, requires snapshotMillis > 0
+     * @throws IOException if writing the first snapshot fails
+     */
+    void start(Game game, long commitMillis, long snapshotMillis) throws IOException {
+        this.game = game;
+        for (long number : segments()) {
+            segment = Math.max(segment, number);
+        }
+        game.setLog(this);
+        checkpoint();
+        writer.scheduleWithFixedDelay(() -> run(this::commit), commitMillis, commitMillis, TimeUnit.MILLISECONDS);
+        writer.scheduleWithFixedDelay(() -> run(this::checkpoint), snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private interface Step {
+        void run() throws IOException;
+    }
+
+    /**
+     * Run a step of the writer thread. A step that fails is tried again on its next run; the
+     * moves it did not write stay in writing.
+     */
+    private static void run(Step step) {
+        try {
+            step.run();
+        } catch (IOException ioe) {
+            System.err.println("game log: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Log a move that changed the board, after the change and while no conflicting move can run.
+     * Never waits for the disk.
+     *
+     * @param type DIG, FLAG or DEFLAG
+     * @param x column of the move
+     * @param y row of the move
+     */
+    void append(Command.Type type, int x, int y) {
+        byte op = type == Command.Type.DIG ? DIG : type == Command.Type.FLAG ? FLAG : DEFLAG;
+        lock.lock();
+        try {
+            pending = room(pending, MOVE_BYTES);
+            pending.put(op).putInt(x).putInt(y);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return buffer, or a bigger copy of it if it has less than bytes remaining
+     */
+    private static ByteBuffer room(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * Write the moves appended so far to the current segment as one commit and fsync it.
+     * Requires the writer thread, or start() or close().
+     */
+    void commit() throws IOException {
+        lock.lock();
+        try {
+            pending.flip();
+            writing = room(writing, pending.remaining());
+            writing.put(pending);
+            pending.clear();
+        } finally {
+            lock.unlock();
+        }
+        if (writing.position() == 0) {
+            return;
+        }
+        writing.flip();
+        CRC32 crc = new CRC32();
+        crc.update(writing.duplicate());
+        header.clear();
+        header.putInt(writing.remaining()).putInt((int) crc.getValue()).flip();
+        long end = out.position();
+        try {
+            ByteBuffer[] buffers = { header, writing };
+            while (writing.hasRemaining()) {
+                out.write(buffers);
+            }
+            out.force(false);
+            writing.clear();
+        } catch (IOException ioe) {
+            // drop the partial commit and keep its moves for the next try
+            writing.position(writing.limit());
+            writing.limit(writing.capacity());
+            out.truncate(end);
+            out.position(end);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Start a new segment and write a snapshot of the board that has every move of the
+     * segments before it, then delete them. Requires the writer thread, or start().
+     */
+    void checkpoint() throws IOException {
+        long next = segment + 1;
+        FileChannel nextOut = FileChannel.open(segment(next),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (out != null) {
+            commit();
+            out.close();
+        }
+        // moves appended from now on go to the new segment; each one was made before it was
+        // appended, so the snapshot taken below has every move of the old segments
+        out = nextOut;
+        segment = next;
+        BoardSnapshot image = game.getBoard().snapshot();
+        Path temp = dir.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), new CRC32());
+            DataOutputStream data = new DataOutputStream(checked);
+            data.writeInt(MAGIC);
+            data.writeLong(next);
+            image.write(data);
+            data.writeInt((int) checked.getChecksum().getValue());
+            data.flush();
+            channel.force(true);
+        }
+        Files.move(temp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE);
+        for (long number : segments()) {
+            if (number < next) {
+                Files.delete(segment(number));
+            }
+        }
+    }
+
+    private Path segment(long number) {
+        return dir.resolve(SEGMENT + number);
+    }
+
+    /**
+     * @return numbers of the segments in the directory, in increasing order
+     */
+    private List<Long> segments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT + "*")) {
+            for (Path file : files) {
+                try {
+                    numbers.add(Long.parseLong(file.getFileName().toString().substring(SEGMENT.length())));
+                } catch (NumberFormatException nfe) {
+                    // not a segment
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Stop the writer thread and commit every move appended so far. Moves appended afterwards
+     * are not logged.
+     *
+     * @throws IOException if the last commit fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (out != null) {
+            try {
+                commit();
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import minesweeper.Board;
+
+/**
+ * The games a MinesweeperServer hosts, by id. Game 0 is the default game, the board the server
+ * was started with, which every client is in until it joins another; clients create the others.
+ * The squares of created games are capped in total, and a created game nobody is in is evicted
+ * once it has been idle for a while, which frees its squares for new games.
+ */
+final class GameRegistry {
+
+    /** Id of the default game. */
+    static final int DEFAULT_GAME = 0;
+
+    // Rep: games maps each id to the game with that id; it has DEFAULT_GAME once setDefault()
+    //      was called. cells is the total number of squares of the games in games other than the
+    //      default one, cells <= maxCells. Ids are never reused.
+    // Thread safety argument:
+    //   games is a concurrent map and cells and nextId are atomic. A game leaves games only once
+    //   Game.retire() succeeded, after which no client can enter it.
+
+    private final ConcurrentHashMap<Integer, Game> games = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(DEFAULT_GAME + 1);
+    private final AtomicLong cells = new AtomicLong();
+    private final ServerOptions options;
+    private final ScheduledExecutorService timer;
+    private final Metrics metrics;
+    private final Consumer<String> events;
+
+    /**
+     * Make a registry with no games.
+     *
+     * @param options settings of the games: locking, pushes, density, cell cap and idle time
+     * @param timer runs the pushes to watching clients and the eviction of idle games
+     * @param metrics where the games record lock times and dig sizes
+     * @param events where the games log failed pushes, as MinesweeperServer.event(..) takes them
+     */
+    GameRegistry(ServerOptions options, ScheduledExecutorService timer, Metrics metrics, Consumer<String> events) {
+        this.options = options;
+        this.timer = timer;
+        this.metrics = metrics;
+        this.events = events;
+    }
+
+    /**
+     * Start evicting idle games.
+     */
+    void start() {
+        long period = Math.max(1, options.getGameIdleMillis() / 4);
+        timer.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Make board the default game, in place of the one before, if any.
+     *
+     * @param board the board, owned by the registry from now on
+     */
+    void setDefault(Board board) {
+        Game game = newGame(DEFAULT_GAME, board);
+        Game before = games.put(DEFAULT_GAME, game);
+        if (before != null) {
+            before.stop();
+        }
+    }
+
+    /**
+     * @return the default game; requires setDefault() was called
+     */
+    Game getDefault() {
+        return games.get(DEFAULT_GAME);
+    }
+
+    /**
+     * @return the game with that id, or null if there is none
+     */
+    Game get(int id) {
+        return games.get(id);
+    }
+
+    /**
+     * @return number of games, including the default one
+     */
+    int size() {
+        return games.size();
+    }
+
+    /**
+     * @return total number of squares of the games other than the default one
+     */
+    long getCells() {
+        return cells.get();
+    }
+
+    /**
+     * Create a game with a random board. If the cap on squares leaves no room for it, evict the
+     * idle games first.
+     *
+     * @param cols number of columns, requires cols > 0
+     * @param rows number of rows, requires rows > 0
+     * @return the new game, or null if there is no room for it
+     */
+    Game create(int cols, int rows) {
+        long size = (long) cols * rows;
+        if (!reserve(size)) {
+            evictIdle();
+            if (!reserve(size)) {
+                return null;
+            }
+        }
+        Board board = new Board(cols, rows, options.getDensity());
+        board.setBombs();
+        Game game = newGame(nextId.getAndIncrement(), board);
+        games.put(game.getId(), game);
+        return game;
+    }
+
+    private boolean reserve(long size) {
+        while (true) {
+            long used = cells.get();
+            if (size > options.getMaxGameCells() - used) {
+                return false;
+            }
+            if (cells.compareAndSet(used, used + size)) {
+                return true;
+            }
+        }
+    }
+
+    private Game newGame(int id, Board board) {
+        Game game = new Game(id, board, options.isStripedLocking(), timer, options.getPushIntervalMillis(), metrics,
+                events);
+        game.start();
+        return game;
+    }
+
+    /**
+     * Evict the created games that nobody is in and that have been idle for the idle time.
+     *
+     * @return number of games evicted
+     */
+    int evictIdle() {
+        long now = System.nanoTime();
+        long idle = TimeUnit.MILLISECONDS.toNanos(options.getGameIdleMillis());
+        int evicted = 0;
+        for (Game game : games.values()) {
+            if (game.getId() != DEFAULT_GAME && game.idleNanos(now) >= idle && game.retire()) {
+                games.remove(game.getId(), game);
+                game.stop();
+                cells.addAndGet(-game.getCells());
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Stop every game.
+     */
+    void stop() {
+        for (Game game : games.values()) {
+            game.stop();
+        }
+    }
+}
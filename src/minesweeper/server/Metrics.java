@@ -0,0 +1,286 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of what a MinesweeperServer does: requests by type, time spent waiting
+ * for and holding board locks, squares revealed per dig, bytes written and connections. Recording
+ * is lock-free and never allocates, so it runs on every request; report() renders a consistent
+ * enough view for the stats command.
+ */
+final class Metrics {
+
+    /** Separates the lines of report(), as it separates the rows of a board. */
+    private static final String LINE = "\r\n";
+
+    // Rep: commands[t.ordinal()] counts the requests of type t. opened counts the connections
+    //      welcomed and closed those that ended since, so opened - closed are open now.
+    // Thread safety argument:
+    //   every field is a LongAdder or a Histogram of LongAdders, updated without locks; a report
+    //   taken while they change may be off by the updates in flight, which is fine for statistics.
+
+    private final long started = System.nanoTime();
+    private final LongAdder[] commands = new LongAdder[Command.Type.values().length];
+    private final Histogram lockWait = new Histogram();
+    private final Histogram lockHold = new Histogram();
+    private final Histogram cascade = new Histogram();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+
+    Metrics() {
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count a request.
+     */
+    void command(Command.Type type) {
+        commands[type.ordinal()].increment();
+    }
+
+    /**
+     * @return number of requests of type so far
+     */
+    long getCommands(Command.Type type) {
+        return commands[type.ordinal()].sum();
+    }
+
+    /**
+     * Record the time a request waited to lock the board or the tiles it needed.
+     */
+    void lockWaited(long nanos) {
+        lockWait.record(nanos);
+    }
+
+    /**
+     * Record the time a request held the board lock or its tile locks.
+     */
+    void lockHeld(long nanos) {
+        lockHold.record(nanos);
+    }
+
+    /**
+     * Record the number of squares a dig revealed, including the cascade.
+     */
+    void dug(int squares) {
+        cascade.record(squares);
+    }
+
+    Histogram getLockWait() {
+        return lockWait;
+    }
+
+    Histogram getLockHold() {
+        return lockHold;
+    }
+
+    Histogram getCascade() {
+        return cascade;
+    }
+
+    /**
+     * Count bytes written to clients.
+     */
+    void written(long bytes) {
+        written.add(bytes);
+    }
+
+    /**
+     * @return number of bytes written to clients so far
+     */
+    long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @param out stream to a client
+     * @return out, counting the bytes written through it
+     */
+    OutputStream counting(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                written.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                written.add(len);
+            }
+        };
+    }
+
+    /**
+     * Note that a client connected.
+     */
+    void connectionOpened() {
+        opened.increment();
+    }
+
+    /**
+     * Note that a connection ended; call once per connectionOpened().
+     *
+     * @param failure true if it ended with an error rather than the client leaving
+     */
+    void connectionClosed(boolean failure) {
+        closed.increment();
+        if (failure) {
+            failed.increment();
+        }
+    }
+
+    /**
+     * Note that a client was turned away without being served.
+     */
+    void connectionRefused() {
+        refused.increment();
+    }
+
+    /**
+     * @return number of clients turned away so far
+     */
+    long getRefused() {
+        return refused.sum();
+    }
+
+    /**
+     * Note that a request was not run because its client went over its rate limit.
+     */
+    void rateLimited() {
+        limited.increment();
+    }
+
+    /**
+     * @return number of requests not run because of rate limits so far
+     */
+    long getRateLimited() {
+        return limited.sum();
+    }
+
+    /**
+     * @return number of connections open now
+     */
+    long getActiveConnections() {
+        // read closed first, so that a connection opened meanwhile never makes this negative
+        long ended = closed.sum();
+        return opened.sum() - ended;
+    }
+
+    /**
+     * @return the metrics as lines of text separated by "\r\n", without a line terminator at
+     *         the end
+     */
+    String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("uptime %d s", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started)));
+        report.append(LINE).append(String.format("connections %d active, %d opened, %d failed, %d refused",
+                getActiveConnections(), opened.sum(), failed.sum(), refused.sum()));
+        report.append(LINE).append("bytes written ").append(written.sum());
+        report.append(LINE).append("commands");
+        for (Command.Type type : Command.Type.values()) {
+            report.append(' ').append(type.name().toLowerCase()).append(' ').append(getCommands(type));
+        }
+        report.append(LINE).append("rate limited ").append(limited.sum());
+        report.append(LINE).append(lockWait.format("lock wait us", 1e3));
+        report.append(LINE).append(lockHold.format("lock hold us", 1e3));
+        report.append(LINE).append(cascade.format("dig squares", 1));
+        return report.toString();
+    }
+
+    /**
+     * A lock-free histogram of non-negative values in power-of-two buckets: percentiles are
+     * exact to within a factor of two, which is what a glance at the server needs, at the cost
+     * of one LongAdder increment per value.
+     */
+    static final class Histogram {
+
+        // Rep: buckets[0] counts the values 0, buckets[b] for b > 0 those in [2^(b-1), 2^b).
+        //      max is the largest value recorded, or 0.
+
+        private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param value value to record; negative values count as 0
+         */
+        void record(long value) {
+            long v = Math.max(value, 0);
+            buckets[Long.SIZE - Long.numberOfLeadingZeros(v)].increment();
+            sum.add(v);
+            // compare first, so that most records only read max
+            if (v > max.get()) {
+                max.accumulateAndGet(v, Math::max);
+            }
+        }
+
+        long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param percentile requires 0 <= percentile <= 100
+         * @return upper bound of the bucket holding the value percentile percent of the recorded
+         *         values are at or below, at most getMax(); 0 if none were recorded
+         */
+        long getValueAtPercentile(double percentile) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int b = 0; b < counts.length; b++) {
+                counts[b] = buckets[b].sum();
+                total += counts[b];
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    return Math.min((1L << b) - 1, max.get());
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @param name what the values are
+         * @param unit size of the unit of the report in values
+         * @return one line with name and the count, mean, median, p99 and max of the values
+         */
+        String format(String name, double unit) {
+            long count = getCount();
+            return String.format("%s count %d mean %.1f p50 %.1f p99 %.1f max %.1f", name, count,
+                    count == 0 ? 0 : sum.sum() / unit / count, getValueAtPercentile(50) / unit,
+                    getValueAtPercentile(99) / unit, max.get() / unit);
+        }
+    }
+}
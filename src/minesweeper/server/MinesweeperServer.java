@@ -4,11 +4,19 @@
 package minesweeper.server;
 
 import java.io.*;
+import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import minesweeper.Board;
+import minesweeper.BoardFile;
 
 import static minesweeper.Board.printBoard;
 
@@ -26,22 +34,63 @@ public class MinesweeperServer {
     private static final int MAXIMUM_PORT = 65535;
     /** Default square board size. */
     private static final int DEFAULT_SIZE = 10;
+    /** Random boards with at least this many squares are generated in parallel. */
+    private static final long PARALLEL_GENERATION_CELLS = 1 << 22;
+    /** Connections the OS may queue before they are accepted; the OS may cap this lower. */
+    private static final int ACCEPT_BACKLOG = 4096;
+    /** Most threads of the thread-per-connection engine, and so most clients it serves at once. */
+    private static final int MAX_POOL_THREADS = 32;
+    /** How long to wait after accepting a connection failed, e.g. for want of file descriptors. */
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;
 
-    /** Socket for receiving incoming connections. */
+    /** Line terminator written after every message, as PrintWriter.println() writes it. */
+    static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INVALID_MESSAGE = ascii("Invalid input");
+    private static final byte[] HELP_MESSAGE = ascii("Commands: look | help | bye | delta | watch | dig x y | flag x y | deflag x y"
+            + " | new COLSxROWS | join GAME | stats");
+    private static final byte[] NO_GAME_MESSAGE = ascii("No such game");
+    private static final byte[] FULL_MESSAGE = ascii("No room for a new game");
+    static final byte[] BYE_MESSAGE = ascii("bye");
+    static final byte[] BOOM_MESSAGE = ascii("BOOM!");
+    private static final byte[] INVALID_FRAME = BinaryProtocol.frame(INVALID_MESSAGE);
+    private static final byte[] HELP_FRAME = BinaryProtocol.frame(HELP_MESSAGE);
+    private static final byte[] NO_GAME_FRAME = BinaryProtocol.frame(NO_GAME_MESSAGE);
+    private static final byte[] FULL_FRAME = BinaryProtocol.frame(FULL_MESSAGE);
+
+    /** Channel for receiving incoming connections. */
+    private final ServerSocketChannel serverChannel;
+    /** Socket of serverChannel, for the thread-per-connection engine. */
     private final ServerSocket serverSocket;
     /** True if the server should *not* disconnect a client after a BOOM message. */
     private final boolean debug;
-    /** Thread pool for concurrent handling of incoming connections. */
-    private final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
-            4,                 // 核心线程数
-            32, // 最大线程数
-            60L,              // 空闲线程存活时间
-            TimeUnit.SECONDS, // 时间单位
-            new SynchronousQueue<>() // 工作队列
-    );
+    /**
+     * Thread pool for concurrent handling of incoming connections. The engine admits at most as
+     * many connections as the pool has threads, and the queue holds that many, so a connection
+     * admitted while the handler that made room for it is still finishing waits for its thread
+     * instead of being refused.
+     */
+    private final ThreadPoolExecutor threadPool = newThreadPool();
+    /** Optional settings. */
+    private final ServerOptions options;
+    /** Counts what the server does, for the stats command. */
+    private final Metrics metrics = new Metrics();
+    /** Limits the clients served at once, in total and per address. */
+    private final Admission admission;
     // TODO: Abstraction function, rep invariant, rep exposure
-    private volatile Board board; 
-    private final Object boardLock = new Object();
+    /** The games hosted, each with its own board, lock and caches; game 0 is set by setBoard(). */
+    private final GameRegistry games;
+    /** Runs the pushes to watching clients and the eviction of idle games. */
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "minesweeper-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Writes to watching clients for the thread and virtual-thread engines; set by serve(). */
+    private volatile ExecutorService pushWriters;
+    /** Keeps the default game on disk, or null if it is not kept; set by persist(). */
+    private volatile GameLog log;
+    /** Where connection and game events go, or null if they are not logged; set by setEvents(). */
+    private volatile EventLog events;
 
 
     /**
@@ -52,87 +101,319 @@ public class MinesweeperServer {
      * @throws IOException if an error occurs opening the server socket
      */
     public MinesweeperServer(int port, boolean debug) throws IOException {
-        serverSocket = new ServerSocket(port);
+        this(port, debug, new ServerOptions());
+    }
+
+    /**
+     * Make a MinesweeperServer that listens for connections on port.
+     *
+     * @param port port number, requires 0 <= port <= 65535
+     * @param debug debug mode flag
+     * @param options optional settings
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public MinesweeperServer(int port, boolean debug, ServerOptions options) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        serverSocket = serverChannel.socket();
         this.debug = debug;
+        this.options = options;
+        this.games = new GameRegistry(options, timer, metrics, this::event);
+        int maxConnections = options.getEngine() == ServerOptions.Engine.THREADS
+                ? Math.min(options.getMaxConnections(), MAX_POOL_THREADS)
+                : options.getMaxConnections();
+        this.admission = new Admission(maxConnections, options.getMaxConnectionsPerAddress());
     }
 
-    public void setBoard(Board board) {
-        this.board = board;
+    /**
+     * @return port number the server listens on
+     */
+    int getPort() {
+        return serverSocket.getLocalPort();
     }
 
-    private void logPoolStats() {
-        System.out.printf("线程池状态: [活跃: %d, 当前池大小: %d, 最大池大小: %d]\n",
-                threadPool.getActiveCount(),      // 当前活跃线程数
-                threadPool.getPoolSize(),         // 当前池中总线程数
-                threadPool.getLargestPoolSize()   // 历史最大线程数
-        );
+    /**
+     * Stop accepting connections, which makes serve() return with an exception.
+     *
+     * @throws IOException if closing the server socket fails
+     */
+    void close() throws IOException {
+        timer.shutdownNow();
+        serverChannel.close();
+        closeLog();
+        closeEvents();
     }
 
-    public Board parseBoard(File file) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String firstLine = reader.readLine();
-            if (firstLine == null) {
-                throw new RuntimeException("File is empty");
-            }
-            String[] dimensions = firstLine.split(" ");
-            if (dimensions.length != 2) {
-                throw new RuntimeException("Invalid dimensions");
-            }
-            int x = Integer.parseInt(dimensions[0]);
-            int y = Integer.parseInt(dimensions[1]);
-            if (x <= 0 || y <= 0) {
-                throw new RuntimeException("Invalid dimensions");
-            }
-            boolean[][] mines = new boolean[y][x];
-            for (int i = 0; i < y; i++) {
-                String line = reader.readLine();
-                if (line == null) {
-                    throw new RuntimeException("Invalid board file");
-                }
-                String[] values = line.split(" ");
-                if (values.length != x) {
-                    throw new RuntimeException("Invalid board file");
-                }
-                for (int j = 0; j < x; j++) {
-                    if (values[j].equals("0")) {
-                        mines[i][j] = false;
-                    } else if (values[j].equals("1")) {
-                        mines[i][j] = true;
-                    } else {
-                        throw new RuntimeException("Invalid board file");
-                    }
-                }
+    /**
+     * Keep the default game on disk from now on: replay the moves log holds onto it, then log
+     * every move on it. Requires that setBoard() was called, with the board log.recover()
+     * returned if it returned one, and that no client is connected yet.
+     *
+     * @param log where to keep the game
+     * @return number of moves replayed
+     * @throws IOException if reading the log or writing the first snapshot fails
+     */
+    int persist(GameLog log) throws IOException {
+        Game game = games.getDefault();
+        int moves = log.replay(game);
+        log.start(game, options.getCommitIntervalMillis(), options.getSnapshotIntervalMillis());
+        this.log = log;
+        return moves;
+    }
+
+    /**
+     * Commit the moves logged so far and stop logging, if the default game is kept on disk.
+     */
+    private void closeLog() {
+        GameLog log = this.log;
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException ioe) {
+                System.err.println("game log: " + ioe.getMessage());
             }
-            if (reader.readLine() != null) {
-                throw new RuntimeException("Invalid board file");
+        }
+    }
+
+    /**
+     * Log connection and game events to events from now on.
+     *
+     * @param events where to log them; closed when the server stops
+     */
+    void setEvents(EventLog events) {
+        this.events = events;
+    }
+
+    /**
+     * Log an event, if events are logged. Never waits.
+     *
+     * @param event the event as EventLog.log(..) takes it
+     */
+    void event(String event) {
+        EventLog events = this.events;
+        if (events != null) {
+            events.log(event);
+        }
+    }
+
+    /**
+     * Write the events logged so far and stop logging them, if they are logged.
+     */
+    private void closeEvents() {
+        EventLog events = this.events;
+        if (events != null) {
+            try {
+                events.close();
+            } catch (IOException ioe) {
+                System.err.println("event log: " + ioe.getMessage());
             }
-            Board board = new Board(x, y);
-            board.setBombs(mines);
-            return board;
-        } catch (IOException e) {
-            throw new RuntimeException("Error reading file: " + e.getMessage());
-        } catch (NumberFormatException e) {
-            throw new RuntimeException("Invalid number format: " + e.getMessage());
         }
     }
 
+    /**
+     * Make board the default game, the one every client plays until it joins another.
+     */
+    public void setBoard(Board board) {
+        games.setDefault(board);
+    }
+
+    /**
+     * @return the games this server hosts
+     */
+    GameRegistry getGames() {
+        return games;
+    }
+
+    /**
+     * @return what the server counts
+     */
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the reply to a stats request: the metrics, the number of games and, for the
+     *         thread-per-connection engine, the state of the thread pool
+     */
+    private byte[] stats() {
+        StringBuilder stats = new StringBuilder(metrics.report());
+        stats.append("\r\ngames ").append(games.size());
+        EventLog events = this.events;
+        if (events != null) {
+            stats.append(String.format("\r\nevents %d written, %d dropped", events.getWritten(), events.getDropped()));
+        }
+        if (options.getEngine() == ServerOptions.Engine.THREADS) {
+            stats.append(String.format("\r\nthread pool %d active, %d threads, %d largest",
+                    threadPool.getActiveCount(),      // 当前活跃线程数
+                    threadPool.getPoolSize(),         // 当前池中总线程数
+                    threadPool.getLargestPoolSize()   // 历史最大线程数
+            ));
+        }
+        return ascii(stats.toString());
+    }
+
+    public Board parseBoard(File file) {
+        return BoardFile.parseText(file);
+    }
+
     /**
      * Run the server, listening for client connections and handling them.
      * Never returns unless an exception is thrown.
      * 
      * @throws IOException if the main server socket is broken
-     *                     (IOExceptions from individual clients do *not* terminate serve())
+     *                     (IOExceptions from individual clients, or from accepting them, do *not*
+     *                     terminate serve())
      */
     public void serve() throws IOException {
+        games.start();
+        if (options.getEngine() == ServerOptions.Engine.NIO) {
+            try {
+                new NioEngine(this, serverChannel, debug, Runtime.getRuntime().availableProcessors()).serve();
+            } finally {
+                games.stop();
+                timer.shutdown();
+                serverChannel.close();
+                closeLog();
+                event("stop");
+                closeEvents();
+            }
+            return;
+        }
+        boolean virtual = options.getEngine() == ServerOptions.Engine.VIRTUAL;
+        ExecutorService executor = virtual ? newVirtualThreadExecutor() : threadPool;
+        pushWriters = virtual ? newVirtualThreadExecutor() : Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "minesweeper-push-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
         try {
             while (true) {
-                Socket socket = serverSocket.accept();
-                threadPool.execute(new ClientHandler(socket));
-                logPoolStats(); // 每当有新连接时记录状态
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException ioe) {
+                    if (serverSocket.isClosed()) {
+                        throw ioe;
+                    }
+                    acceptFailed(ioe);
+                    continue;
+                }
+                if (!admit(socket)) {
+                    continue;
+                }
+                executor.execute(new ClientHandler(socket));
             }
         } finally {
+            games.stop();
+            timer.shutdown();
+            executor.shutdown();
+            pushWriters.shutdown();
             threadPool.shutdown();
             serverSocket.close();
+            closeLog();
+            event("stop");
+            closeEvents();
+        }
+    }
+
+    /**
+     * Log that accepting a connection failed while the server socket is still open, most likely
+     * because the process ran out of file descriptors, and wait a little for connections to end
+     * before accepting again. Called on the accepting thread.
+     *
+     * @param e why accepting failed
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    void acceptFailed(IOException e) throws InterruptedIOException {
+        event("error accept exception=" + e);
+        try {
+            Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting to accept again");
+        }
+    }
+
+    /**
+     * Admit a new connection, or tell its client why not and close it. Called on the accepting
+     * thread before the connection goes to an engine.
+     *
+     * @param socket the new connection, in blocking mode
+     * @return true if the connection was admitted; it must be release()d when it ends
+     */
+    boolean admit(Socket socket) {
+        Admission.Refusal refusal = admission.admit(socket.getInetAddress());
+        if (refusal == null) {
+            return true;
+        }
+        refuse(socket, refusal);
+        return false;
+    }
+
+    /**
+     * Note that a connection admit() admitted ended.
+     *
+     * @param socket the connection, open or closed
+     */
+    void release(Socket socket) {
+        admission.release(socket.getInetAddress());
+    }
+
+    /**
+     * Tell the client of a new connection that it is not served and when to try again, and close
+     * the connection. The message is short enough for the empty send buffer of a new connection,
+     * so this does not wait for the client.
+     */
+    private void refuse(Socket socket, Admission.Refusal refusal) {
+        metrics.connectionRefused();
+        event("refuse client=" + socket.getInetAddress().getHostAddress() + ":" + socket.getPort()
+                + " reason=" + refusal.name().toLowerCase());
+        String reason = refusal == Admission.Refusal.FULL ? "Server full" : "Too many connections from your address";
+        try {
+            send(socket.getOutputStream(), ascii(reason + ", retry after " + options.getRetryAfterMillis() + " ms"));
+        } catch (IOException ioe) {
+            // the client is gone already
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // nothing more to do with it
+            }
+        }
+    }
+
+    /**
+     * @return a pool of up to MAX_POOL_THREADS threads, which end after a minute idle, with a
+     *         queue for as many tasks
+     */
+    private static ThreadPoolExecutor newThreadPool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                MAX_POOL_THREADS, // 核心线程数，即最大线程数
+                MAX_POOL_THREADS, // 最大线程数
+                60L,              // 空闲线程存活时间
+                TimeUnit.SECONDS, // 时间单位
+                new LinkedBlockingQueue<>(MAX_POOL_THREADS) // 工作队列
+        );
+        // idle threads end even though they are core threads
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Make an executor that starts a new virtual thread per task. The factory is looked up at run
+     * time, so the server still builds and runs on Java 11 with the other engines.
+     *
+     * @return a new virtual-thread-per-task executor
+     * @throws UnsupportedOperationException if the JVM has no virtual threads, i.e. is older than 21
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException nsme) {
+            throw new UnsupportedOperationException("virtual threads need Java 21 or later");
+        } catch (ReflectiveOperationException roe) {
+            throw new IllegalStateException("cannot make virtual thread executor", roe);
         }
     }
 
@@ -143,129 +424,456 @@ public class MinesweeperServer {
      * @throws IOException if the connection encounters an error or terminates unexpectedly
      */
     private void handleConnection(Socket socket) throws IOException {
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-        String welcomeMessage = String.format("Welcome to Minesweeper. Board: %d columns by %d rows. Players: %d including you. Type 'help' for help.", 
-        board.getCols(), board.getRows(), threadPool.getActiveCount());
-        out.println(welcomeMessage);
+        CommandReader in = new CommandReader(socket.getInputStream());
+        OutputStream out = new BufferedOutputStream(metrics.counting(socket.getOutputStream()));
+        Command command = new Command();
+        Batch batch = new Batch();
+        PushWriter writer = new PushWriter(out);
+        Session session = writer.session;
+        session.setLocal(socket.getInetAddress().isLoopbackAddress());
         try {
-            for (String line = in.readLine(); line != null; line = in.readLine()) {
-                String output = handleRequest(line);
-                if (output != null) {
-                    // TODO: Consider improving spec of handleRequest to avoid use of null
-                    if (output.equals("bye")) {
-                        out.println(output);
-                        break;
+            // welcome() enters the game, so from here on the session is ended however this returns
+            send(out, welcome(session));
+            BinaryProtocol.Decoder decoder = null;
+            if (in.skip(BinaryProtocol.MAGIC)) {
+                session.startBinary();
+                decoder = new BinaryProtocol.Decoder();
+            }
+            boolean last = false;
+            while (!last && (decoder != null ? in.next(decoder, command) : in.next(command))) {
+                // every further request the client already sent joins the batch
+                batch.clear();
+                batch.add(command);
+                while (!batch.isFull() && in.ready(decoder)) {
+                    if (decoder != null) {
+                        in.next(decoder, command);
+                    } else {
+                        in.next(command);
+                    }
+                    batch.add(command);
+                }
+                for (int from = 0; from < batch.size() && !last; ) {
+                    int to = execute(batch, from, session);
+                    boolean wrote = false;
+                    for (int i = from; i < to; i++) {
+                        byte[] output = batch.reply(i);
+                        last = endsConnection(output, debug);
+                        if (last) {
+                            endSession(session);
+                        }
+                        if (session.getSubscription() != null) {
+                            // the writer sends it, in order with the pushed changes; waits while
+                            // the client is too far behind on reading its replies
+                            if (output != null) {
+                                session.getSubscription().put(output);
+                            }
+                        } else {
+                            out.write(output);
+                            if (!session.isBinary()) {
+                                out.write(NEWLINE);
+                            }
+                            wrote = true;
+                        }
                     }
-                    if (output.equals("BOOM!") && !debug) {
-                        out.println(output);
-                        break;
+                    if (wrote) {
+                        // one flush for every reply of the batch
+                        out.flush();
                     }
-                    out.println(output);
+                    from = to;
                 }
             }
         } finally {
-            out.close();
-            in.close();
-            socket.close();
+            endSession(session);
+            try {
+                if (session.getSubscription() != null) {
+                    writer.finish();
+                }
+            } finally {
+                out.close();
+                socket.close();
+            }
         }
     }
 
+    /**
+     * Writes what is queued in a watching client's Subscription to the client, on a pushWriters
+     * thread. A client that stops reading only ever stalls that thread and its own handler, and at
+     * most one more task of it waits behind.
+     */
+    private class PushWriter implements Runnable {
+
+        private final OutputStream out;
+        private final Session session = new Session(this::ready);
+        private final ReentrantLock writeLock = new ReentrantLock();
+        /** True while a run() is submitted and has not started draining yet. */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private PushWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        private void ready() {
+            if (scheduled.compareAndSet(false, true)) {
+                pushWriters.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            writeLock.lock();
+            try {
+                scheduled.set(false);
+                drain();
+            } catch (IOException ioe) {
+                // the client is gone; its handler sees that on its next read, or stops waiting
+                // to queue a reply
+                session.getSubscription().abandon();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Write what is left in the subscription, waiting for any write in progress.
+         */
+        private void finish() throws IOException {
+            writeLock.lock();
+            try {
+                drain();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void drain() throws IOException {
+            Subscription subscription = session.getSubscription();
+            boolean wrote = false;
+            for (byte[] message = subscription.poll(); message != null; message = subscription.poll()) {
+                out.write(message);
+                out.write(NEWLINE);
+                wrote = true;
+            }
+            if (wrote) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Stop pushing board changes to the client of session, if it watches the board, and take it
+     * out of its game. Safe to call more than once.
+     */
+    void endSession(Session session) {
+        Subscription subscription = session.getSubscription();
+        if (subscription != null) {
+            game(session).getBroadcaster().unsubscribe(subscription);
+        }
+        Game game = session.getGame();
+        if (game != null) {
+            session.setGame(null);
+            game.leave();
+        }
+    }
+
+    /**
+     * @return the game the client of session plays
+     */
+    private Game game(Session session) {
+        Game game = session.getGame();
+        return game != null ? game : games.getDefault();
+    }
+
+    /**
+     * @param reply reply returned by handleRequest
+     * @param debug if false, a BOOM reply ends the connection
+     * @return true if the connection should be closed once reply is sent
+     */
+    static boolean endsConnection(byte[] reply, boolean debug) {
+        if (reply == BYE_MESSAGE || reply == BinaryProtocol.BYE_REPLY) {
+            return true;
+        }
+        return !debug && (reply == BOOM_MESSAGE || reply == BinaryProtocol.BOOM_REPLY);
+    }
+
+    /**
+     * Write message and a line terminator to out, and flush it.
+     *
+     * @param out stream to a client
+     * @param message bytes of one message
+     * @throws IOException if writing to the client fails
+     */
+    private static void send(OutputStream out, byte[] message) throws IOException {
+        out.write(message);
+        out.write(NEWLINE);
+        out.flush();
+    }
+
+    /**
+     * Put a new client in the default game, with a limit on its request rate if the options set one.
+     *
+     * @param session state of the client's connection, which has not entered a game yet
+     * @return bytes of the welcome message, without line terminator
+     */
+    byte[] welcome(Session session) {
+        if (options.getCommandRate() > 0) {
+            session.setLimiter(new TokenBucket(options.getCommandRate(), options.getCommandBurst(), System.nanoTime()));
+        }
+        Game game = games.getDefault();
+        int players = game.enter();
+        session.setGame(game);
+        Board board = game.getBoard();
+        String welcomeMessage = String.format("Welcome to Minesweeper. Board: %d columns by %d rows. Players: %d including you. Type 'help' for help.", 
+        board.getCols(), board.getRows(), players);
+        return ascii(welcomeMessage);
+    }
+
+    private static byte[] ascii(String message) {
+        return message.getBytes(StandardCharsets.US_ASCII);
+    }
+
     /**
      * A client handler that listens for client input and handles it.
      */
     class ClientHandler implements Runnable {
         private final Socket socket;
-        private final String clientId;
 
         public ClientHandler(Socket socket) {
             this.socket = socket;
-            this.clientId = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
         }
 
         @Override
         public void run() {
-            System.out.printf("客户端 [%s] 连接, ", clientId);
-            logPoolStats();
+            metrics.connectionOpened();
+            String client = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+            event("connect client=" + client);
+            boolean failed = false;
             try {
                 handleConnection(socket);
             } catch (IOException e) {
-                e.printStackTrace();
+                // the client went away mid-request, as the disconnect event says
+                failed = true;
             } finally {
                 try {
                     socket.close();
-                    System.out.printf("客户端 [%s] 断开, ", clientId);
-                    logPoolStats();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    failed = true;
                 }
+                release(socket);
+                metrics.connectionClosed(failed);
+                event("disconnect client=" + client + " failed=" + failed);
             }
         }
     }
 
     /**
-     * Handler for client input, performing requested operations and returning an output message.
-     * 
-     * @param input message from client
-     * @return message to client, or null if none
-     */
-    private String handleRequest(String input) {
-        synchronized(boardLock) {
-            String regex = "^(look|help|bye)$"  // 精确匹配单个命令
-                    + "|^(dig|flag|deflag)\\s+-?\\d+\\s+-?\\d+$";  // 带参数的命令
-            if ( ! input.matches(regex)) {
-                // invalid input
-                // TODO Problem 5
-                return "Invalid input";
+     * Run the requests of batch from index from on, in order, storing their replies in it exactly
+     * as handleRequest() would one at a time. Under global locking, a batch that changes the board
+     * takes the game's lock once for all its requests instead of once per request. Stops after a
+     * request whose reply ends the connection, and before a watch request other than the first, so
+     * that the replies before it can be sent before the client's replies start going through its
+     * subscription. A new or join request runs alone, since it moves the client to another game.
+     * Requests over the client's rate limit are answered before the lock is taken, and a batch
+     * takes it only if the requests within the limit need it. Safe to call from any thread.
+     *
+     * @param batch requests from one client
+     * @param from index of the first request to run, requires 0 <= from < batch.size()
+     * @param session state of the client's connection
+     * @return index past the last request run, greater than from
+     */
+    int execute(Batch batch, int from, Session session) {
+        int to = from;
+        boolean changes = false;
+        for (; to < batch.size(); to++) {
+            Command.Type type = batch.get(to).type;
+            boolean moves = type == Command.Type.NEW || type == Command.Type.JOIN;
+            if (to > from && (moves || (type == Command.Type.WATCH && session.getSubscription() == null))) {
+                break;
             }
-            String[] tokens = input.split(" ");
-            if (tokens[0].equals("look")) {
-                // 'look' request
-                // TODO Problem 5
-                return board.toString();
-            } else if (tokens[0].equals("help")) {
-                // 'help' request
-                // TODO Problem 5
-                return "Commands: look | help | bye | dig x y | flag x y | deflag x y";
-            } else if (tokens[0].equals("bye")) {
-                // 'bye' request
-                // TODO Problem 5
-                return "bye";
+            if (moves) {
+                // the requests after it go to another game, under another lock
+                to++;
+                break;
+            }
+        }
+        // requests over the client's rate limit get their replies now, so that a client flooding
+        // the server never takes the lock for requests that will not run
+        long now = System.nanoTime();
+        int passed = 0;
+        for (int i = from; i < to; i++) {
+            Command.Type type = batch.get(i).type;
+            byte[] limited = limit(type, session, now);
+            if (limited != null) {
+                batch.setReply(i, limited);
             } else {
-                int x = Integer.parseInt(tokens[1]);
-                int y = Integer.parseInt(tokens[2]);
-                if (tokens[0].equals("dig")) {
-                    // 检查坐标和状态
-                    if (x < 0 || x >= board.getCols() || y < 0 || y >= board.getRows() || 
-                        board.touched(x, y) || board.flagged(x, y)) {
-                        return board.toString();
-                    }
-                
-                    boolean wasBomb = board.isBombAt(x, y);
-                    board.dig(x, y);
-                    if (wasBomb) {
-                        return "BOOM!";
-                    }
-                    return board.toString();
-                } else if (tokens[0].equals("flag")) {
-                    // 'flag x y' request
-                    // TODO Problem 5
-                    if (x >= 0 && x < board.getCols() && y >= 0 && y < board.getRows() && !board.touched(x, y)) {
-                        board.setFlag(x, y);
-                    }
-                    return board.toString();
-                } else if (tokens[0].equals("deflag")) {
-                    // 'deflag x y' request
-                    // TODO Problem 5
-                    if (x >= 0 && x < board.getCols() && y >= 0 && y < board.getRows() && board.flagged(x, y)) {
-                        board.removeFlag(x, y);
-                    }
-                    return board.toString();
+                passed++;
+                changes |= type == Command.Type.DIG || type == Command.Type.FLAG || type == Command.Type.DEFLAG;
+            }
+        }
+        Game game = game(session);
+        // the game's lock is reentrant, so Game.play() takes it again without waiting
+        boolean locked = changes && game.isGloballyLocked() && passed > 1;
+        long acquired = locked ? game.lockTimed() : 0;
+        try {
+            for (int i = from; i < to; i++) {
+                Command command = batch.get(i);
+                metrics.command(command.type);
+                byte[] reply = batch.reply(i);
+                if (reply != null) {
+                    // over the rate limit
+                    metrics.rateLimited();
+                    continue;
+                }
+                reply = run(command, session);
+                batch.setReply(i, reply);
+                if (endsConnection(reply, debug)) {
+                    return i + 1;
                 }
             }
+            return to;
+        } finally {
+            if (locked) {
+                game.unlockTimed(acquired);
+            }
         }
-        // TODO: Should never get here, make sure to return in each of the cases above
-        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Handler for client input, performing requested operations and returning an output message.
+     * Requests run on the client's game; only the board operations run under the game's lock, and
+     * the input is parsed before it is called.
+     * Board replies are the shared bytes of the render cache, so they are not re-rendered per client,
+     * or deltas if the client asked for them. A client that watches the board gets its board replies
+     * through its subscription instead. A client of the binary protocol gets frames of it instead of
+     * text messages. A client over its rate limit is told to retry later, and its request is not run.
+     * Safe to call from any thread.
+     *
+     * @param command request from client, already parsed
+     * @param session state of the client's connection
+     * @return bytes of the message to client, without line terminator, or null if the reply was
+     *         queued in the client's subscription; BYE_MESSAGE and BOOM_MESSAGE, or for a binary
+     *         client BinaryProtocol.BYE_REPLY and BOOM_REPLY, are returned as those very arrays;
+     *         must not be changed
+     */
+    byte[] handleRequest(Command command, Session session) {
+        metrics.command(command.type);
+        byte[] limited = limit(command.type, session, System.nanoTime());
+        if (limited != null) {
+            metrics.rateLimited();
+            return limited;
+        }
+        return run(command, session);
+    }
+
+    /**
+     * Take a token for a request of the client of session, unless it is a bye, which always runs.
+     *
+     * @param type kind of the request
+     * @param session state of the client's connection
+     * @param now System.nanoTime() now
+     * @return null if the request may run, else the reply telling the client to retry later
+     */
+    private byte[] limit(Command.Type type, Session session, long now) {
+        TokenBucket limiter = session.getLimiter();
+        if (limiter == null || type == Command.Type.BYE || limiter.tryTake(now)) {
+            return null;
+        }
+        byte[] message = ascii("Too many requests, retry after " + Math.max(1, limiter.millisUntilToken()) + " ms");
+        return session.isBinary() ? BinaryProtocol.frame(message) : message;
+    }
+
+    /**
+     * Run a request within the client's rate limit, as handleRequest() does.
+     */
+    private byte[] run(Command command, Session session) {
+        Game game = game(session);
+        game.touch();
+        switch (command.type) {
+        case INVALID:
+            // invalid input
+            return session.isBinary() ? INVALID_FRAME : INVALID_MESSAGE;
+        case HELP:
+            return session.isBinary() ? HELP_FRAME : HELP_MESSAGE;
+        case BYE:
+            return session.isBinary() ? BinaryProtocol.BYE_REPLY : BYE_MESSAGE;
+        case DELTA:
+            session.startDelta();
+            return game.boardReply(session);
+        case WATCH:
+            if (session.getSubscription() == null) {
+                Subscription subscription = new Subscription(options.getPushQueueCapacity(), session.getReady());
+                session.setSubscription(subscription);
+                game.getBroadcaster().subscribe(subscription);
+                return null;
+            }
+            return game.boardReply(session);
+        case LOOK:
+            // 从最新快照渲染，不持有任何锁
+            return game.boardReply(session);
+        case NEW:
+            if (command.x <= 0 || command.y <= 0) {
+                return session.isBinary() ? INVALID_FRAME : INVALID_MESSAGE;
+            }
+            Game created = games.create(command.x, command.y);
+            if (created == null) {
+                event("full cols=" + command.x + " rows=" + command.y);
+                return session.isBinary() ? FULL_FRAME : FULL_MESSAGE;
+            }
+            event("create game=" + created.getId() + " cols=" + command.x + " rows=" + command.y);
+            return join(session, game, created);
+        case JOIN:
+            Game joined = games.get(command.x);
+            if (joined == null) {
+                return session.isBinary() ? NO_GAME_FRAME : NO_GAME_MESSAGE;
+            }
+            return join(session, game, joined);
+        case STATS:
+            if (!session.isLocal()) {
+                return session.isBinary() ? INVALID_FRAME : INVALID_MESSAGE;
+            }
+            return session.isBinary() ? BinaryProtocol.frame(stats()) : stats();
+        default:
+            break;
+        }
+        if (!game.contains(command.x, command.y)) {
+            return game.boardReply(session);
+        }
+        if (game.play(command)) {
+            return session.isBinary() ? BinaryProtocol.BOOM_REPLY : BOOM_MESSAGE;
+        }
+        return game.boardReply(session);
+    }
+
+    /**
+     * Move the client of session from one game to another, taking its subscription along.
+     *
+     * @param session state of the client's connection
+     * @param from game the client plays
+     * @param to game to move it to
+     * @return reply telling the client about its new game, or that it is gone
+     */
+    private byte[] join(Session session, Game from, Game to) {
+        int players = to == from ? to.getPlayers() : to.enter();
+        if (players < 0) {
+            // evicted after we looked it up
+            return session.isBinary() ? NO_GAME_FRAME : NO_GAME_MESSAGE;
+        }
+        if (to != from) {
+            Subscription subscription = session.getSubscription();
+            if (subscription != null) {
+                from.getBroadcaster().leave(subscription);
+                to.getBroadcaster().subscribe(subscription);
+            }
+            if (session.getGame() != null) {
+                session.getGame().leave();
+            }
+            session.setGame(to);
+            // the delta protocol starts over with the whole new board
+            session.setSent(null);
+        }
+        Board board = to.getBoard();
+        byte[] message = ascii(String.format("Game %d: %d columns by %d rows. Players: %d including you.",
+                to.getId(), board.getCols(), board.getRows(), players));
+        return session.isBinary() ? BinaryProtocol.frame(message) : message;
     }
 
     /**
@@ -273,6 +881,13 @@ public class MinesweeperServer {
      * 
      * <br> Usage:
      *      MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]
+     *                        [--density DENSITY] [--seed SEED] [--locking global | striped]
+     *                        [--engine threads | virtual | nio] [--push-interval MILLIS] [--push-queue UPDATES]
+     *                        [--max-game-cells CELLS] [--game-idle MILLIS]
+     *                        [--data DIR] [--commit-interval MILLIS] [--snapshot-interval MILLIS]
+     *                        [--log FILE] [--log-queue EVENTS] [--print-board-cells CELLS]
+     *                        [--max-connections CONNECTIONS] [--max-connections-per-address CONNECTIONS]
+     *                        [--command-rate PER_SECOND] [--command-burst REQUESTS] [--retry-after MILLIS]
      * 
      * <br> The --debug argument means the server should run in debug mode. The server should disconnect a
      *      client after a BOOM message if and only if the --debug flag was NOT given.
@@ -288,6 +903,78 @@ public class MinesweeperServer {
      * <br> E.g. "MinesweeperServer --size 42,58" starts the server initialized with a random board of size
      *      42*58.
      * 
+     * <br> DENSITY is an optional number in the range 0 to 1 inclusive, the fraction of squares of a random
+     *      board that get a bomb. Defaults to 0.25.
+     * <br> E.g. "MinesweeperServer --size 100,100 --density 0.1" starts the server with 1000 bombs.
+     *
+     * <br> SEED is an optional integer. A random board generated with the same SEED, size and DENSITY is
+     *      always the same board, which makes runs reproducible for benchmarks. Boards of 4M squares or
+     *      more are generated in parallel row bands.
+     * <br> E.g. "MinesweeperServer --seed 6005" starts the server with the same 10x10 board every time.
+     *
+     * <br> The --locking argument chooses how requests from different players are kept apart. With global
+     *      (the default) every request locks the whole board. With striped, dig, flag and deflag only lock
+     *      the 64x64 tiles they touch, so players on different parts of a big board do not wait for each other.
+     * <br> E.g. "MinesweeperServer --size 2000,2000 --locking striped"
+     *
+     * <br> The --engine argument chooses how connections are served. With threads (the default) each
+     *      connection gets a thread from a pool of at most 32. With virtual, each connection gets its
+     *      own virtual thread, which needs Java 21 or later. With nio, a few selector threads serve
+     *      every connection on non-blocking channels. Both virtual and nio let tens of thousands of
+     *      players connect.
+     * <br> E.g. "MinesweeperServer --engine nio"
+     *
+     * <br> A client that sends "watch" gets board changes pushed to it in the delta format instead of
+     *      polling with look. MILLIS is the batching window: changes are pushed at most once per MILLIS
+     *      milliseconds, all changes of a window in one message. Defaults to 50. UPDATES is how many
+     *      pushed updates a client that is slow to read may fall behind by before they are collapsed
+     *      into one update of the whole board, and how many replies it may fall behind by before the
+     *      server stops reading its requests. Defaults to 64.
+     * <br> E.g. "MinesweeperServer --push-interval 100 --push-queue 16"
+     *
+     * <br> Besides the board it starts with, the server hosts games its clients create with "new COLSxROWS",
+     *      each with a random board of its own, which other clients enter with "join GAME". CELLS caps the
+     *      squares of all created games together; defaults to 16777216. A created game nobody is in is
+     *      evicted MILLIS milliseconds after its last request; defaults to 600000.
+     * <br> E.g. "MinesweeperServer --max-game-cells 1000000 --game-idle 60000"
+     *
+     * <br> With --data, the server keeps the board it starts with in the directory DIR, creating it if
+     *      needed, and a restarted server goes on with that board from where it stopped instead of
+     *      making a new one. Moves are logged to DIR and committed to disk every MILLIS of
+     *      --commit-interval, default 10, so a crash loses about the moves of the last interval.
+     *      A snapshot of the whole board replaces the log every MILLIS of --snapshot-interval,
+     *      default 60000. Created games are not kept.
+     * <br> E.g. "MinesweeperServer --size 1000,1000 --data minesweeper-data"
+     *
+     * <br> A client connected from the same machine may send "stats" to get the server's counters:
+     *      requests by type, connections, clients refused, requests rate limited, bytes written, how
+     *      long requests waited for and held board locks, and how many squares digs revealed.
+     *
+     * <br> The server logs when it starts and stops, when clients connect and disconnect and when
+     *      games are created, one line per event, to standard output or, with --log, appended to
+     *      FILE. Events are written by a thread of their own, so a storm of connections never waits
+     *      for the console; if more than EVENTS of them are waiting to be written, default 8192,
+     *      further ones are dropped and counted. At start the server prints its board, one
+     *      character per square, unless it has more than CELLS squares, default 10000.
+     * <br> E.g. "MinesweeperServer --size 1000,1000 --log minesweeper.log --print-board-cells 0"
+     *
+     * <br> The server serves at most CONNECTIONS of --max-connections clients at once, default 10000,
+     *      and the threads engine no more than its 32 threads, and with --max-connections-per-address
+     *      at most CONNECTIONS from any one address; by default there is no limit per address. A client
+     *      over a limit is sent "Server full, retry after MILLIS ms" or "Too many connections from your
+     *      address, retry after MILLIS ms" instead of the welcome message, and disconnected. MILLIS of
+     *      --retry-after defaults to 1000. Every client holds a file descriptor, so --max-connections
+     *      should stay below the open file limit of the process (ulimit -n); if the server runs out of
+     *      descriptors anyway, it logs the failed accept and tries again 100 ms later.
+     * <br> With --command-rate, each client may send PER_SECOND requests per second over time, and up
+     *      to REQUESTS of --command-burst at once, default 100. A request over the limit is not run and
+     *      gets "Too many requests, retry after MILLIS ms", so one client cannot flood the board lock.
+     * <br> E.g. "MinesweeperServer --engine nio --max-connections-per-address 100 --command-rate 50"
+     *
+     * <br> A client may switch to the compact binary protocol described in BinaryProtocol by sending the
+     *      byte 0xCD right after the welcome message, which is always text. Text and binary clients play
+     *      on the same board at the same time.
+     *
      * <br> FILE is an optional argument specifying a file pathname where a board has been stored. If this
      *      argument is given, the stored board should be loaded as the starting board.
      * <br> E.g. "MinesweeperServer --file boardfile.txt" starts the server initialized with the board stored
@@ -306,6 +993,10 @@ public class MinesweeperServer {
      *   INT ::= [0-9]+
      * </pre>
      * 
+     * <br> FILE may also be a binary board file, which loads without parsing and suits huge boards;
+     *      run minesweeper.BoardFile to convert a board file in the format above to one.
+     * <br> E.g. "java minesweeper.BoardFile board.txt board.bin" then "MinesweeperServer --file board.bin"
+     *
      * <br> If neither --file nor --size is given, generate a random board of size 10x10.
      * 
      * <br> Note that --file and --size may not be specified simultaneously.
@@ -313,12 +1004,13 @@ public class MinesweeperServer {
      * @param args arguments as described
      */
     public static void main(String[] args) {
-        // Command-line argument parsing is provided. Do not change this method.
+        // parses the flags documented above; keep the usage message below in step with them
         boolean debug = false;
         int port = DEFAULT_PORT;
         int sizeX = DEFAULT_SIZE;
         int sizeY = DEFAULT_SIZE;
         Optional<File> file = Optional.empty();
+        ServerOptions options = new ServerOptions();
 
         Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
         try {
@@ -339,6 +1031,113 @@ public class MinesweeperServer {
                         sizeX = Integer.parseInt(sizes[0]);
                         sizeY = Integer.parseInt(sizes[1]);
                         file = Optional.empty();
+                    } else if (flag.equals("--density")) {
+                        double density = Double.parseDouble(arguments.remove());
+                        if ( ! (density >= 0 && density <= 1)) {
+                            throw new IllegalArgumentException("density " + density + " out of range");
+                        }
+                        options.setDensity(density);
+                    } else if (flag.equals("--seed")) {
+                        options.setSeed(Long.parseLong(arguments.remove()));
+                    } else if (flag.equals("--locking")) {
+                        String mode = arguments.remove();
+                        if ( ! mode.equals("global") && ! mode.equals("striped")) {
+                            throw new IllegalArgumentException("unknown locking mode: \"" + mode + "\"");
+                        }
+                        options.setStripedLocking(mode.equals("striped"));
+                    } else if (flag.equals("--engine")) {
+                        String engine = arguments.remove();
+                        if (engine.equals("threads")) {
+                            options.setEngine(ServerOptions.Engine.THREADS);
+                        } else if (engine.equals("virtual")) {
+                            options.setEngine(ServerOptions.Engine.VIRTUAL);
+                        } else if (engine.equals("nio")) {
+                            options.setEngine(ServerOptions.Engine.NIO);
+                        } else {
+                            throw new IllegalArgumentException("unknown engine: \"" + engine + "\"");
+                        }
+                    } else if (flag.equals("--push-interval")) {
+                        long interval = Long.parseLong(arguments.remove());
+                        if (interval <= 0) {
+                            throw new IllegalArgumentException("push interval " + interval + " out of range");
+                        }
+                        options.setPushIntervalMillis(interval);
+                    } else if (flag.equals("--push-queue")) {
+                        int capacity = Integer.parseInt(arguments.remove());
+                        if (capacity <= 0) {
+                            throw new IllegalArgumentException("push queue " + capacity + " out of range");
+                        }
+                        options.setPushQueueCapacity(capacity);
+                    } else if (flag.equals("--max-game-cells")) {
+                        long cells = Long.parseLong(arguments.remove());
+                        if (cells < 0) {
+                            throw new IllegalArgumentException("max game cells " + cells + " out of range");
+                        }
+                        options.setMaxGameCells(cells);
+                    } else if (flag.equals("--game-idle")) {
+                        long idle = Long.parseLong(arguments.remove());
+                        if (idle <= 0) {
+                            throw new IllegalArgumentException("game idle " + idle + " out of range");
+                        }
+                        options.setGameIdleMillis(idle);
+                    } else if (flag.equals("--data")) {
+                        options.setDataDir(Paths.get(arguments.remove()));
+                    } else if (flag.equals("--commit-interval")) {
+                        long interval = Long.parseLong(arguments.remove());
+                        if (interval <= 0) {
+                            throw new IllegalArgumentException("commit interval " + interval + " out of range");
+                        }
+                        options.setCommitIntervalMillis(interval);
+                    } else if (flag.equals("--snapshot-interval")) {
+                        long interval = Long.parseLong(arguments.remove());
+                        if (interval <= 0) {
+                            throw new IllegalArgumentException("snapshot interval " + interval + " out of range");
+                        }
+                        options.setSnapshotIntervalMillis(interval);
+                    } else if (flag.equals("--log")) {
+                        options.setLogFile(Paths.get(arguments.remove()));
+                    } else if (flag.equals("--log-queue")) {
+                        int capacity = Integer.parseInt(arguments.remove());
+                        if (capacity <= 0 || capacity > 1 << 30) {
+                            throw new IllegalArgumentException("log queue " + capacity + " out of range");
+                        }
+                        options.setLogQueueCapacity(capacity);
+                    } else if (flag.equals("--print-board-cells")) {
+                        long cells = Long.parseLong(arguments.remove());
+                        if (cells < 0) {
+                            throw new IllegalArgumentException("print board cells " + cells + " out of range");
+                        }
+                        options.setPrintBoardCells(cells);
+                    } else if (flag.equals("--max-connections")) {
+                        int connections = Integer.parseInt(arguments.remove());
+                        if (connections <= 0) {
+                            throw new IllegalArgumentException("max connections " + connections + " out of range");
+                        }
+                        options.setMaxConnections(connections);
+                    } else if (flag.equals("--max-connections-per-address")) {
+                        int connections = Integer.parseInt(arguments.remove());
+                        if (connections < 0) {
+                            throw new IllegalArgumentException("max connections per address " + connections + " out of range");
+                        }
+                        options.setMaxConnectionsPerAddress(connections);
+                    } else if (flag.equals("--command-rate")) {
+                        double rate = Double.parseDouble(arguments.remove());
+                        if ( ! (rate >= 0)) {
+                            throw new IllegalArgumentException("command rate " + rate + " out of range");
+                        }
+                        options.setCommandRate(rate);
+                    } else if (flag.equals("--command-burst")) {
+                        int burst = Integer.parseInt(arguments.remove());
+                        if (burst < 1) {
+                            throw new IllegalArgumentException("command burst " + burst + " out of range");
+                        }
+                        options.setCommandBurst(burst);
+                    } else if (flag.equals("--retry-after")) {
+                        long retry = Long.parseLong(arguments.remove());
+                        if (retry < 0) {
+                            throw new IllegalArgumentException("retry after " + retry + " out of range");
+                        }
+                        options.setRetryAfterMillis(retry);
                     } else if (flag.equals("--file")) {
                         sizeX = -1;
                         sizeY = -1;
@@ -357,12 +1156,18 @@ public class MinesweeperServer {
             }
         } catch (IllegalArgumentException iae) {
             System.err.println(iae.getMessage());
-            System.err.println("usage: MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]");
+            System.err.println("usage: MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]"
+                    + " [--density DENSITY] [--seed SEED] [--locking global | striped] [--engine threads | virtual | nio]"
+                    + " [--push-interval MILLIS] [--push-queue UPDATES] [--max-game-cells CELLS] [--game-idle MILLIS]"
+                    + " [--data DIR] [--commit-interval MILLIS] [--snapshot-interval MILLIS]"
+                    + " [--log FILE] [--log-queue EVENTS] [--print-board-cells CELLS]"
+                    + " [--max-connections CONNECTIONS] [--max-connections-per-address CONNECTIONS]"
+                    + " [--command-rate PER_SECOND] [--command-burst REQUESTS] [--retry-after MILLIS]");
             return;
         }
 
         try {
-            runMinesweeperServer(debug, file, sizeX, sizeY, port);
+            runMinesweeperServer(debug, file, sizeX, sizeY, port, options);
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
@@ -383,20 +1188,78 @@ public class MinesweeperServer {
      * @throws IOException if a network error occurs
      */
     public static void runMinesweeperServer(boolean debug, Optional<File> file, int sizeX, int sizeY, int port) throws IOException {
+        runMinesweeperServer(debug, file, sizeX, sizeY, port, new ServerOptions());
+    }
+
+    /**
+     * Start a MinesweeperServer running on the specified port, with either a random new board or a
+     * board loaded from a file.
+     *
+     * @param debug The server will disconnect a client after a BOOM message if and only if debug is false.
+     * @param file If file.isPresent(), start with a board loaded from the specified file,
+     *             according to the input file format defined in the documentation for main(..).
+     * @param sizeX If (!file.isPresent()), start with a random board with width sizeX
+     *              (and require sizeX > 0).
+     * @param sizeY If (!file.isPresent()), start with a random board with height sizeY
+     *              (and require sizeY > 0).
+     * @param port The network port on which the server should listen, requires 0 <= port <= 65535.
+     * @param options Optional settings; the random board's density and seed are only used if
+     *                (!file.isPresent()). If options.getDataDir() holds a kept game, the server
+     *                goes on with it instead of file or a random board.
+     * @throws IOException if a network error occurs
+     */
+    public static void runMinesweeperServer(boolean debug, Optional<File> file, int sizeX, int sizeY,
+            int port, ServerOptions options) throws IOException {
         
         // TODO: Continue implementation here in problem 4
-        MinesweeperServer server = new MinesweeperServer(port, debug);
-        if (file.isPresent()) {
+        MinesweeperServer server = new MinesweeperServer(port, debug, options);
+        OptionalLong seed = options.getSeed();
+        GameLog log = options.getDataDir().isPresent() ? new GameLog(options.getDataDir().get()) : null;
+        Board recovered = log != null ? log.recover() : null;
+        if (recovered != null) {
+            server.setBoard(recovered);
+        } else if (file.isPresent()) {
             // 使用文件初始化棋盘
-            server.board = server.parseBoard(file.get());
+            Path path = file.get().toPath();
+            server.setBoard(BoardFile.isBinary(path) ? BoardFile.map(path) : server.parseBoard(file.get()));
         } else {
             // 使用随机棋盘
-            Board newBoard = new Board(sizeX, sizeY);
-            newBoard.setBombs(); // 这会随机放置炸弹
+            Board newBoard = new Board(sizeX, sizeY, options.getDensity());
+            if ((long) sizeX * sizeY >= PARALLEL_GENERATION_CELLS) {
+                // 大棋盘按行带并行生成
+                if (seed.isPresent()) {
+                    newBoard.setBombs(seed.getAsLong(), ForkJoinPool.commonPool());
+                } else {
+                    newBoard.setBombs(ForkJoinPool.commonPool());
+                }
+            } else if (seed.isPresent()) {
+                newBoard.setBombs(seed.getAsLong());
+            } else {
+                newBoard.setBombs(); // 这会随机放置炸弹
+            }
             server.setBoard(newBoard);
         }
+        EventLog events = EventLog.open(options.getLogFile(), options.getLogQueueCapacity());
+        server.setEvents(events);
+        // write the last events on Ctrl-C too
+        Runtime.getRuntime().addShutdownHook(new Thread(server::closeEvents, "minesweeper-events-close"));
+        if (log != null) {
+            int moves = server.persist(log);
+            if (recovered != null) {
+                server.event("recover dir=" + options.getDataDir().get() + " moves=" + moves);
+            }
+            // commit the last moves on Ctrl-C too
+            Runtime.getRuntime().addShutdownHook(new Thread(server::closeLog, "minesweeper-log-close"));
+        }
+        Board board = server.games.getDefault().getBoard();
+        server.event("start port=" + server.getPort() + " cols=" + board.getCols() + " rows=" + board.getRows()
+                + " engine=" + options.getEngine().name().toLowerCase() + " debug=" + debug);
         System.out.println("Minesweeper server started");
-        printBoard(server.board);
+        if ((long) board.getCols() * board.getRows() <= options.getPrintBoardCells()) {
+            printBoard(board);
+        } else {
+            System.out.println("Board of " + board.getCols() + "x" + board.getRows() + " squares not printed");
+        }
         server.serve();
     }
 }
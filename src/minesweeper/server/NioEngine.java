@@ -0,0 +1,446 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Serves the Minesweeper protocol on non-blocking channels, with a few selector threads instead
+ * of a thread per connection. An idle player costs a selection key and a small Connection, so
+ * tens of thousands of players fit on a handful of threads.
+ *
+ * The calling thread accepts connections and hands them round-robin to the selector loops. Each
+ * loop reads into one direct buffer, splits lines the same way CommandReader does, or frames of
+ * the binary protocol if the client's first byte picks it. The requests of one read run as a
+ * batch, in order and under one acquisition of the board lock, and their replies go out in one
+ * gathering write.
+ */
+final class NioEngine {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Thread safety argument:
+    //   a Connection is confined to the loop that owns its channel; channels move from the
+    //   accepting thread to a loop through the loop's concurrent queue. Requests run through
+    //   server.execute, which is safe to call from any thread; a Loop's batch is confined to it.
+
+    private final MinesweeperServer server;
+    private final ServerSocketChannel serverChannel;
+    private final boolean debug;
+    private final Loop[] loops;
+
+    /**
+     * Make an engine serving the connections accepted on serverChannel.
+     *
+     * @param server server whose board the requests run against
+     * @param serverChannel bound channel to accept connections on, in blocking mode
+     * @param debug if false, disconnect a client after a BOOM message
+     * @param threads number of selector threads, requires threads > 0
+     * @throws IOException if a selector cannot be opened
+     */
+    NioEngine(MinesweeperServer server, ServerSocketChannel serverChannel, boolean debug, int threads)
+            throws IOException {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.debug = debug;
+        this.loops = new Loop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new Loop(Selector.open());
+        }
+    }
+
+    /**
+     * Accept connections until the server channel is closed. A connection that cannot be
+     * accepted while it is open, e.g. for want of file descriptors, is logged and tried again.
+     *
+     * @throws IOException once the server channel is closed
+     */
+    void serve() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "minesweeper-nio-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try {
+            for (int next = 0; ; next = (next + 1) % loops.length) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (IOException ioe) {
+                    if (!serverChannel.isOpen()) {
+                        throw ioe;
+                    }
+                    server.acceptFailed(ioe);
+                    continue;
+                }
+                if (!server.admit(channel.socket())) {
+                    continue;
+                }
+                try {
+                    channel.configureBlocking(false);
+                } catch (IOException ioe) {
+                    server.release(channel.socket());
+                    try {
+                        channel.close();
+                    } catch (IOException closing) {
+                        // nothing more to do with it
+                    }
+                    continue;
+                }
+                loops[next].add(channel);
+            }
+        } finally {
+            for (Loop loop : loops) {
+                loop.selector.close();
+            }
+        }
+    }
+
+    /**
+     * @return address channel is connected from, or null if it is not connected any more
+     */
+    private static InetSocketAddress remote(SocketChannel channel) {
+        try {
+            return (InetSocketAddress) channel.getRemoteAddress();
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * State of one client connection.
+     */
+    private static final class Connection {
+
+        // Rep: command holds the parse state of the line being read; started is true if that
+        //      line has any bytes, skipNewline if the last byte read was a '\r' ending a line.
+        //      pending holds replies not yet written, in order; closing is true once a reply that
+        //      ends the connection has been queued, after which no more requests are read.
+        //      session holds what the server remembers about the client between requests; if the
+        //      client watches the board, its subscription is moved into pending whenever pending
+        //      is empty, so a client that stops reading holds at most what the subscription bounds.
+        //      chosen is true once the first byte from the client was read; decoder is then
+        //      non-null iff the client speaks the binary protocol.
+
+        private final SocketChannel channel;
+        private final Command command = new Command();
+        private final Session session;
+        private boolean started;
+        private boolean skipNewline;
+        private final Queue<ByteBuffer> pending = new ArrayDeque<>();
+        private boolean closing;
+        private boolean chosen;
+        private BinaryProtocol.Decoder decoder;
+        private SelectionKey key;
+        /** Address of the client, for the event log. */
+        private String client;
+
+        private Connection(SocketChannel channel, Loop loop) {
+            this.channel = channel;
+            this.session = new Session(() -> loop.signal(this));
+        }
+    }
+
+    /**
+     * One selector thread and the connections registered with it.
+     */
+    private final class Loop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        /** Connections whose subscriptions have new messages. */
+        private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        /** Requests of the connection being read, not yet run. */
+        private final Batch batch = new Batch();
+        private volatile Thread thread;
+
+        private Loop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Hand channel to this loop. Any thread may call this.
+         */
+        private void add(SocketChannel channel) {
+            incoming.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Note that connection's subscription has new messages. Any thread may call this.
+         */
+        private void signal(Connection connection) {
+            if (Thread.currentThread() == thread) {
+                // this loop flushes the connection anyway once it has handled its requests
+                return;
+            }
+            ready.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                while (selector.isOpen()) {
+                    selector.select();
+                    register();
+                    flushReady();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                flush(key, connection);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                read(key, connection);
+                            }
+                        } catch (IOException ioe) {
+                            close(key, connection);
+                        } catch (RuntimeException re) {
+                            fail(key, connection, re);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (selector.isOpen()) {
+                    server.event("error loop=" + thread.getName() + " exception=" + e);
+                }
+            }
+        }
+
+        /**
+         * Close a connection whose request failed unexpectedly, and log why. The loop goes on
+         * serving its other connections.
+         */
+        private void fail(SelectionKey key, Connection connection, RuntimeException e) {
+            // the rest of the failed batch must not run for the next connection read
+            batch.clear();
+            server.event("error client=" + connection.client + " exception=" + e);
+            close(key, connection);
+        }
+
+        private void register() throws IOException {
+            SocketChannel channel;
+            while ((channel = incoming.poll()) != null) {
+                Connection connection = new Connection(channel, this);
+                SelectionKey key;
+                try {
+                    key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException cce) {
+                    server.release(channel.socket());
+                    continue;
+                }
+                connection.key = key;
+                server.getMetrics().connectionOpened();
+                InetSocketAddress remote = remote(channel);
+                connection.session.setLocal(remote != null && remote.getAddress().isLoopbackAddress());
+                connection.client = remote != null ? remote.getAddress().getHostAddress() + ":" + remote.getPort() : "?";
+                server.event("connect client=" + connection.client);
+                try {
+                    queue(connection, server.welcome(connection.session));
+                    flush(key, connection);
+                } catch (IOException ioe) {
+                    close(key, connection);
+                } catch (RuntimeException re) {
+                    fail(key, connection, re);
+                }
+            }
+        }
+
+        /**
+         * Write out the new messages of subscriptions that signalled, unless their connections
+         * are waiting for the channel to be writable anyway.
+         */
+        private void flushReady() {
+            Connection connection;
+            while ((connection = ready.poll()) != null) {
+                SelectionKey key = connection.key;
+                if (!key.isValid() || (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                    continue;
+                }
+                try {
+                    flush(key, connection);
+                } catch (IOException ioe) {
+                    close(key, connection);
+                } catch (RuntimeException re) {
+                    fail(key, connection, re);
+                }
+            }
+        }
+
+        /**
+         * Read what the client sent and run every complete request of it.
+         */
+        private void read(SelectionKey key, Connection connection) throws IOException {
+            readBuffer.clear();
+            int read = connection.channel.read(readBuffer);
+            if (read < 0) {
+                // a binary frame cut short is dropped, as CommandReader drops it
+                if (connection.started && !connection.closing && connection.decoder == null) {
+                    batch.add(connection.command.finish());
+                    execute(connection);
+                }
+                connection.closing = true;
+                flush(key, connection);
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining() && !connection.closing) {
+                byte b = readBuffer.get();
+                if (!connection.chosen) {
+                    connection.chosen = true;
+                    if (b == BinaryProtocol.MAGIC) {
+                        connection.session.startBinary();
+                        connection.decoder = new BinaryProtocol.Decoder();
+                        continue;
+                    }
+                }
+                if (connection.decoder != null) {
+                    if (connection.decoder.accept(b, connection.command)) {
+                        add(connection.command, connection);
+                        connection.command.reset();
+                    }
+                    continue;
+                }
+                if (b == '\n' && connection.skipNewline) {
+                    connection.skipNewline = false;
+                    continue;
+                }
+                connection.skipNewline = false;
+                if (b == '\n' || b == '\r') {
+                    connection.skipNewline = b == '\r';
+                    add(connection.command.finish(), connection);
+                    connection.command.reset();
+                    connection.started = false;
+                } else {
+                    connection.started = true;
+                    connection.command.accept(b);
+                }
+            }
+            execute(connection);
+            flush(key, connection);
+        }
+
+        private void add(Command command, Connection connection) {
+            batch.add(command);
+            if (batch.isFull()) {
+                execute(connection);
+            }
+        }
+
+        /**
+         * Run the batched requests of connection and queue their replies.
+         */
+        private void execute(Connection connection) {
+            for (int from = 0; from < batch.size() && !connection.closing; ) {
+                int to = server.execute(batch, from, connection.session);
+                for (int i = from; i < to; i++) {
+                    reply(batch.reply(i), connection);
+                }
+                from = to;
+            }
+            batch.clear();
+        }
+
+        private void reply(byte[] reply, Connection connection) {
+            if (MinesweeperServer.endsConnection(reply, debug)) {
+                server.endSession(connection.session);
+                connection.closing = true;
+            }
+            Subscription subscription = connection.session.getSubscription();
+            if (subscription == null) {
+                queue(connection, reply);
+            } else if (reply != null) {
+                // in order with the pushed changes
+                subscription.add(reply);
+            }
+        }
+
+        private void queue(Connection connection, byte[] message) {
+            // the arrays are shared and never changed, so wrapping them is safe
+            connection.pending.add(ByteBuffer.wrap(message));
+            if (!connection.session.isBinary()) {
+                // frames of the binary protocol carry their own length
+                connection.pending.add(ByteBuffer.wrap(MinesweeperServer.NEWLINE));
+            }
+        }
+
+        /**
+         * Write as much pending output as the channel takes. While output is left, stop reading
+         * from the client and wait until the channel is writable; once it is all written, close
+         * the connection if it is closing.
+         */
+        private void flush(SelectionKey key, Connection connection) throws IOException {
+            Queue<ByteBuffer> pending = connection.pending;
+            while (!pending.isEmpty() || refill(connection)) {
+                // one gathering write for every queued reply
+                server.getMetrics().written(connection.channel.write(pending.toArray(new ByteBuffer[0])));
+                while (!pending.isEmpty() && !pending.peek().hasRemaining()) {
+                    pending.remove();
+                }
+                if (!pending.isEmpty()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if (connection.closing) {
+                close(key, connection);
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Move the messages queued in connection's subscription, if any, to its pending output.
+         *
+         * @return true if any were moved
+         */
+        private boolean refill(Connection connection) {
+            Subscription subscription = connection.session.getSubscription();
+            if (subscription == null) {
+                return false;
+            }
+            boolean moved = false;
+            for (byte[] message = subscription.poll(); message != null; message = subscription.poll()) {
+                queue(connection, message);
+                moved = true;
+            }
+            return moved;
+        }
+
+        private void close(SelectionKey key, Connection connection) {
+            if (!connection.channel.isOpen()) {
+                return;
+            }
+            server.endSession(connection.session);
+            key.cancel();
+            boolean failed = !connection.closing;
+            try {
+                connection.channel.close();
+            } catch (IOException ioe) {
+                failed = true;
+            }
+            server.release(connection.channel.socket());
+            server.getMetrics().connectionClosed(failed);
+            server.event("disconnect client=" + connection.client + " failed=" + failed);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import minesweeper.Board;
+
+/**
+ * Optional settings of a MinesweeperServer, with the defaults used when a flag is not given.
+ * See MinesweeperServer.main(..) for the matching command-line flags.
+ */
+public class ServerOptions {
+
+    /** Ways of serving client connections. */
+    public enum Engine {
+        /** A thread from a bounded pool per connection, with blocking sockets. */
+        THREADS,
+        /** A virtual thread per connection, with blocking sockets; needs Java 21 or later. */
+        VIRTUAL,
+        /** A few selector threads multiplexing non-blocking channels. */
+        NIO
+    }
+
+    private double density = Board.DEFAULT_DENSITY;
+    private OptionalLong seed = OptionalLong.empty();
+    private boolean stripedLocking = false;
+    private Engine engine = Engine.THREADS;
+    private long pushIntervalMillis = 50;
+    private int pushQueueCapacity = 64;
+    private long maxGameCells = 1 << 24;
+    private long gameIdleMillis = 10 * 60 * 1000;
+    private Optional<Path> dataDir = Optional.empty();
+    private long commitIntervalMillis = 10;
+    private long snapshotIntervalMillis = 60 * 1000;
+    private Optional<Path> logFile = Optional.empty();
+    private int logQueueCapacity = 8192;
+    private long printBoardCells = 10 * 1000;
+    private int maxConnections = 10 * 1000;
+    private int maxConnectionsPerAddress = 0;
+    private double commandRate = 0;
+    private int commandBurst = 100;
+    private long retryAfterMillis = 1000;
+
+    /**
+     * @return fraction of squares of a random board that get a bomb
+     */
+    public double getDensity() {
+        return density;
+    }
+
+    /**
+     * @param density fraction of squares of a random board that get a bomb, requires 0 <= density <= 1
+     */
+    public void setDensity(double density) {
+        this.density = density;
+    }
+
+    /**
+     * @return seed for generating a random board, if any
+     */
+    public OptionalLong getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param seed seed for generating a random board
+     */
+    public void setSeed(long seed) {
+        this.seed = OptionalLong.of(seed);
+    }
+
+    /**
+     * @return true if board operations lock tiles of the board instead of the whole board
+     */
+    public boolean isStripedLocking() {
+        return stripedLocking;
+    }
+
+    /**
+     * @param stripedLocking true to lock tiles of the board instead of the whole board
+     */
+    public void setStripedLocking(boolean stripedLocking) {
+        this.stripedLocking = stripedLocking;
+    }
+
+    /**
+     * @return how client connections are served
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @param engine how client connections are served
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return milliseconds between pushes of board changes to watching clients; changes made
+     *         within one interval reach a client as one message
+     */
+    public long getPushIntervalMillis() {
+        return pushIntervalMillis;
+    }
+
+    /**
+     * @param pushIntervalMillis milliseconds between pushes of board changes, requires pushIntervalMillis > 0
+     */
+    public void setPushIntervalMillis(long pushIntervalMillis) {
+        this.pushIntervalMillis = pushIntervalMillis;
+    }
+
+    /**
+     * @return number of board updates a watching client may fall behind by before they are
+     *         collapsed into one update of the whole board, and of replies before the server
+     *         stops reading its requests
+     */
+    public int getPushQueueCapacity() {
+        return pushQueueCapacity;
+    }
+
+    /**
+     * @param pushQueueCapacity number of board updates, and of replies, a watching client may
+     *                          fall behind by, requires pushQueueCapacity > 0
+     */
+    public void setPushQueueCapacity(int pushQueueCapacity) {
+        this.pushQueueCapacity = pushQueueCapacity;
+    }
+
+    /**
+     * @return most squares all the games clients create may have together
+     */
+    public long getMaxGameCells() {
+        return maxGameCells;
+    }
+
+    /**
+     * @param maxGameCells most squares all the games clients create may have together,
+     *                     requires maxGameCells >= 0
+     */
+    public void setMaxGameCells(long maxGameCells) {
+        this.maxGameCells = maxGameCells;
+    }
+
+    /**
+     * @return milliseconds a created game nobody is in is kept after its last request
+     */
+    public long getGameIdleMillis() {
+        return gameIdleMillis;
+    }
+
+    /**
+     * @param gameIdleMillis milliseconds a created game nobody is in is kept after its last request,
+     *                       requires gameIdleMillis > 0
+     */
+    public void setGameIdleMillis(long gameIdleMillis) {
+        this.gameIdleMillis = gameIdleMillis;
+    }
+
+    /**
+     * @return directory the default game is kept in across restarts, if any
+     */
+    public Optional<Path> getDataDir() {
+        return dataDir;
+    }
+
+    /**
+     * @param dataDir directory to keep the default game in across restarts
+     */
+    public void setDataDir(Path dataDir) {
+        this.dataDir = Optional.of(dataDir);
+    }
+
+    /**
+     * @return milliseconds between commits of the logged moves to disk; a crash loses about
+     *         the moves of the last interval
+     */
+    public long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    /**
+     * @param commitIntervalMillis milliseconds between commits of the logged moves,
+     *                             requires commitIntervalMillis > 0
+     */
+    public void setCommitIntervalMillis(long commitIntervalMillis) {
+        this.commitIntervalMillis = commitIntervalMillis;
+    }
+
+    /**
+     * @return milliseconds between snapshots of the kept game, each of which truncates the log
+     */
+    public long getSnapshotIntervalMillis() {
+        return snapshotIntervalMillis;
+    }
+
+    /**
+     * @param snapshotIntervalMillis milliseconds between snapshots of the kept game,
+     *                               requires snapshotIntervalMillis > 0
+     */
+    public void setSnapshotIntervalMillis(long snapshotIntervalMillis) {
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    /**
+     * @return file the server's events are appended to, if any; otherwise they go to standard output
+     */
+    public Optional<Path> getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * @param logFile file to append the server's events to
+     */
+    public void setLogFile(Path logFile) {
+        this.logFile = Optional.of(logFile);
+    }
+
+    /**
+     * @return most events that may wait to be written before further ones are dropped
+     */
+    public int getLogQueueCapacity() {
+        return logQueueCapacity;
+    }
+
+    /**
+     * @param logQueueCapacity most events that may wait to be written,
+     *                         requires 0 < logQueueCapacity <= 2^30
+     */
+    public void setLogQueueCapacity(int logQueueCapacity) {
+        this.logQueueCapacity = logQueueCapacity;
+    }
+
+    /**
+     * @return most squares of a board the server prints when it starts; a larger board is not printed
+     */
+    public long getPrintBoardCells() {
+        return printBoardCells;
+    }
+
+    /**
+     * @param printBoardCells most squares of a board the server prints when it starts,
+     *                        requires printBoardCells >= 0
+     */
+    public void setPrintBoardCells(long printBoardCells) {
+        this.printBoardCells = printBoardCells;
+    }
+
+    /**
+     * @return most clients connected at once; the thread engine serves at most as many as its
+     *         pool has threads
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections most clients connected at once, requires maxConnections > 0; each
+     *                       holds a file descriptor, so it should be below the open file limit
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return most clients connected at once from one address, or 0 for no limit
+     */
+    public int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+
+    /**
+     * @param maxConnectionsPerAddress most clients connected at once from one address, or 0 for
+     *                                 no limit, requires maxConnectionsPerAddress >= 0
+     */
+    public void setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+    }
+
+    /**
+     * @return requests per second a client may send over time, or 0 for no limit
+     */
+    public double getCommandRate() {
+        return commandRate;
+    }
+
+    /**
+     * @param commandRate requests per second a client may send over time, or 0 for no limit,
+     *                    requires commandRate >= 0
+     */
+    public void setCommandRate(double commandRate) {
+        this.commandRate = commandRate;
+    }
+
+    /**
+     * @return requests a client may send at once when it has sent none for a while
+     */
+    public int getCommandBurst() {
+        return commandBurst;
+    }
+
+    /**
+     * @param commandBurst requests a client may send at once, requires commandBurst >= 1
+     */
+    public void setCommandBurst(int commandBurst) {
+        this.commandBurst = commandBurst;
+    }
+
+    /**
+     * @return milliseconds a client turned away because the server is full is told to wait
+     *         before it tries again
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @param retryAfterMillis milliseconds a client turned away is told to wait,
+     *                         requires retryAfterMillis >= 0
+     */
+    public void setRetryAfterMillis(long retryAfterMillis) {
+        this.retryAfterMillis = retryAfterMillis;
+    }
+}
@@ -0,0 +1,148 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import minesweeper.BoardSnapshot;
+
+/**
+ * What the server remembers about one client connection between its requests.
+ * Confined to the thread serving the connection, except that the thread writing a watching
+ * client's subscription may read subscription.
+ */
+final class Session {
+
+    // Rep: delta is true once the client asked for the delta protocol; sent is then the snapshot
+    //      the client was last brought up to, or null if it has been sent nothing yet.
+    //      subscription is non-null once the client watches the board; from then on everything
+    //      sent to the client goes through it, and sent is unused.
+    //      binary is true once the client chose the binary protocol; it never watches the board
+    //      nor asks for deltas then. game is the game the client entered, or null if none, in
+    //      which case its requests go to the default game. local is true if the client
+    //      connected from this machine, which lets it ask for the server's stats. limiter is
+    //      the client's request rate limit, or null if it has none.
+
+    private final Runnable ready;
+    private boolean delta;
+    private boolean binary;
+    private BoardSnapshot sent;
+    private volatile Subscription subscription;
+    private Game game;
+    private boolean local;
+    private TokenBucket limiter;
+
+    /**
+     * Make the state of a new connection.
+     *
+     * @param ready called, from any thread, when the client's subscription has messages to write
+     */
+    Session(Runnable ready) {
+        this.ready = ready;
+    }
+
+    /**
+     * @return true if the client speaks the binary protocol rather than text
+     */
+    boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Switch this client to the binary protocol.
+     */
+    void startBinary() {
+        binary = true;
+    }
+
+    /**
+     * @return true if board replies to this client are deltas rather than whole boards
+     */
+    boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * Switch this client to the delta protocol; the next board reply carries every square.
+     */
+    void startDelta() {
+        delta = true;
+        sent = null;
+    }
+
+    /**
+     * @return snapshot the client was last brought up to, or null if none
+     */
+    BoardSnapshot getSent() {
+        return sent;
+    }
+
+    /**
+     * @param sent snapshot the client has just been brought up to
+     */
+    void setSent(BoardSnapshot sent) {
+        this.sent = sent;
+    }
+
+    /**
+     * @return the game the client entered, or null if it entered none
+     */
+    Game getGame() {
+        return game;
+    }
+
+    /**
+     * @param game the game the client entered, or null if it left its game
+     */
+    void setGame(Game game) {
+        this.game = game;
+    }
+
+    /**
+     * @return true if the client connected from this machine
+     */
+    boolean isLocal() {
+        return local;
+    }
+
+    /**
+     * @param local true if the client connected from this machine
+     */
+    void setLocal(boolean local) {
+        this.local = local;
+    }
+
+    /**
+     * @return the limit on the client's request rate, or null if it has none
+     */
+    TokenBucket getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * @param limiter the limit on the client's request rate
+     */
+    void setLimiter(TokenBucket limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * @return called when the client's subscription has messages to write
+     */
+    Runnable getReady() {
+        return ready;
+    }
+
+    /**
+     * @return the client's subscription to board changes, or null if it does not watch the board
+     */
+    Subscription getSubscription() {
+        return subscription;
+    }
+
+    /**
+     * @param subscription the client's subscription to board changes
+     */
+    void setSubscription(Subscription subscription) {
+        this.subscription = subscription;
+    }
+}
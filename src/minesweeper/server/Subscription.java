@@ -0,0 +1,271 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import minesweeper.BoardDelta;
+import minesweeper.BoardSnapshot;
+
+/**
+ * The bounded outbound queue of a client that watches the board. Everything the server sends the
+ * client goes through it in order: replies to its requests and board changes pushed by the
+ * Broadcaster. Board updates are deltas; when a client falls more than capacity updates behind,
+ * they are all replaced by one update of the whole board, in the place of the first of them.
+ * Replies cannot be dropped, so a thread that put()s one waits while capacity replies are queued,
+ * and stops reading requests from a client that does not read its replies. A slow client so
+ * costs bounded memory and never holds up anyone else.
+ */
+final class Subscription {
+
+    // Rep: queue holds messages not yet taken by the engine, in order; deltas is the number of
+    //      them that are board updates, 0 <= deltas <= capacity, and replies the number of the
+    //      others; put() keeps replies <= capacity. abandoned is true once the client could not
+    //      be written to; the queue is then empty and stays so. sent is the snapshot the client
+    //      will be up to once it has every update queued, or null before the first one.
+    //      closed is true once the client stopped watching; nothing is pushed after that.
+    //      source is the broadcaster whose board the client watches; pushes from others, which
+    //      may still be under way when the client moves to another game, are ignored.
+    // Thread safety argument:
+    //   every field but the finals is guarded by lock. ready is called without holding lock.
+    //   A thread waiting in put() is woken through space whenever a reply is taken or the
+    //   subscription is abandoned.
+
+    private static final class Message {
+        private final byte[] bytes;
+        private final boolean update;
+
+        private Message(byte[] bytes, boolean update) {
+            this.bytes = bytes;
+            this.update = update;
+        }
+    }
+
+    private final int capacity;
+    private final Runnable ready;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition space = lock.newCondition();
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private int deltas;
+    private int replies;
+    private boolean abandoned;
+    private BoardSnapshot sent;
+    private boolean closed;
+    private long resyncs;
+    private Broadcaster source;
+
+    /**
+     * Make an empty subscription.
+     *
+     * @param capacity number of board updates the client may fall behind by, and of replies
+     *                 put() queues for it, requires capacity > 0
+     * @param ready called, from any thread, whenever messages were added; the engine should then
+     *              take them with poll() and write them to the client
+     */
+    Subscription(int capacity, Runnable ready) {
+        this.capacity = capacity;
+        this.ready = ready;
+    }
+
+    /**
+     * Watch the board of source from now on; the next update carries the whole board.
+     */
+    void restart(Broadcaster source) {
+        lock.lock();
+        try {
+            this.source = source;
+            sent = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue an update bringing the client up to latest, even if it is already there, as the reply
+     * to one of its requests.
+     *
+     * @param latest latest snapshot of the board
+     */
+    void reply(BoardSnapshot latest) {
+        lock.lock();
+        try {
+            if (sent != null && sent.getVersion() > latest.getVersion()) {
+                // a push got the client further already
+                latest = sent;
+            }
+            update(BoardDelta.encode(sent, latest), latest);
+        } finally {
+            lock.unlock();
+        }
+        ready.run();
+    }
+
+    /**
+     * Queue an update bringing the client up to latest, unless it already is there.
+     *
+     * @param from broadcaster pushing the update; ignored unless it is the one the client watches
+     * @param base snapshot that shared is the delta from
+     * @param shared delta from base to latest, used if the client is up to base
+     * @param latest snapshot of the board
+     */
+    void push(Broadcaster from, BoardSnapshot base, byte[] shared, BoardSnapshot latest) {
+        lock.lock();
+        try {
+            if (closed || abandoned || from != source || (sent != null && sent.getVersion() >= latest.getVersion())) {
+                return;
+            }
+            update(sent == base ? shared : BoardDelta.encode(sent, latest), latest);
+        } finally {
+            lock.unlock();
+        }
+        ready.run();
+    }
+
+    private void update(byte[] delta, BoardSnapshot latest) {
+        if (abandoned) {
+            return;
+        }
+        sent = latest;
+        if (deltas < capacity) {
+            queue.add(new Message(delta, true));
+            deltas++;
+            return;
+        }
+        // too far behind: replace every queued update by the whole board, where the first of
+        // them was, so that it stays in order with the other messages
+        Message whole = new Message(BoardDelta.encode(null, latest), true);
+        ArrayDeque<Message> kept = new ArrayDeque<>(queue.size());
+        for (Message message : queue) {
+            if (!message.update) {
+                kept.add(message);
+            } else if (whole != null) {
+                kept.add(whole);
+                whole = null;
+            }
+        }
+        queue.clear();
+        queue.addAll(kept);
+        deltas = 1;
+        resyncs++;
+    }
+
+    /**
+     * Queue a message that is not a board update without waiting; it is never dropped. Only for
+     * an engine that stops reading from the client while its earlier output is not written, so
+     * that it adds at most the replies of one read.
+     *
+     * @param message bytes of the message, without line terminator
+     */
+    void add(byte[] message) {
+        lock.lock();
+        try {
+            if (abandoned) {
+                return;
+            }
+            queue.add(new Message(message, false));
+            replies++;
+        } finally {
+            lock.unlock();
+        }
+        ready.run();
+    }
+
+    /**
+     * Queue a message that is not a board update; it is never dropped. While capacity replies
+     * are queued, wait for the client to take one, or for the subscription to be abandoned, in
+     * which case the message is dropped.
+     *
+     * @param message bytes of the message, without line terminator
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    void put(byte[] message) throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (replies >= capacity && !abandoned) {
+                try {
+                    space.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for the client to read");
+                }
+            }
+            if (abandoned) {
+                return;
+            }
+            queue.add(new Message(message, false));
+            replies++;
+        } finally {
+            lock.unlock();
+        }
+        ready.run();
+    }
+
+    /**
+     * Take the next message to write to the client.
+     *
+     * @return bytes of the message, without line terminator, or null if there is none
+     */
+    byte[] poll() {
+        lock.lock();
+        try {
+            Message message = queue.poll();
+            if (message == null) {
+                return null;
+            }
+            if (message.update) {
+                deltas--;
+            } else {
+                replies--;
+                space.signal();
+            }
+            return message.bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop pushing board changes to this client; replies can still be queued.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Note that the client cannot be written to any more: drop every queued message and every
+     * message added from now on, and stop waiting in put().
+     */
+    void abandon() {
+        lock.lock();
+        try {
+            abandoned = true;
+            queue.clear();
+            deltas = 0;
+            replies = 0;
+            space.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of times the client fell too far behind and was sent the whole board
+     */
+    long getResyncs() {
+        lock.lock();
+        try {
+            return resyncs;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
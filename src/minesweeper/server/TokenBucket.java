@@ -0,0 +1,58 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+/**
+ * A token bucket that limits how fast one client's requests run: the bucket holds up to burst
+ * tokens, refills at rate tokens per second, and every request takes a token. A client may so
+ * send burst requests at once, but no more than rate per second over time.
+ */
+final class TokenBucket {
+
+    // Rep: 0 <= tokens <= burst, as of System.nanoTime() last.
+    // Thread safety argument: not thread-safe; a bucket belongs to one connection's Session,
+    //      which is confined to the thread serving the connection.
+
+    private final double perNano;
+    private final double burst;
+    private double tokens;
+    private long last;
+
+    /**
+     * Make a full bucket.
+     *
+     * @param rate tokens added per second, requires rate > 0
+     * @param burst most tokens held, requires burst >= 1
+     * @param now System.nanoTime() now
+     */
+    TokenBucket(double rate, int burst, long now) {
+        this.perNano = rate / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.last = now;
+    }
+
+    /**
+     * Take a token if there is one.
+     *
+     * @param now System.nanoTime() now, requires now at least the now of the last call
+     * @return true if a token was taken
+     */
+    boolean tryTake(long now) {
+        tokens = Math.min(burst, tokens + (now - last) * perNano);
+        last = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * @return milliseconds until the bucket has a token again, as of the last tryTake(..)
+     */
+    long millisUntilToken() {
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / perNano / 1e6);
+    }
+}
@@ -0,0 +1,233 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+/**
+ * Tests for board files: binary files load the board they were written from, with or without
+ * the cells section, text files parse with any line ending, and text files convert to binary
+ * ones.
+ */
+public class BoardFileTest {
+
+    private static void assertSameBoard(Board expected, Board actual) {
+        assertEquals(expected.getCols(), actual.getCols());
+        assertEquals(expected.getRows(), actual.getRows());
+        for (int y = 0; y < expected.getRows(); y++) {
+            for (int x = 0; x < expected.getCols(); x++) {
+                assertEquals(expected.isBombAt(x, y), actual.isBombAt(x, y));
+                assertEquals(expected.getCount(x, y), actual.getCount(x, y));
+            }
+        }
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path file = Files.createTempFile("board", ".bin");
+        try {
+            // not a multiple of 8 squares
+            Board board = new Board(37, 13, 0.3);
+            board.setBombs(6005);
+            BoardFile.write(board, file, false);
+            assertTrue(BoardFile.isBinary(file));
+            assertEquals(BoardFile.HEADER_BYTES + (37 * 13 + 7) / 8, Files.size(file));
+            assertSameBoard(board, BoardFile.map(file));
+
+            // the cells section keeps the squares players changed
+            board.setFlag(3, 4);
+            board.dig(20, 10);
+            BoardFile.write(board, file, true);
+            Board loaded = BoardFile.map(file);
+            assertSameBoard(board, loaded);
+            assertTrue(loaded.flagged(3, 4));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testConvertText() throws IOException, URISyntaxException {
+        URL url = ClassLoader.getSystemClassLoader().getResource("minesweeper/boards/board_file_5");
+        File text = new File(url.toURI());
+        Path file = Files.createTempFile("board", ".bin");
+        try {
+            BoardFile.main(new String[] { text.getPath(), file.toString() });
+            Board board = BoardFile.map(file);
+            assertSameBoard(BoardFile.parseText(text), board);
+            assertTrue(board.isBombAt(4, 1));
+            assertTrue(board.isBombAt(0, 6));
+            assertTrue(!BoardFile.isBinary(text.toPath()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedFile() throws IOException {
+        Path file = Files.createTempFile("board", ".bin");
+        try {
+            Board board = new Board(100, 100);
+            board.setBombs(1);
+            BoardFile.write(board, file, true);
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(raf.length() - 1);
+            }
+            BoardFile.map(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testCorruptCells() throws IOException {
+        Path file = Files.createTempFile("board", ".bin");
+        try {
+            boolean[][] bombs = new boolean[10][10];
+            bombs[2][3] = true;
+            Board board = new Board(10, 10);
+            board.setBombs(bombs);
+            BoardFile.write(board, file, true);
+            long cells = BoardFile.HEADER_BYTES + (10 * 10 + 7) / 8;
+
+            // counts that do not match the bombs are recomputed
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.seek(cells);
+                raf.write(9);
+                raf.seek(cells + 2 * 10 + 3);
+                raf.write(0x10);
+            }
+            Board loaded = BoardFile.map(file);
+            assertSameBoard(board, loaded);
+            assertEquals(0, loaded.getCount(0, 0));
+            assertEquals(1, loaded.getCount(3, 2));
+
+            // a square with state bits 3 is rejected rather than failing later
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.seek(cells + 5 * 10 + 7);
+                raf.write(0x60);
+            }
+            try {
+                BoardFile.map(file);
+                fail("expected IOException");
+            } catch (IOException ioe) {
+                assertTrue(ioe.getMessage(), ioe.getMessage().startsWith("invalid square 7,5"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * A channel that hands out text a few bytes at a time, so that lines and NEWLINEs are split
+     * across reads.
+     */
+    private static ReadableByteChannel trickle(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        return new ReadableByteChannel() {
+            private int position;
+
+            @Override
+            public int read(ByteBuffer dst) {
+                if (position == bytes.length) {
+                    return -1;
+                }
+                int n = Math.min(Math.min(1 + position % 7, dst.remaining()), bytes.length - position);
+                dst.put(bytes, position, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static Board parse(String text) throws IOException {
+        return BoardFile.parseText(trickle(text));
+    }
+
+    @Test
+    public void testParseLineEndings() throws IOException {
+        Board expected = new Board(3, 2);
+        expected.setBombs(new boolean[][] { { false, true, false }, { true, false, false } });
+        for (String newline : new String[] { "\n", "\r", "\r\n" }) {
+            String text = "3 2" + newline + "0 1 0" + newline + "1 0 0";
+            assertSameBoard(expected, parse(text + newline));
+            // the last NEWLINE may be left out
+            assertSameBoard(expected, parse(text));
+        }
+    }
+
+    @Test
+    public void testParseBigBoard() throws IOException {
+        Board board = new Board(301, 250, 0.3);
+        board.setBombs(6005);
+        StringBuilder text = new StringBuilder("301 250\r\n");
+        for (int y = 0; y < 250; y++) {
+            for (int x = 0; x < 301; x++) {
+                text.append(board.isBombAt(x, y) ? '1' : '0').append(x < 300 ? " " : "\r\n");
+            }
+        }
+        assertSameBoard(board, parse(text.toString()));
+        assertSameBoard(board, BoardFile.parseText(Channels.newChannel(
+                new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.US_ASCII)))));
+    }
+
+    @Test
+    public void testParseErrors() throws IOException {
+        String[][] cases = {
+            { "", "File is empty" },
+            { "2 x\n0 0\n", "Invalid number format: For input string: \"x\"" },
+            { "2\n0 0\n", "Invalid dimensions" },
+            { "2 1 1\n0 0\n", "Invalid dimensions" },
+            { "0 1\n\n", "Invalid dimensions" },
+            { "2 2\n0 0\n", "Invalid board file" },
+            { "2 1\n0 0 0\n", "Invalid board file" },
+            { "2 1\n0\n", "Invalid board file" },
+            { "2 1\n0 2\n", "Invalid board file" },
+            { "2 1\n0  0\n", "Invalid board file" },
+            { "2 1\n0 0\n\n", "Invalid board file" },
+            { "2 1\n0 0\n0 0\n", "Invalid board file" },
+            // a byte 0xFF is a character like any other, not the end of the file
+            { "2 1\u00ff\n0 0\n", "Invalid number format: For input string: \"1\u00ff\"" },
+            { "2 1\n0 0\u00ff", "Invalid board file" },
+            { "2 1\n0 0\n\u00ff", "Invalid board file" },
+            // however long the first line is
+            { "2 " + "1".repeat(40) + "\n0 0\n", "Invalid number format: For input string: \"" + "1".repeat(40) + "\"" },
+        };
+        for (String[] c : cases) {
+            try {
+                parse(c[0]);
+                fail("expected an error for " + c[0]);
+            } catch (RuntimeException e) {
+                assertEquals(c[0], c[1], e.getMessage());
+            }
+        }
+    }
+}
@@ -2,9 +2,17 @@ package minesweeper;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class BoardTest {
@@ -41,6 +49,320 @@ public class BoardTest {
         }
     }
 
+    @Test
+    public void testPackedSquareState() {
+        Board board = new Board(3, 2);
+        boolean[][] mines = {
+                {true, false, false},
+                {false, false, true}
+        };
+        board.setBombs(mines);
+        assertTrue(board.isBombAt(0, 0));
+        assertTrue(board.isBombAt(2, 1));
+        assertFalse(board.isBombAt(1, 0));
+        assertEquals(2, getSquareCount(board, 1, 0));
+        assertEquals(1, getSquareCount(board, 0, 1));
+
+        board.setFlag(1, 0);
+        assertTrue(board.flagged(1, 0));
+        assertFalse(board.touched(1, 0));
+        assertTrue(board.isBombAt(0, 0));
+        board.removeFlag(1, 0);
+        assertEquals(Board.SquareState.UNTOUCHED, getSquareState(board, 1, 0));
+
+        board.dig(1, 1);
+        assertTrue(board.touched(1, 1));
+        assertEquals(2, board.getCount(1, 1));
+        assertEquals("- - -\r\n- 2 -", board.toString());
+    }
+
+    @Test
+    public void testDigRevealCount() {
+        Board board = new Board(4, 4);
+        boolean[][] mines = new boolean[4][4];
+        mines[3][3] = true;
+        board.setBombs(mines);
+        assertEquals(1, board.dig(2, 2));
+        assertEquals(0, board.dig(2, 2));
+        assertEquals(0, board.dig(-1, 0));
+        assertEquals(14, board.dig(0, 0));
+        assertFalse(board.touched(3, 3));
+    }
+
+    @Test
+    public void testDigBombCascades() {
+        Board board = new Board(3, 3);
+        boolean[][] mines = new boolean[3][3];
+        mines[1][1] = true;
+        board.setBombs(mines);
+        assertEquals(9, board.dig(1, 1));
+        assertFalse(board.isBombAt(1, 1));
+        assertEquals("     \r\n     \r\n     ", board.toString());
+    }
+
+    @Test(timeout = 10000)
+    public void testDigLargeEmptyBoardWithoutRecursion() {
+        Board board = new Board(4000, 4000);
+        board.setBombs(new boolean[4000][4000]);
+        assertEquals(4000 * 4000, board.dig(1234, 2345));
+        assertTrue(board.touched(0, 0));
+        assertTrue(board.touched(3999, 3999));
+    }
+
+    @Test
+    public void testBulkCountsMatchNeighborhoods() {
+        Random random = new Random(6005);
+        int cols = 37;
+        int rows = 23;
+        boolean[][] mines = new boolean[rows][cols];
+        for (boolean[] row : mines) {
+            for (int j = 0; j < cols; j++) {
+                row[j] = random.nextInt(3) == 0;
+            }
+        }
+        Board board = new Board(cols, rows);
+        board.setBombs(mines);
+        assertCountsMatchBombs(board);
+    }
+
+    @Test
+    public void testIncrementalCounts() {
+        Board board = new Board(5, 4);
+        board.setBombs(new boolean[4][5]);
+        board.placeBomb(0, 0);
+        board.placeBomb(1, 1);
+        board.placeBomb(4, 3);
+        board.placeBomb(4, 3);
+        assertEquals(2, getSquareCount(board, 0, 1));
+        assertEquals(1, getSquareCount(board, 3, 2));
+        assertCountsMatchBombs(board);
+        board.removeBomb(1, 1);
+        board.removeBomb(1, 1);
+        board.removeBomb(2, 2);
+        assertEquals(1, getSquareCount(board, 0, 1));
+        assertCountsMatchBombs(board);
+    }
+
+    @Test
+    public void testSetBombsDensity() {
+        Board board = new Board(40, 25, 0.1);
+        board.setBombs();
+        assertEquals(100, countBombs(board));
+        assertCountsMatchBombs(board);
+
+        Board full = new Board(7, 3, 1.0);
+        full.setBombs();
+        assertEquals(21, countBombs(full));
+    }
+
+    @Test
+    public void testSetBombsSeedIsReproducible() {
+        Board first = new Board(50, 30, 0.4);
+        first.setBombs(6005L);
+        Board second = new Board(50, 30, 0.4);
+        second.setBombs(6005L);
+        second.setBombs(6005L);
+        assertEquals(600, countBombs(second));
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 50; x++) {
+                assertEquals(first.isBombAt(x, y), second.isBombAt(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSetBombs() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Board board = new Board(45, 150, 0.3);
+            board.setBombs(pool);
+            assertEquals(2025, countBombs(board));
+            assertCountsMatchBombs(board);
+
+            Board first = new Board(45, 150, 0.3);
+            first.setBombs(6005L, pool);
+            Board second = new Board(45, 150, 0.3);
+            second.setBombs(6005L, ForkJoinPool.commonPool());
+            assertEquals(first.toString(), second.toString());
+            for (int y = 0; y < 150; y++) {
+                for (int x = 0; x < 45; x++) {
+                    assertEquals(first.isBombAt(x, y), second.isBombAt(x, y));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSnapshotsAreImmutableVersions() {
+        Board board = new Board(100, 70);
+        boolean[][] mines = new boolean[70][100];
+        mines[3][3] = true;
+        mines[69][99] = true;
+        board.setBombs(mines);
+        board.enableSnapshots();
+        BoardSnapshot before = board.snapshot();
+        assertEquals(board.toString(), before.toString());
+
+        board.dig(0, 69);
+        board.setFlag(99, 69);
+        BoardSnapshot after = board.snapshot();
+        assertTrue(after.getVersion() > before.getVersion());
+        assertEquals(board.toString(), after.toString());
+        assertTrue(after.flagged(99, 69));
+        assertTrue(after.touched(0, 0));
+        assertFalse(before.flagged(99, 69));
+        assertFalse(before.touched(0, 0));
+
+        board.dig(3, 3);
+        assertEquals(board.toString(), board.snapshot().toString());
+        board.dig(3, 3);
+        board.setFlag(99, 69);
+        assertSame(board.snapshot(), board.snapshot());
+    }
+
+    @Test
+    public void testRenderPatchesChangedTiles() {
+        Board board = new Board(150, 70, 0.1);
+        board.setBombs(6005L);
+        board.enableSnapshots();
+        BoardRender render = new BoardRender(board);
+        byte[] first = render.render();
+        assertEquals(board.toString(), new String(first, StandardCharsets.US_ASCII));
+        assertSame(first, render.render());
+
+        Random random = new Random(6005);
+        for (int i = 0; i < 200; i++) {
+            int x = random.nextInt(150);
+            int y = random.nextInt(70);
+            if (random.nextBoolean()) {
+                board.setFlag(x, y);
+            } else if (!board.flagged(x, y)) {
+                board.dig(x, y);
+            }
+            assertEquals(board.toString(), new String(render.render(), StandardCharsets.US_ASCII));
+        }
+        // earlier renderings are never patched in place
+        assertEquals(board.toString().length(), first.length);
+        assertFalse(board.toString().equals(new String(first, StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testDeltaCarriesOnlyChangedSquares() {
+        Board board = new Board(150, 70, 0.1);
+        board.setBombs(6005L);
+        board.enableSnapshots();
+        BoardSnapshot first = board.snapshot();
+        char[][] view = new char[70][150];
+        BoardDelta.decode(new String(BoardDelta.encode(null, first), StandardCharsets.US_ASCII), 150,
+                (x, y, symbol) -> view[y][x] = symbol);
+        assertEquals(board.toString(), render(view));
+
+        BoardSnapshot previous = first;
+        Random random = new Random(6005);
+        for (int i = 0; i < 100; i++) {
+            int x = random.nextInt(150);
+            int y = random.nextInt(70);
+            if (random.nextBoolean()) {
+                board.setFlag(x, y);
+            } else if (!board.flagged(x, y)) {
+                board.dig(x, y);
+            }
+            BoardSnapshot next = board.snapshot();
+            String delta = new String(BoardDelta.encode(previous, next), StandardCharsets.US_ASCII);
+            long version = BoardDelta.decode(delta, 150, (sx, sy, symbol) -> view[sy][sx] = symbol);
+            assertEquals(next.getVersion(), version);
+            assertEquals(board.toString(), render(view));
+            previous = next;
+        }
+
+    }
+
+    @Test
+    public void testDeltaRuns() {
+        Board board = new Board(20, 3);
+        board.setBombs(new boolean[3][20]);
+        board.enableSnapshots();
+        BoardSnapshot before = board.snapshot();
+        assertEquals("delta " + before.getVersion(),
+                new String(BoardDelta.encode(before, before), StandardCharsets.US_ASCII));
+
+        board.setFlag(19, 0);
+        board.setFlag(0, 1);
+        board.setFlag(8, 1);
+        board.setFlag(10, 1);
+        board.setFlag(5, 2);
+        BoardSnapshot after = board.snapshot();
+        // a run goes on into the next row, and close changes share a run
+        assertEquals("delta " + after.getVersion() + " 19,0:FF 8,1:F-F 5,2:F",
+                new String(BoardDelta.encode(before, after), StandardCharsets.US_ASCII));
+        board.removeFlag(5, 2);
+        board.setFlag(19, 1);
+        assertEquals("delta " + board.snapshot().getVersion() + " 19,1:F 5,2:-",
+                new String(BoardDelta.encode(after, board.snapshot()), StandardCharsets.US_ASCII));
+    }
+
+    private static String render(char[][] view) {
+        StringBuilder sb = new StringBuilder();
+        for (int y = 0; y < view.length; y++) {
+            if (y > 0) {
+                sb.append("\r\n");
+            }
+            for (int x = 0; x < view[y].length; x++) {
+                if (x > 0) {
+                    sb.append(' ');
+                }
+                sb.append(view[y][x]);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testPrintBoard() {
+        Board board = new Board(4, 3);
+        board.setBombs(new boolean[][] {
+            { true, false, false, false },
+            { false, false, false, false },
+            { false, false, false, true },
+        });
+        board.dig(1, 0);
+        board.setFlag(0, 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Board.printBoard(board, new PrintStream(bytes, false));
+        assertEquals("-1--\nF---\n----\n", new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+
+        // rows longer than the print buffer
+        Board wide = new Board(70000, 2, 0);
+        bytes.reset();
+        Board.printBoard(wide, new PrintStream(bytes, false));
+        String printed = new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+        assertEquals(2 * 70001, printed.length());
+        assertEquals('\n', printed.charAt(70000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDensity() {
+        new Board(10, 10, 1.5);
+    }
+
+    private void assertCountsMatchBombs(Board board) {
+        for (int y = 0; y < board.getRows(); y++) {
+            for (int x = 0; x < board.getCols(); x++) {
+                int expected = 0;
+                for (int j = Math.max(y - 1, 0); j <= Math.min(y + 1, board.getRows() - 1); j++) {
+                    for (int i = Math.max(x - 1, 0); i <= Math.min(x + 1, board.getCols() - 1); i++) {
+                        if (board.isBombAt(i, j)) {
+                            expected++;
+                        }
+                    }
+                }
+                assertEquals("count at " + x + "," + y, expected, getSquareCount(board, x, y));
+            }
+        }
+    }
+
     // Helper methods using reflection to access private members
     private int getBombCount(Board board) {
         try {
@@ -54,69 +376,39 @@ public class BoardTest {
     }
 
     private int countBombs(Board board) {
-        try {
-            Field boardField = Board.class.getDeclaredField("board");
-            boardField.setAccessible(true);
-            Object[][] squares = (Object[][]) boardField.get(board);
-
-            int count = 0;
-            for (Object[] row : squares) {
-                for (Object square : row) {
-                    Field hasBombField = square.getClass().getDeclaredField("hasBomb");
-                    hasBombField.setAccessible(true);
-                    if ((boolean) hasBombField.get(square)) {
-                        count++;
-                    }
-                }
+        byte[] cells = getCells(board);
+        int count = 0;
+        for (byte cell : cells) {
+            if ((cell & Board.BOMB) != 0) {
+                count++;
             }
-            return count;
-        } catch (Exception e) {
-            fail("Could not count bombs");
-            return -1;
         }
+        return count;
     }
 
     private Board.SquareState getSquareState(Board board, int x, int y) {
-        try {
-            Field boardField = Board.class.getDeclaredField("board");
-            boardField.setAccessible(true);
-            Object[][] squares = (Object[][]) boardField.get(board);
-
-            Field stateField = squares[y][x].getClass().getDeclaredField("state");
-            stateField.setAccessible(true);
-            return (Board.SquareState) stateField.get(squares[y][x]);
-        } catch (Exception e) {
-            fail("Could not get square state");
-            return null;
-        }
+        byte cell = getCells(board)[y * board.getCols() + x];
+        return Board.SquareState.values()[(cell & Board.STATE_MASK) >> Board.STATE_SHIFT];
     }
 
     private void setSquareBomb(Board board, int x, int y, boolean hasBomb) {
-        try {
-            Field boardField = Board.class.getDeclaredField("board");
-            boardField.setAccessible(true);
-            Object[][] squares = (Object[][]) boardField.get(board);
-
-            Field hasBombField = squares[y][x].getClass().getDeclaredField("hasBomb");
-            hasBombField.setAccessible(true);
-            hasBombField.set(squares[y][x], hasBomb);
-        } catch (Exception e) {
-            fail("Could not set bomb");
-        }
+        byte[] cells = getCells(board);
+        int idx = y * board.getCols() + x;
+        cells[idx] = (byte) (hasBomb ? cells[idx] | Board.BOMB : cells[idx] & ~Board.BOMB);
     }
 
     private int getSquareCount(Board board, int x, int y) {
-        try {
-            Field boardField = Board.class.getDeclaredField("board");
-            boardField.setAccessible(true);
-            Object[][] squares = (Object[][]) boardField.get(board);
+        return getCells(board)[y * board.getCols() + x] & Board.COUNT_MASK;
+    }
 
-            Field countField = squares[y][x].getClass().getDeclaredField("countNums");
-            countField.setAccessible(true);
-            return countField.getInt(squares[y][x]);
+    private byte[] getCells(Board board) {
+        try {
+            Field cellsField = Board.class.getDeclaredField("cells");
+            cellsField.setAccessible(true);
+            return (byte[]) cellsField.get(board);
         } catch (Exception e) {
-            fail("Could not get square count");
-            return -1;
+            fail("Could not access cells field");
+            return null;
         }
     }
 }
\ No newline at end of file
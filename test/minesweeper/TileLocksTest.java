@@ -0,0 +1,171 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests for TileLocks, including a stress test of many players on disjoint parts of a board.
+ */
+public class TileLocksTest {
+
+    private static final int TILE = TileLocks.TILE_SIZE;
+
+    @Test(timeout = 10000)
+    public void testCascadeDefersBusyLowerTile() throws InterruptedException {
+        Board board = new Board(2 * TILE, TILE);
+        board.setBombs(new boolean[TILE][2 * TILE]);
+        TileLocks locks = new TileLocks(board);
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            TileLocks.Hold hold = locks.lockSquare(0, 0);
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                hold.unlock();
+            }
+        });
+        other.start();
+        locked.await();
+
+        TileLocks.Hold hold = locks.lockBlock(TILE + 10, 10);
+        int revealed;
+        try {
+            revealed = hold.dig(TILE + 10, 10);
+        } finally {
+            hold.unlock();
+        }
+        assertEquals(TILE * TILE, revealed);
+        assertFalse(board.touched(0, 0));
+
+        release.countDown();
+        other.join();
+        assertEquals(TILE * TILE, hold.finishCascade());
+        assertTrue(board.touched(0, 0));
+    }
+
+    @Test(timeout = 60000)
+    public void testDisjointPlayersStress() throws InterruptedException {
+        int players = 8;
+        int spectators = 4;
+        Board board = new Board(players * TILE, 4 * TILE, 0.1);
+        board.setBombs(6005L);
+        board.enableSnapshots();
+        TileLocks locks = new TileLocks(board);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < players; p++) {
+            int player = p;
+            threads.add(new Thread(() -> play(board, locks, player)));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean versionsIncrease = new AtomicBoolean(true);
+        List<Thread> lookers = new ArrayList<>();
+        for (int s = 0; s < spectators; s++) {
+            lookers.add(new Thread(() -> {
+                long version = -1;
+                while (!done.get()) {
+                    BoardSnapshot snapshot = board.snapshot();
+                    snapshot.toString();
+                    if (snapshot.getVersion() < version) {
+                        versionsIncrease.set(false);
+                    }
+                    version = snapshot.getVersion();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        lookers.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        for (Thread thread : lookers) {
+            thread.join();
+        }
+        assertTrue(versionsIncrease.get());
+        assertEquals(board.toString(), board.snapshot().toString());
+
+        // every square dug, so every bomb detonated and every count back to 0
+        for (int y = 0; y < board.getRows(); y++) {
+            for (int x = 0; x < board.getCols(); x++) {
+                assertTrue(board.touched(x, y));
+                assertFalse(board.isBombAt(x, y));
+                assertEquals(0, board.getCount(x, y));
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSnapshotDoesNotWaitForWriters() throws InterruptedException {
+        Board board = new Board(3 * TILE, 2 * TILE);
+        board.setBombs(6005L);
+        board.enableSnapshots();
+        TileLocks locks = new TileLocks(board);
+        String expected = board.toString();
+
+        TileLocks.Hold hold = locks.lockAll();
+        try {
+            AtomicReference<String> seen = new AtomicReference<>();
+            Thread spectator = new Thread(() -> seen.set(board.snapshot().toString()));
+            spectator.start();
+            spectator.join();
+            assertEquals(expected, seen.get());
+        } finally {
+            hold.unlock();
+        }
+    }
+
+    /**
+     * Flag, deflag and dig every square of column band player, in random order.
+     */
+    private static void play(Board board, TileLocks locks, int player) {
+        Random random = new Random(player);
+        int size = TILE * board.getRows();
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        for (int square : order) {
+            int x = player * TILE + square % TILE;
+            int y = square / TILE;
+            TileLocks.Hold hold = locks.lockSquare(x, y);
+            try {
+                board.setFlag(x, y);
+                board.removeFlag(x, y);
+            } finally {
+                hold.unlock();
+            }
+            hold = locks.lockBlock(x, y);
+            try {
+                hold.dig(x, y);
+            } finally {
+                hold.unlock();
+            }
+            hold.finishCascade();
+        }
+    }
+}
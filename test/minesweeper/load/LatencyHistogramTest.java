@@ -0,0 +1,104 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for LatencyHistogram: percentiles are exact to bucket precision over the whole range,
+ * coordinated-omission correction adds the requests a stalled client missed, and histograms add
+ * up.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99), 0);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int v = 1; v <= 100; v++) {
+            histogram.record(v);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void testPrecision() {
+        // every value from 1 ns to the largest, each in a histogram of its own
+        for (long v = 1; v <= LatencyHistogram.MAX_VALUE; v = v * 3 / 2 + 1) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(v);
+            histogram.record(v + 1);
+            long p = histogram.getValueAtPercentile(50);
+            assertTrue(v + ": " + p, p >= v && p <= v + 1 + v / 128);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testPercentilesOfMillis() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(1_000_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(500_000_000);
+        }
+        assertEquals(1_000_000, histogram.getValueAtPercentile(50), 1_000_000 / 128);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(99), 1_000_000 / 128);
+        assertEquals(500_000_000, histogram.getValueAtPercentile(99.9), 500_000_000 / 128);
+        assertEquals(500_000_000, histogram.getMax());
+    }
+
+    @Test
+    public void testCorrectedRecording() {
+        // a client meant to send every 10 ms stalls for 100 ms: the 9 requests it did not send
+        // would have waited 90, 80, ..., 10 ms
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordCorrected(100, 10);
+        assertEquals(10, histogram.getCount());
+        assertEquals(550, histogram.getMean() * 10, 1e-9);
+        assertEquals(10, histogram.getValueAtPercentile(0));
+
+        // requests faster than the interval are recorded alone
+        LatencyHistogram fast = new LatencyHistogram();
+        fast.recordCorrected(5, 10);
+        fast.recordCorrected(100, 0);
+        assertEquals(2, fast.getCount());
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        for (int v = 1; v <= 50; v++) {
+            a.record(v);
+            b.record(v + 50);
+        }
+        a.add(b);
+        assertEquals(100, a.getCount());
+        assertEquals(100, a.getMax());
+        assertEquals(50, a.getValueAtPercentile(50));
+        assertEquals(90, a.getValueAtPercentile(90));
+        assertEquals(50, b.getCount());
+    }
+}
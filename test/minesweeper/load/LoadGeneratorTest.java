@@ -0,0 +1,115 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+import minesweeper.server.Fixtures;
+import minesweeper.server.MinesweeperServer;
+import minesweeper.server.ServerOptions;
+
+/**
+ * Tests for LoadGenerator: short closed-loop and open-loop runs against a server in this process
+ * answer every request, count the digs that hit a bomb, and record each open-loop request once.
+ */
+public class LoadGeneratorTest {
+
+    /**
+     * Start a server on a free port with a 20x20 board, serving until the tests end.
+     *
+     * @return its port
+     */
+    private static int startServer(boolean debug) throws IOException {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        ServerOptions options = new ServerOptions();
+        options.setStripedLocking(true);
+        MinesweeperServer server = new MinesweeperServer(port, debug, options);
+        Board board = new Board(20, 20, 0.1);
+        board.setBombs(6005L);
+        server.setBoard(board);
+        Fixtures.serve(server);
+        return port;
+    }
+
+    private static LoadGenerator load(int port) {
+        LoadGenerator load = new LoadGenerator();
+        load.setPort(port);
+        load.setClients(4);
+        load.setWarmupMillis(200);
+        load.setDurationMillis(500);
+        return load;
+    }
+
+    @Test(timeout = 30000)
+    public void testClosedLoop() throws Exception {
+        LoadGenerator load = load(startServer(true));
+        load.setThinkMillis(1);
+        LoadGenerator.Report report = load.run();
+        assertEquals(0, report.getErrors());
+        assertTrue(report.getLatencies().getCount() > 0);
+        assertTrue(report.getLatencies(LoadGenerator.Verb.DIG).getCount() > 0);
+        assertEquals(0, report.getLatencies(LoadGenerator.Verb.DEFLAG).getCount());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.toString().contains("p99.9"));
+    }
+
+    @Test(timeout = 30000)
+    public void testOpenLoopReconnectsAfterBoom() throws Exception {
+        LoadGenerator load = load(startServer(false));
+        load.setRate(400);
+        load.setWeight(LoadGenerator.Verb.LOOK, 0);
+        load.setWeight(LoadGenerator.Verb.FLAG, 0);
+        LoadGenerator.Report report = load.run();
+        assertEquals(0, report.getErrors());
+        // about 200 digs at 40 bombs out of 400 squares
+        assertTrue(report.getBooms() > 0);
+        assertEquals(report.getLatencies().getCount(), report.getLatencies(LoadGenerator.Verb.DIG).getCount());
+        assertEquals(200, report.getLatencies().getCount(), 20);
+    }
+
+    @Test(timeout = 30000)
+    public void testOpenLoopRecordsEachRequestOnce() throws Exception {
+        try (ServerSocket slow = new ServerSocket(0)) {
+            // a server of a 1x1 board that takes 50 ms over every reply
+            Thread serving = new Thread(() -> {
+                try (Socket socket = slow.accept()) {
+                    BufferedReader in = Fixtures.reader(socket);
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    out.println("Welcome to Minesweeper. Board: 1 columns by 1 rows. Players: 1 including you.");
+                    while (in.readLine() != null) {
+                        Thread.sleep(50);
+                        out.println("-");
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // the run is over
+                }
+            });
+            serving.setDaemon(true);
+            serving.start();
+            LoadGenerator load = load(slow.getLocalPort());
+            load.setClients(1);
+            load.setWarmupMillis(0);
+            load.setDurationMillis(1000);
+            load.setRate(10);
+            // ignored in open-loop mode, where latency already counts from when a request was due
+            load.setThinkMillis(5);
+            LoadGenerator.Report report = load.run();
+            assertEquals(0, report.getErrors());
+            assertEquals(10, report.getLatencies().getCount(), 1);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for admission control and rate limits: limits on connections in total and per address,
+ * the token bucket, and a server refusing clients politely when it is full.
+ */
+public class AdmissionTest {
+
+    @Test
+    public void testLimits() throws IOException {
+        InetAddress first = InetAddress.getByName("10.0.0.1");
+        InetAddress second = InetAddress.getByName("10.0.0.2");
+        Admission admission = new Admission(3, 2);
+        assertNull(admission.admit(first));
+        assertNull(admission.admit(first));
+        assertEquals(Admission.Refusal.ADDRESS, admission.admit(first));
+        assertNull(admission.admit(second));
+        assertEquals(Admission.Refusal.FULL, admission.admit(second));
+        assertEquals(3, admission.getOpen());
+
+        admission.release(first);
+        assertEquals(2, admission.getOpen());
+        assertNull(admission.admit(first));
+        assertEquals(Admission.Refusal.FULL, admission.admit(first));
+
+        Admission unlimited = new Admission(2, 0);
+        assertNull(unlimited.admit(first));
+        assertNull(unlimited.admit(first));
+        assertEquals(Admission.Refusal.FULL, unlimited.admit(first));
+    }
+
+    @Test
+    public void testTokenBucket() {
+        TokenBucket bucket = new TokenBucket(10, 3, 0);
+        assertTrue(bucket.tryTake(0));
+        assertTrue(bucket.tryTake(0));
+        assertTrue(bucket.tryTake(0));
+        assertFalse(bucket.tryTake(0));
+        assertEquals(100, bucket.millisUntilToken());
+        // one token every 100 ms
+        assertFalse(bucket.tryTake(50_000_000));
+        assertEquals(50, bucket.millisUntilToken());
+        assertTrue(bucket.tryTake(100_000_000));
+        assertFalse(bucket.tryTake(100_000_000));
+        // never more than burst
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryTake(60_000_000_000L));
+        }
+        assertFalse(bucket.tryTake(60_000_000_000L));
+    }
+
+    @Test
+    public void testRequestsOverRateAreNotRun() throws IOException {
+        ServerOptions options = new ServerOptions();
+        options.setCommandRate(0.001);
+        options.setCommandBurst(2);
+        options.setRetryAfterMillis(1000);
+        MinesweeperServer server = new MinesweeperServer(0, true, options);
+        try {
+            server.setBoard(Fixtures.board(5, 5));
+            Session session = new Session(() -> { });
+            server.welcome(session);
+            Fixtures.request(server, session, "look");
+            Fixtures.request(server, session, "flag 0 0");
+            String limited = Fixtures.request(server, session, "dig 4 4");
+            assertTrue(limited, limited.startsWith("Too many requests, retry after "));
+            // the dig did not run, and a client over its limit may still leave
+            assertEquals(0, server.getMetrics().getCascade().getCount());
+            assertFalse(Fixtures.request(server, session, "bye").startsWith("Too many requests"));
+            assertEquals(1, server.getMetrics().getRateLimited());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testFloodOverRateNeverTakesLock() throws Exception {
+        for (ServerOptions.Engine engine : new ServerOptions.Engine[] { ServerOptions.Engine.THREADS, ServerOptions.Engine.NIO }) {
+            ServerOptions options = new ServerOptions();
+            options.setEngine(engine);
+            options.setCommandRate(0.001);
+            options.setCommandBurst(1);
+            MinesweeperServer server = new MinesweeperServer(0, true, options);
+            server.setBoard(Fixtures.board(5, 5));
+            Thread serving = Fixtures.serve(server);
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                BufferedReader in = Fixtures.reader(socket);
+                in.readLine(); // welcome
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                out.println("flag 0 0");
+                for (int y = 0; y < 5; y++) {
+                    in.readLine();
+                }
+                long held = server.getMetrics().getLockHold().getCount();
+                // every request a pipelined batch can hold, all over the limit
+                StringBuilder flood = new StringBuilder();
+                for (int i = 0; i < Batch.CAPACITY; i++) {
+                    flood.append("dig ").append(i % 5).append(" 4\n");
+                }
+                out.print(flood);
+                out.flush();
+                for (int i = 0; i < Batch.CAPACITY; i++) {
+                    String reply = in.readLine();
+                    assertTrue(engine.name() + " " + reply, reply.startsWith("Too many requests, retry after "));
+                }
+                assertEquals(engine.name(), held, server.getMetrics().getLockHold().getCount());
+                assertEquals(engine.name(), Batch.CAPACITY, server.getMetrics().getRateLimited());
+            } finally {
+                server.close();
+                serving.join(10000);
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testThreadEngineServesUpToItsLimit() throws Exception {
+        // the limit of the threads engine is its 32 threads
+        int limit = 32;
+        MinesweeperServer server = new MinesweeperServer(0, true);
+        server.setBoard(Fixtures.board(5, 5));
+        Thread serving = Fixtures.serve(server);
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < limit - 1; i++) {
+                Socket socket = new Socket("127.0.0.1", server.getPort());
+                sockets.add(socket);
+                assertTrue(Fixtures.reader(socket).readLine().startsWith("Welcome"));
+            }
+            // the last place is free again as soon as the client in it is gone, even if the
+            // thread that served it is still finishing
+            for (int i = 0; i < 50; i++) {
+                try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                    BufferedReader in = Fixtures.reader(socket);
+                    String welcome = in.readLine();
+                    assertTrue(welcome, welcome.startsWith("Welcome"));
+                    new PrintWriter(socket.getOutputStream(), true).println("bye");
+                    assertEquals("bye", in.readLine());
+                }
+                while (server.getMetrics().getActiveConnections() >= limit) {
+                    Thread.sleep(1);
+                }
+            }
+            assertEquals(0, server.getMetrics().getRefused());
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.close();
+            serving.join(10000);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testFullServerRefusesPolitely() throws Exception {
+        for (ServerOptions.Engine engine : new ServerOptions.Engine[] { ServerOptions.Engine.THREADS, ServerOptions.Engine.NIO }) {
+            ServerOptions options = new ServerOptions();
+            options.setEngine(engine);
+            options.setMaxConnections(2);
+            options.setRetryAfterMillis(1000);
+            MinesweeperServer server = new MinesweeperServer(0, true, options);
+            server.setBoard(Fixtures.board(5, 5));
+            Thread serving = Fixtures.serve(server);
+            List<Socket> sockets = new ArrayList<>();
+            try {
+                for (int i = 0; i < 2; i++) {
+                    Socket socket = new Socket("127.0.0.1", server.getPort());
+                    sockets.add(socket);
+                    assertTrue(engine.name(), Fixtures.reader(socket).readLine().startsWith("Welcome"));
+                }
+                try (Socket refused = new Socket("127.0.0.1", server.getPort())) {
+                    BufferedReader in = Fixtures.reader(refused);
+                    assertEquals(engine.name(), "Server full, retry after 1000 ms", in.readLine());
+                    assertNull(in.readLine());
+                }
+                assertEquals(1, server.getMetrics().getRefused());
+
+                // a client that leaves makes room for another
+                PrintWriter out = new PrintWriter(sockets.get(0).getOutputStream(), true);
+                out.println("bye");
+                sockets.remove(0).close();
+                String welcome = null;
+                for (long deadline = System.currentTimeMillis() + 10000; welcome == null
+                        && System.currentTimeMillis() < deadline; ) {
+                    try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                        String line = Fixtures.reader(socket).readLine();
+                        if (line.startsWith("Welcome")) {
+                            welcome = line;
+                        } else {
+                            Thread.sleep(10);
+                        }
+                    }
+                }
+                assertTrue(engine.name(), welcome != null);
+            } finally {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+                server.close();
+                serving.join(10000);
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import minesweeper.BinaryBoard;
+
+/**
+ * Tests that the text and binary protocols are two codecs of the same game: the same commands
+ * parse the same way, and the same game played in either protocol shows the same board.
+ */
+public class BinaryProtocolTest {
+
+    // 67 x 3 squares: two tiles wide, and an odd number of squares so the last byte is padded
+    private static final int COLS = 67;
+    private static final int ROWS = 3;
+    /** Columns and rows of the bombs, two of them either side of a tile boundary. */
+    private static final int[] BOMBS = { 5, 0, 64, 1, 66, 2 };
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static Command decode(byte[] frame) {
+        BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder();
+        Command command = new Command();
+        for (int i = 0; i < frame.length; i++) {
+            boolean done = decoder.accept(frame[i], command);
+            assertEquals("frame ends at its last byte", i == frame.length - 1, done);
+        }
+        return command;
+    }
+
+    /**
+     * Read one reply frame and turn it into what the text protocol would have sent.
+     */
+    private static String readFrame(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+        case BinaryProtocol.BOARD_FRAME:
+            readVarint(in); // version
+            int cols = (int) readVarint(in);
+            int rows = (int) readVarint(in);
+            byte[] squares = new byte[BinaryBoard.length(cols, rows)];
+            in.readFully(squares);
+            StringBuilder sb = new StringBuilder();
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < cols; x++) {
+                    if (x > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(BinaryBoard.symbol(BinaryBoard.square(squares, 0, (long) y * cols + x)));
+                }
+                if (y < rows - 1) {
+                    sb.append("\r\n");
+                }
+            }
+            return sb.toString();
+        case BinaryProtocol.BOOM_FRAME:
+            return "BOOM!";
+        case BinaryProtocol.BYE_FRAME:
+            return "bye";
+        case BinaryProtocol.TEXT_FRAME:
+            byte[] message = new byte[(int) readVarint(in)];
+            in.readFully(message);
+            return text(message);
+        default:
+            throw new AssertionError("unknown frame " + type);
+        }
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static String readFrame(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        String reply = readFrame(in);
+        assertEquals("whole frame read", 0, in.available());
+        return reply;
+    }
+
+    @Test
+    public void testCommandsParseTheSame() {
+        String[] lines = {
+            "look", "help", "bye", "dig 0 0", "flag 66 2", "deflag -1 7",
+            "dig 2147483647 -2147483648", "dig -64 64",
+        };
+        int[][] frames = {
+            {BinaryProtocol.LOOK, 0, 0}, {BinaryProtocol.HELP, 0, 0}, {BinaryProtocol.BYE, 0, 0},
+            {BinaryProtocol.DIG, 0, 0}, {BinaryProtocol.FLAG, 66, 2}, {BinaryProtocol.DEFLAG, -1, 7},
+            {BinaryProtocol.DIG, Integer.MAX_VALUE, Integer.MIN_VALUE}, {BinaryProtocol.DIG, -64, 64},
+        };
+        for (int i = 0; i < lines.length; i++) {
+            Command text = new Command().parse(lines[i]);
+            Command binary = decode(BinaryProtocol.command(frames[i][0], frames[i][1], frames[i][2]));
+            assertEquals(lines[i], text.type, binary.type);
+            if (text.type == Command.Type.DIG || text.type == Command.Type.FLAG
+                    || text.type == Command.Type.DEFLAG) {
+                assertEquals(lines[i], text.x, binary.x);
+                assertEquals(lines[i], text.y, binary.y);
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedFramesAreInvalid() {
+        assertEquals(Command.Type.INVALID, decode(new byte[] {0}).type);
+        assertEquals(Command.Type.INVALID, decode(new byte[] {(byte) 0xCD}).type);
+        // x does not fit in an int; the rest of the frame is still consumed
+        byte[] tooBig = {BinaryProtocol.DIG, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+            (byte) 0x80, 0x01, 0x00};
+        assertEquals(Command.Type.INVALID, decode(tooBig).type);
+        // the decoder starts afresh after an invalid frame
+        assertEquals(Command.Type.LOOK, decode(new byte[] {BinaryProtocol.LOOK}).type);
+    }
+
+    @Test
+    public void testSameGameSameBoard() throws IOException {
+        MinesweeperServer textServer = new MinesweeperServer(0, true);
+        MinesweeperServer binaryServer = new MinesweeperServer(0, true);
+        try {
+            textServer.setBoard(Fixtures.board(COLS, ROWS, BOMBS));
+            binaryServer.setBoard(Fixtures.board(COLS, ROWS, BOMBS));
+            Session textSession = new Session(() -> { });
+            Session binarySession = new Session(() -> { });
+            binarySession.startBinary();
+            String[] lines = {
+                "look", "flag 3 0", "dig 0 0", "dig 5 0", "dig 40 1", "deflag 3 0", "flag 64 1",
+                "dig 64 1", "dig 99 0", "help", "deflag 64 1", "dig 64 1", "dig 66 2", "bye",
+            };
+            for (String line : lines) {
+                Command command = new Command().parse(line);
+                byte[] textReply = textServer.handleRequest(command, textSession);
+                byte[] frame = binaryServer.handleRequest(command, binarySession);
+                assertEquals(line, text(textReply), readFrame(frame));
+                assertEquals(line, MinesweeperServer.endsConnection(textReply, false),
+                        MinesweeperServer.endsConnection(frame, false));
+            }
+            Command look = new Command().parse("look");
+            assertArrayEquals(textServer.handleRequest(look, textSession),
+                    readFrame(binaryServer.handleRequest(look, binarySession)).getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            textServer.close();
+            binaryServer.close();
+        }
+    }
+
+    @Test
+    public void testBoardFrameIsShared() throws IOException {
+        MinesweeperServer server = new MinesweeperServer(0, true);
+        try {
+            server.setBoard(Fixtures.board(COLS, ROWS, BOMBS));
+            Session first = new Session(() -> { });
+            Session second = new Session(() -> { });
+            first.startBinary();
+            second.startBinary();
+            Command look = new Command().parse("look");
+            assertSame(server.handleRequest(look, first), server.handleRequest(look, second));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testThreadEngineSpeaksBoth() throws Exception {
+        playBothProtocols(ServerOptions.Engine.THREADS);
+    }
+
+    @Test(timeout = 10000)
+    public void testNioEngineSpeaksBoth() throws Exception {
+        playBothProtocols(ServerOptions.Engine.NIO);
+    }
+
+    /**
+     * A binary and a text client play on one server at the same time and see each other's moves.
+     */
+    private static void playBothProtocols(ServerOptions.Engine engine) throws Exception {
+        ServerOptions options = new ServerOptions();
+        options.setEngine(engine);
+        MinesweeperServer server = new MinesweeperServer(0, true, options);
+        server.setBoard(Fixtures.board(COLS, ROWS, BOMBS));
+        Fixtures.serve(server);
+        try (Socket binary = new Socket("localhost", server.getPort());
+                Socket text = new Socket("localhost", server.getPort())) {
+            InputStream binaryIn = binary.getInputStream();
+            OutputStream binaryOut = binary.getOutputStream();
+            String welcome = readLine(binaryIn);
+            assertTrue(welcome, welcome.startsWith("Welcome to Minesweeper. Board: 67 columns by 3 rows."));
+            binaryOut.write(BinaryProtocol.MAGIC);
+            binaryOut.write(BinaryProtocol.command(BinaryProtocol.FLAG, 10, 2));
+            binaryOut.write(BinaryProtocol.command(BinaryProtocol.DIG, 0, 0));
+            binaryOut.flush();
+            DataInputStream frames = new DataInputStream(binaryIn);
+            String flagged = readFrame(frames);
+            String dug = readFrame(frames);
+            assertEquals('F', flagged.charAt(2 * (2 * COLS + 1) + 2 * 10));
+            assertEquals(' ', dug.charAt(0));
+
+            BufferedReader textIn = new BufferedReader(new InputStreamReader(text.getInputStream(),
+                    StandardCharsets.US_ASCII));
+            OutputStream textOut = text.getOutputStream();
+            assertTrue(textIn.readLine().startsWith("Welcome to Minesweeper."));
+            textOut.write("look\n".getBytes(StandardCharsets.US_ASCII));
+            textOut.flush();
+            StringBuilder board = new StringBuilder();
+            for (int y = 0; y < ROWS; y++) {
+                board.append(textIn.readLine());
+                if (y < ROWS - 1) {
+                    board.append("\r\n");
+                }
+            }
+            assertEquals(dug, board.toString());
+
+            binaryOut.write(BinaryProtocol.command(BinaryProtocol.BYE, 0, 0));
+            binaryOut.flush();
+            assertEquals("bye", readFrame(frames));
+            assertEquals(-1, binaryIn.read());
+        } finally {
+            server.close();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new IOException("connection closed");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,107 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests for Command parsing and CommandReader line framing.
+ */
+public class CommandTest {
+
+    @Test
+    public void testSimpleCommands() {
+        Command command = new Command();
+        assertEquals(Command.Type.LOOK, command.parse("look").type);
+        assertEquals(Command.Type.HELP, command.parse("help").type);
+        assertEquals(Command.Type.BYE, command.parse("bye").type);
+        assertEquals(Command.Type.DELTA, command.parse("delta").type);
+        assertEquals(Command.Type.WATCH, command.parse("watch").type);
+        assertEquals(Command.Type.STATS, command.parse("stats").type);
+        assertEquals(Command.Type.INVALID, command.parse("delta 1 2").type);
+    }
+
+    @Test
+    public void testCommandsWithCoordinates() {
+        Command command = new Command();
+        command.parse("dig 3 14");
+        assertEquals(Command.Type.DIG, command.type);
+        assertEquals(3, command.x);
+        assertEquals(14, command.y);
+
+        command.parse("flag -1 0");
+        assertEquals(Command.Type.FLAG, command.type);
+        assertEquals(-1, command.x);
+        assertEquals(0, command.y);
+
+        command.parse("deflag 0007 -2147483648");
+        assertEquals(Command.Type.DEFLAG, command.type);
+        assertEquals(7, command.x);
+        assertEquals(Integer.MIN_VALUE, command.y);
+    }
+
+    @Test
+    public void testGameCommands() {
+        Command command = new Command();
+        command.parse("new 30x16");
+        assertEquals(Command.Type.NEW, command.type);
+        assertEquals(30, command.x);
+        assertEquals(16, command.y);
+
+        command.parse("join 12");
+        assertEquals(Command.Type.JOIN, command.type);
+        assertEquals(12, command.x);
+
+        String[] malformed = {
+            "new", "new 30", "new 30 16", "new 30x", "new x16", "new 30x16x2", "join", "join 1 2",
+            "join 1x2", "dig 1x2", "join x",
+        };
+        for (String line : malformed) {
+            assertEquals("\"" + line + "\"", Command.Type.INVALID, command.parse(line).type);
+        }
+    }
+
+    @Test
+    public void testMalformedInputIsInvalid() {
+        Command command = new Command();
+        String[] malformed = {
+            "", " ", "LOOK", "look ", " look", "lookx", "bye bye", "dig", "dig 1", "dig 1 2 3",
+            "dig 1 2 ", "dig  1 2", "dig\t1 2", "dig - 2", "dig 1 -", "dig 1-2 3", "dig +1 2",
+            "dig 2147483648 0", "dig 0 -2147483649", "dig 99999999999999999999 1", "look 1 2",
+            "deflagg 1 2", "dug 1 2", "dig 1 2é", "dïg 1 2",
+        };
+        for (String line : malformed) {
+            assertEquals("\"" + line + "\"", Command.Type.INVALID, command.parse(line).type);
+        }
+    }
+
+    @Test
+    public void testReaderLineEndings() throws IOException {
+        byte[] input = "look\r\ndig 1 2\rflag 3 4\n\nhelp".getBytes(StandardCharsets.US_ASCII);
+        CommandReader reader = new CommandReader(new ByteArrayInputStream(input));
+        Command command = new Command();
+
+        assertTrue(reader.next(command));
+        assertEquals(Command.Type.LOOK, command.type);
+        assertTrue(reader.next(command));
+        assertEquals(Command.Type.DIG, command.type);
+        assertEquals(2, command.y);
+        assertTrue(reader.next(command));
+        assertEquals(Command.Type.FLAG, command.type);
+        assertEquals(3, command.x);
+        assertTrue(reader.next(command));
+        assertEquals(Command.Type.INVALID, command.type);
+        assertTrue(reader.next(command));
+        assertEquals(Command.Type.HELP, command.type);
+        assertFalse(reader.next(command));
+    }
+}
@@ -0,0 +1,122 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+import org.junit.Test;
+
+import minesweeper.BoardDelta;
+
+/**
+ * Tests that a client which switched to the delta protocol, playing over a socket, always knows
+ * the same board as a client that asks for the whole board.
+ */
+public class DeltaProtocolTest {
+
+    private static final int SIZE = 4;
+    /** Column and row of the one bomb. */
+    private static final int[] BOMBS = { 3, 3 };
+
+    @Test(timeout = 10000)
+    public void testThreadEngineSendsDeltas() throws Exception {
+        playDeltas(ServerOptions.Engine.THREADS);
+    }
+
+    @Test(timeout = 10000)
+    public void testNioEngineSendsDeltas() throws Exception {
+        playDeltas(ServerOptions.Engine.NIO);
+    }
+
+    /**
+     * A delta client plays a game while a text client on the same server looks after every move.
+     */
+    private static void playDeltas(ServerOptions.Engine engine) throws Exception {
+        ServerOptions options = new ServerOptions();
+        options.setEngine(engine);
+        MinesweeperServer server = new MinesweeperServer(0, false, options);
+        server.setBoard(Fixtures.board(SIZE, SIZE, BOMBS));
+        Thread serving = Fixtures.serve(server);
+        try (Socket delta = new Socket("localhost", server.getPort());
+                Socket text = new Socket("localhost", server.getPort())) {
+            BufferedReader deltaIn = Fixtures.reader(delta);
+            PrintWriter deltaOut = new PrintWriter(delta.getOutputStream(), true);
+            BufferedReader textIn = Fixtures.reader(text);
+            PrintWriter textOut = new PrintWriter(text.getOutputStream(), true);
+            assertTrue(engine.name(), deltaIn.readLine().startsWith("Welcome"));
+            assertTrue(engine.name(), textIn.readLine().startsWith("Welcome"));
+            char[][] view = new char[SIZE][SIZE];
+
+            // the first reply has every square
+            long version = checkNewer(-1, request(deltaOut, deltaIn, "delta"), view);
+            assertEquals(engine.name(), look(textIn, textOut), render(view));
+
+            String flagged = request(deltaOut, deltaIn, "flag 1 1");
+            assertTrue(flagged, flagged.matches("delta \\d+ 1,1:F"));
+            version = checkNewer(version, flagged, view);
+            assertEquals(engine.name(), look(textIn, textOut), render(view));
+
+            for (String move : new String[] { "deflag 1 1", "dig 0 0" }) {
+                version = checkNewer(version, request(deltaOut, deltaIn, move), view);
+                assertEquals(engine.name() + " " + move, look(textIn, textOut), render(view));
+            }
+
+            // nothing changed, so nothing but the version
+            assertEquals(engine.name(), "delta " + version, request(deltaOut, deltaIn, "look"));
+
+            deltaOut.println("dig 3 3");
+            assertEquals(engine.name(), "BOOM!", deltaIn.readLine());
+            assertNull(deltaIn.readLine());
+        } finally {
+            server.close();
+            serving.join(10000);
+        }
+    }
+
+    private static String request(PrintWriter out, BufferedReader in, String request) throws IOException {
+        out.println(request);
+        return in.readLine();
+    }
+
+    /**
+     * Apply delta to view and check it is newer than version.
+     *
+     * @return version of delta
+     */
+    private static long checkNewer(long version, String delta, char[][] view) {
+        long newer = BoardDelta.decode(delta, SIZE, (x, y, symbol) -> view[y][x] = symbol);
+        assertTrue(delta, newer > version);
+        return newer;
+    }
+
+    /**
+     * @return the board as the text client sees it, one row per line
+     */
+    private static String look(BufferedReader in, PrintWriter out) throws IOException {
+        out.println("look");
+        StringBuilder board = new StringBuilder();
+        for (int y = 0; y < SIZE; y++) {
+            board.append(in.readLine()).append('\n');
+        }
+        return board.toString();
+    }
+
+    private static String render(char[][] view) {
+        StringBuilder board = new StringBuilder();
+        for (char[] row : view) {
+            for (int x = 0; x < row.length; x++) {
+                board.append(x == 0 ? "" : " ").append(row[x]);
+            }
+            board.append('\n');
+        }
+        return board.toString();
+    }
+}
@@ -0,0 +1,185 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+
+/**
+ * Load tests of the connection engines: many clients connect at once, each reads the welcome
+ * message and sends a look, and every connection stays open until all of them got their board.
+ *
+ * The unit tests use 1000 connections. To compare the engines at 1k, 10k and 50k connections, run
+ * main(), e.g. "java minesweeper.server.EngineLoadTest threads,virtual,nio 1000,10000,50000".
+ * Large runs need a file descriptor limit of over twice the number of connections, since client
+ * and server run in one process.
+ */
+public class EngineLoadTest {
+
+    private static final int SIZE = 10;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    @Test(timeout = 120000)
+    public void testNioEngineHoldsManyConnections() throws Exception {
+        Result result = run(ServerOptions.Engine.NIO, 1000);
+        assertEquals(1000, result.served);
+    }
+
+    @Test(timeout = 120000)
+    public void testVirtualEngineHoldsManyConnections() throws Exception {
+        assumeTrue("virtual threads need Java 21 or later", virtualThreadsAvailable());
+        Result result = run(ServerOptions.Engine.VIRTUAL, 1000);
+        assertEquals(1000, result.served);
+    }
+
+    @Test(timeout = 120000)
+    public void testThreadEngineServesUpToPoolSize() throws Exception {
+        Result result = run(ServerOptions.Engine.THREADS, 32);
+        assertEquals(32, result.served);
+    }
+
+    /**
+     * Print a comparison of engines and connection counts.
+     *
+     * @param args comma-separated engines (threads, virtual, nio), then comma-separated counts
+     */
+    public static void main(String[] args) throws Exception {
+        String engines = args.length > 0 ? args[0] : "threads,virtual,nio";
+        String counts = args.length > 1 ? args[1] : "1000,10000,50000";
+        System.out.printf("%-8s %8s %8s %8s %10s%n", "engine", "clients", "served", "failed", "seconds");
+        for (String engine : engines.split(",")) {
+            ServerOptions.Engine mode = ServerOptions.Engine.valueOf(engine.toUpperCase());
+            if (mode == ServerOptions.Engine.VIRTUAL && !virtualThreadsAvailable()) {
+                System.out.printf("%-8s skipped: virtual threads need Java 21 or later%n", engine);
+                continue;
+            }
+            for (String count : counts.split(",")) {
+                int clients = Integer.parseInt(count);
+                Result result = run(mode, clients);
+                System.out.printf("%-8s %8d %8d %8d %10.2f%n", engine, clients, result.served,
+                        clients - result.served, result.nanos / 1e9);
+            }
+        }
+    }
+
+    private static boolean virtualThreadsAvailable() {
+        try {
+            MinesweeperServer.newVirtualThreadExecutor().shutdown();
+            return true;
+        } catch (UnsupportedOperationException uoe) {
+            return false;
+        }
+    }
+
+    private static final class Result {
+        private final int served;
+        private final long nanos;
+
+        private Result(int served, long nanos) {
+            this.served = served;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Start a server with engine on a free port, load it with clients connections, and stop it.
+     */
+    private static Result run(ServerOptions.Engine engine, int clients) throws Exception {
+        ServerOptions options = new ServerOptions();
+        options.setEngine(engine);
+        MinesweeperServer server = new MinesweeperServer(0, true, options);
+        server.setBoard(Fixtures.randomBoard(SIZE, SIZE, 6005));
+        Thread serving = Fixtures.serve(server);
+        try {
+            return load(server.getPort(), clients);
+        } finally {
+            server.close();
+            serving.join(TimeUnit.NANOSECONDS.toMillis(TIMEOUT_NANOS));
+        }
+    }
+
+    /**
+     * Open clients connections to port from one selector thread. Each one expects the welcome line
+     * and, after sending look, the SIZE lines of the board.
+     *
+     * @return number of connections that got their board, and the time until the last one did
+     */
+    private static Result load(int port, int clients) throws IOException {
+        byte[] look = "look\n".getBytes(StandardCharsets.US_ASCII);
+        int expectedLines = 1 + SIZE;
+        int[] lines = new int[clients];
+        SocketChannel[] channels = new SocketChannel[clients];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        int served = 0;
+        int failed = 0;
+        long start = System.nanoTime();
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < clients; i++) {
+                try {
+                    SocketChannel channel = SocketChannel.open();
+                    channels[i] = channel;
+                    channel.configureBlocking(false);
+                    channel.connect(new InetSocketAddress("127.0.0.1", port));
+                    channel.register(selector, SelectionKey.OP_CONNECT, i);
+                } catch (IOException ioe) {
+                    failed++;
+                }
+            }
+            while (served + failed < clients && System.nanoTime() - start < TIMEOUT_NANOS) {
+                selector.select(1000);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    int i = (Integer) key.attachment();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (key.isConnectable()) {
+                            channel.finishConnect();
+                            key.interestOps(SelectionKey.OP_READ);
+                            continue;
+                        }
+                        buffer.clear();
+                        if (channel.read(buffer) < 0) {
+                            throw new IOException("closed by server");
+                        }
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            if (buffer.get() == '\n' && ++lines[i] == 1) {
+                                channel.write(ByteBuffer.wrap(look));
+                            }
+                        }
+                        if (lines[i] == expectedLines) {
+                            served++;
+                            key.interestOps(0);
+                        }
+                    } catch (IOException ioe) {
+                        key.cancel();
+                        failed++;
+                    }
+                }
+            }
+        } finally {
+            for (SocketChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+        return new Result(served, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,116 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests for EventLog: lines have the documented form, events from many threads all get written,
+ * a full buffer drops and counts events instead of waiting, and close() writes what is left.
+ */
+public class EventLogTest {
+
+    private static final String TIME = "\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d\\.\\d{3}Z";
+
+    private static List<String> lines(ByteArrayOutputStream out) {
+        String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        return text.isEmpty() ? new ArrayList<>() : Arrays.asList(text.split("\n"));
+    }
+
+    @Test(timeout = 10000)
+    public void testLines() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventLog events = new EventLog(out, true, 16);
+        assertTrue(events.log("connect client=127.0.0.1:4000"));
+        assertTrue(events.log("stop"));
+        events.close();
+        events.close();
+        List<String> lines = lines(out);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).matches(TIME + " connect client=127\\.0\\.0\\.1:4000"));
+        assertTrue(lines.get(1), lines.get(1).matches(TIME + " stop"));
+        assertEquals(2, events.getWritten());
+        assertTrue(!events.log("late"));
+    }
+
+    @Test(timeout = 30000)
+    public void testManyThreads() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventLog events = new EventLog(out, true, 1 << 16);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    events.log("e thread=" + thread + " i=" + i);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        events.close();
+        Set<String> seen = new HashSet<>();
+        for (String line : lines(out)) {
+            seen.add(line.substring(line.indexOf(' ') + 1));
+        }
+        assertEquals(40000 - events.getDropped(), seen.size());
+        assertEquals(0, events.getDropped());
+    }
+
+    @Test(timeout = 10000)
+    public void testFullBufferDrops() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) {
+                written.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                written.write(b, off, len);
+            }
+        };
+        EventLog events = new EventLog(stalled, false, 4);
+        events.log("first");
+        writing.await();
+        // the writer is stuck in the output with the first event; four more fit
+        for (int i = 0; i < 4; i++) {
+            assertTrue(events.log("queued i=" + i));
+        }
+        assertTrue(!events.log("dropped"));
+        assertTrue(!events.log("dropped"));
+        assertEquals(2, events.getDropped());
+        release.countDown();
+        events.close();
+        List<String> lines = lines(written);
+        assertEquals(6, lines.size());
+        assertTrue(lines.get(5), lines.get(5).matches(TIME + " dropped events=2"));
+        assertEquals(5, events.getWritten());
+    }
+}
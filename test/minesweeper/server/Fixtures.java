@@ -0,0 +1,86 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import minesweeper.Board;
+
+/**
+ * What the server tests share: boards with bombs where a test wants them, a server serving
+ * connections on a thread of its own, and requests run without a connection.
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * @param cols number of columns, requires cols > 0
+     * @param rows number of rows, requires rows > 0
+     * @param bombs column and row of each bomb, one after the other
+     * @return a board of cols x rows with bombs on exactly those squares
+     */
+    public static Board board(int cols, int rows, int... bombs) {
+        boolean[][] mines = new boolean[rows][cols];
+        for (int i = 0; i < bombs.length; i += 2) {
+            mines[bombs[i + 1]][bombs[i]] = true;
+        }
+        Board board = new Board(cols, rows);
+        board.setBombs(mines);
+        return board;
+    }
+
+    /**
+     * @param cols number of columns, requires cols > 0
+     * @param rows number of rows, requires rows > 0
+     * @param seed seed of the bombs
+     * @return a board of cols x rows with the default density of bombs, the same for the same seed
+     */
+    public static Board randomBoard(int cols, int rows, long seed) {
+        Board board = new Board(cols, rows);
+        board.setBombs(seed);
+        return board;
+    }
+
+    /**
+     * Serve connections to server on a daemon thread until the server is closed.
+     *
+     * @return the thread, which ends once the server is closed
+     */
+    public static Thread serve(MinesweeperServer server) {
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                // closed at the end of the test
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+        return serving;
+    }
+
+    /**
+     * Run one request for the client of session, as a connection would.
+     *
+     * @return the reply as text, or null if it was queued in the client's subscription
+     */
+    static String request(MinesweeperServer server, Session session, String line) {
+        byte[] reply = server.handleRequest(new Command().parse(line), session);
+        return reply == null ? null : new String(reply, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return a reader of the text the server sends to socket
+     */
+    public static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+    }
+}
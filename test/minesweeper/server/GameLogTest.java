@@ -0,0 +1,186 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Tests for keeping a game on disk: a recovered game has every committed move, snapshots
+ * truncate the log, and a commit cut short by a crash is ignored.
+ */
+public class GameLogTest {
+
+    private Path dir;
+
+    @Before
+    public void makeDir() throws IOException {
+        dir = Files.createTempDirectory("minesweeper-log");
+    }
+
+    @After
+    public void deleteDir() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private static Game game(Board board, boolean striped) {
+        return new Game(0, board, striped, null, 1000);
+    }
+
+    private static void play(Game game, String... lines) {
+        for (String line : lines) {
+            game.play(new Command().parse(line));
+        }
+    }
+
+    /**
+     * @return the game kept in dir, with its log replayed
+     */
+    private Game recover() throws IOException {
+        GameLog log = new GameLog(dir);
+        Board board = log.recover();
+        assertNotNull(board);
+        Game game = game(board, false);
+        log.replay(game);
+        return game;
+    }
+
+    private static void assertSameBoard(Board expected, Board actual) {
+        assertEquals(expected.toString(), actual.toString());
+        for (int y = 0; y < expected.getRows(); y++) {
+            for (int x = 0; x < expected.getCols(); x++) {
+                assertEquals(expected.isBombAt(x, y), actual.isBombAt(x, y));
+            }
+        }
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("log-")).count();
+        }
+    }
+
+    @Test
+    public void testRecoversCommittedMoves() throws IOException {
+        for (boolean striped : new boolean[] { false, true }) {
+            deleteDir();
+            makeDir();
+            GameLog log = new GameLog(dir);
+            assertNull(log.recover());
+            Game game = game(Fixtures.randomBoard(70, 5, 6005), striped);
+            assertEquals(0, log.replay(game));
+            log.start(game, 60_000, 60_000);
+            play(game, "flag 3 1", "dig 0 0", "flag 68 4", "deflag 68 4", "dig 65 2", "flag 10 3", "dig 10 3");
+            log.close();
+            // moves after close are not logged
+            play(game, "dig 69 4");
+
+            Game recovered = recover();
+            play(recovered, "dig 69 4");
+            assertSameBoard(game.getBoard(), recovered.getBoard());
+        }
+    }
+
+    @Test
+    public void testSnapshotTruncatesLog() throws IOException {
+        GameLog log = new GameLog(dir);
+        Game game = game(Fixtures.randomBoard(70, 5, 6005), false);
+        log.start(game, 60_000, 60_000);
+        play(game, "dig 5 2", "flag 40 1");
+        log.commit();
+        log.checkpoint();
+        play(game, "dig 50 3");
+        log.checkpoint();
+        play(game, "deflag 40 1", "flag 41 1");
+        log.close();
+        assertEquals(1, segments());
+
+        GameLog again = new GameLog(dir);
+        Game recovered = game(again.recover(), false);
+        assertEquals(2, again.replay(recovered));
+        assertSameBoard(game.getBoard(), recovered.getBoard());
+
+        // a restart replaces the log with a snapshot
+        again.start(recovered, 60_000, 60_000);
+        again.close();
+        assertEquals(1, segments());
+        assertSameBoard(game.getBoard(), recover().getBoard());
+    }
+
+    @Test
+    public void testCommitsInBackground() throws Exception {
+        GameLog log = new GameLog(dir);
+        Game game = game(Fixtures.randomBoard(70, 5, 6005), false);
+        log.start(game, 1, 60_000);
+        play(game, "flag 7 4");
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.filter(file -> file.getFileName().toString().startsWith("log-")).findFirst().get();
+        }
+        while (Files.size(segment) == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        // no close: what a crash leaves behind
+        assertSameBoard(game.getBoard(), recover().getBoard());
+        log.close();
+    }
+
+    @Test
+    public void testTornCommitIsIgnored() throws IOException {
+        GameLog log = new GameLog(dir);
+        Game game = game(Fixtures.randomBoard(70, 5, 6005), false);
+        log.start(game, 60_000, 60_000);
+        play(game, "flag 1 1");
+        log.commit();
+        String before = game.getBoard().toString();
+        play(game, "flag 2 2");
+        log.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.filter(file -> file.getFileName().toString().startsWith("log-")).findFirst().get();
+        }
+        // cut the last commit short, as a crash in the middle of writing it would
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        assertEquals(before, recover().getBoard().toString());
+
+        // and garbage after the last whole commit
+        Files.write(segment, new byte[] { 0, 0, 0, 9, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13 },
+                StandardOpenOption.APPEND);
+        assertEquals(before, recover().getBoard().toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptSnapshotIsRejected() throws IOException {
+        GameLog log = new GameLog(dir);
+        log.start(game(Fixtures.randomBoard(70, 5, 6005), false), 60_000, 60_000);
+        log.close();
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve("snapshot").toFile(), "rw")) {
+            file.seek(40);
+            int b = file.read();
+            file.seek(40);
+            file.write(b ^ 0x10);
+        }
+        new GameLog(dir).recover();
+    }
+}
@@ -0,0 +1,186 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import minesweeper.BoardDelta;
+
+/**
+ * Tests for hosting many games in one server: creating and joining games, the cap on their
+ * squares, eviction of idle games, and clients leaving their game however their connection ends.
+ */
+public class GameRegistryTest {
+
+    private static MinesweeperServer server(ServerOptions options) throws IOException {
+        MinesweeperServer server = new MinesweeperServer(0, true, options);
+        server.setBoard(Fixtures.board(3, 3));
+        return server;
+    }
+
+    @Test
+    public void testGamesAreIndependent() throws IOException {
+        ServerOptions options = new ServerOptions();
+        options.setDensity(0);
+        MinesweeperServer server = server(options);
+        try {
+            Session alice = new Session(() -> { });
+            Session bob = new Session(() -> { });
+            server.welcome(alice);
+            server.welcome(bob);
+            assertEquals("Game 1: 4 columns by 2 rows. Players: 1 including you.", Fixtures.request(server, alice, "new 4x2"));
+            assertEquals("Game 1: 4 columns by 2 rows. Players: 2 including you.", Fixtures.request(server, bob, "join 1"));
+            Fixtures.request(server, alice, "flag 3 1");
+            assertEquals("- - - -\r\n- - - F", Fixtures.request(server, bob, "look"));
+
+            // the default game did not change
+            assertEquals("Game 0: 3 columns by 3 rows. Players: 1 including you.", Fixtures.request(server, bob, "join 0"));
+            assertEquals("- - -\r\n- - -\r\n- - -", Fixtures.request(server, bob, "look"));
+
+            assertEquals("No such game", Fixtures.request(server, bob, "join 7"));
+            assertEquals("Invalid input", Fixtures.request(server, bob, "new 0x5"));
+            assertEquals(2, server.getGames().size());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testCellCap() throws IOException {
+        ServerOptions options = new ServerOptions();
+        options.setMaxGameCells(50);
+        MinesweeperServer server = server(options);
+        try {
+            Session session = new Session(() -> { });
+            server.welcome(session);
+            assertTrue(Fixtures.request(server, session, "new 5x5").startsWith("Game 1:"));
+            assertTrue(Fixtures.request(server, session, "new 5x5").startsWith("Game 2:"));
+            assertEquals("No room for a new game", Fixtures.request(server, session, "new 1x1"));
+            assertEquals(50, server.getGames().getCells());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testIdleGamesAreEvicted() throws Exception {
+        ServerOptions options = new ServerOptions();
+        options.setGameIdleMillis(1);
+        options.setMaxGameCells(25);
+        MinesweeperServer server = server(options);
+        try {
+            Session session = new Session(() -> { });
+            server.welcome(session);
+            Fixtures.request(server, session, "new 5x5");
+            Thread.sleep(5);
+            // someone is in it
+            assertEquals(0, server.getGames().evictIdle());
+
+            Fixtures.request(server, session, "join 0");
+            Thread.sleep(5);
+            assertEquals(1, server.getGames().evictIdle());
+            assertNull(server.getGames().get(1));
+            assertEquals(0, server.getGames().getCells());
+            assertEquals("No such game", Fixtures.request(server, session, "join 1"));
+            // the default game is never evicted
+            assertNotNull(server.getGames().getDefault());
+
+            // a full registry evicts idle games to make room
+            Fixtures.request(server, session, "new 5x5");
+            Fixtures.request(server, session, "join 0");
+            Thread.sleep(5);
+            assertTrue(Fixtures.request(server, session, "new 5x5").startsWith("Game 3:"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testRetiredGameCannotBeEntered() {
+        Game game = new Game(1, Fixtures.board(2, 2), false, null, 1000);
+        assertEquals(1, game.enter());
+        assertTrue(!game.retire());
+        game.leave();
+        assertTrue(game.retire());
+        assertEquals(-1, game.enter());
+    }
+
+    @Test
+    public void testWatchMovesWithClient() throws IOException {
+        ServerOptions options = new ServerOptions();
+        options.setDensity(0);
+        MinesweeperServer server = server(options);
+        try {
+            Session session = new Session(() -> { });
+            server.welcome(session);
+            assertNull(Fixtures.request(server, session, "watch"));
+            Subscription subscription = session.getSubscription();
+            subscription.poll();
+            Game before = server.getGames().getDefault();
+
+            assertTrue(Fixtures.request(server, session, "new 2x1").startsWith("Game 1:"));
+            Game after = session.getGame();
+            // the whole new board
+            assertEquals(new String(BoardDelta.encode(null, after.getBoard().snapshot()), StandardCharsets.US_ASCII),
+                    new String(subscription.poll(), StandardCharsets.US_ASCII));
+
+            // changes to the old game are no longer pushed
+            before.getBoard().setFlag(0, 0);
+            before.getBroadcaster().broadcast();
+            assertNull(subscription.poll());
+            after.getBoard().setFlag(1, 0);
+            after.getBroadcaster().broadcast();
+            assertEquals("delta " + after.getBoard().snapshot().getVersion() + " 1,0:F",
+                    new String(subscription.poll(), StandardCharsets.US_ASCII));
+
+            server.endSession(session);
+            assertEquals(0, after.getPlayers());
+            assertSame(after, server.getGames().get(1));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testResetConnectionsLeaveGame() throws Exception {
+        for (ServerOptions.Engine engine : new ServerOptions.Engine[] { ServerOptions.Engine.THREADS, ServerOptions.Engine.NIO }) {
+            ServerOptions options = new ServerOptions();
+            options.setEngine(engine);
+            MinesweeperServer server = new MinesweeperServer(0, true, options);
+            server.setBoard(Fixtures.board(5, 5));
+            Thread serving = Fixtures.serve(server);
+            try {
+                for (int i = 0; i < 5; i++) {
+                    Socket socket = new Socket("127.0.0.1", server.getPort());
+                    // close with a reset, so the server fails on its first read or write
+                    socket.setSoLinger(true, 0);
+                    socket.close();
+                }
+                Metrics metrics = server.getMetrics();
+                for (long deadline = System.currentTimeMillis() + 10000; metrics.getActiveConnections() > 0
+                        && System.currentTimeMillis() < deadline; ) {
+                    Thread.sleep(10);
+                }
+                assertEquals(engine.name(), 0, server.getGames().getDefault().getPlayers());
+                try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                    String welcome = Fixtures.reader(socket).readLine();
+                    assertTrue(engine.name() + ": " + welcome, welcome.contains("Players: 1 including you"));
+                }
+            } finally {
+                server.close();
+                serving.join(10000);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+import org.junit.Test;
+
+/**
+ * Tests for the server's metrics: histograms, what requests and connections record, and the
+ * stats command, which only clients on this machine may use.
+ */
+public class MetricsTest {
+
+    @Test
+    public void testHistogram() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(5);
+        }
+        histogram.record(1000);
+        histogram.record(-1);
+        assertEquals(101, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        // 5 is in the bucket [4, 8)
+        assertEquals(7, histogram.getValueAtPercentile(50));
+        assertEquals(7, histogram.getValueAtPercentile(99));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        assertEquals(0, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testRequestsAreCounted() throws IOException {
+        for (boolean striped : new boolean[] { false, true }) {
+            ServerOptions options = new ServerOptions();
+            options.setStripedLocking(striped);
+            MinesweeperServer server = new MinesweeperServer(0, true, options);
+            try {
+                server.setBoard(Fixtures.board(5, 5));
+                Session session = new Session(() -> { });
+                server.welcome(session);
+                Fixtures.request(server, session, "look");
+                Fixtures.request(server, session, "flag 0 0");
+                Fixtures.request(server, session, "dig 4 4");
+                Fixtures.request(server, session, "dig 4 4");
+                Fixtures.request(server, session, "nonsense");
+
+                Metrics metrics = server.getMetrics();
+                assertEquals(1, metrics.getCommands(Command.Type.LOOK));
+                assertEquals(1, metrics.getCommands(Command.Type.FLAG));
+                assertEquals(2, metrics.getCommands(Command.Type.DIG));
+                assertEquals(1, metrics.getCommands(Command.Type.INVALID));
+                // one lock per move
+                assertEquals(3, metrics.getLockWait().getCount());
+                assertEquals(3, metrics.getLockHold().getCount());
+                // the first dig revealed the whole board, flagged square included, the second nothing
+                assertEquals(1, metrics.getCascade().getCount());
+                assertEquals(25, metrics.getCascade().getMax());
+            } finally {
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    public void testBatchLocksOnce() throws IOException {
+        MinesweeperServer server = new MinesweeperServer(0, true);
+        try {
+            server.setBoard(Fixtures.board(5, 5));
+            Session session = new Session(() -> { });
+            server.welcome(session);
+            Batch batch = new Batch();
+            Command command = new Command();
+            for (String line : new String[] { "flag 0 0", "flag 1 0", "deflag 0 0" }) {
+                batch.add(command.parse(line));
+            }
+            assertEquals(3, server.execute(batch, 0, session));
+            // the moves took the lock again inside the batch's hold, which is not counted
+            assertEquals(1, server.getMetrics().getLockWait().getCount());
+            assertEquals(1, server.getMetrics().getLockHold().getCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testStatsOnlyForLocalClients() throws IOException {
+        MinesweeperServer server = new MinesweeperServer(0, true);
+        try {
+            server.setBoard(Fixtures.board(5, 5));
+            Session remote = new Session(() -> { });
+            server.welcome(remote);
+            assertEquals("Invalid input", Fixtures.request(server, remote, "stats"));
+
+            Session local = new Session(() -> { });
+            local.setLocal(true);
+            server.welcome(local);
+            String stats = Fixtures.request(server, local, "stats");
+            assertTrue(stats, stats.contains("commands look 0 help 0"));
+            assertTrue(stats, stats.contains("stats 2 invalid 0"));
+            assertTrue(stats, stats.contains("\r\nlock wait us count 0"));
+            assertTrue(stats, stats.contains("\r\ngames 1"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testConnectionsAndBytes() throws Exception {
+        for (ServerOptions.Engine engine : new ServerOptions.Engine[] { ServerOptions.Engine.THREADS, ServerOptions.Engine.NIO }) {
+            ServerOptions options = new ServerOptions();
+            options.setEngine(engine);
+            MinesweeperServer server = new MinesweeperServer(0, true, options);
+            server.setBoard(Fixtures.board(5, 5));
+            Thread serving = Fixtures.serve(server);
+            try {
+                try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                    BufferedReader in = Fixtures.reader(socket);
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    in.readLine();
+                    out.println("stats");
+                    out.println("bye");
+                    String line;
+                    boolean connected = false;
+                    while ( ! (line = in.readLine()).equals("bye")) {
+                        connected |= line.startsWith("connections 1 active, 1 opened, 0 failed");
+                    }
+                    assertTrue(engine.name(), connected);
+                }
+                Metrics metrics = server.getMetrics();
+                for (long deadline = System.currentTimeMillis() + 10000; metrics.getActiveConnections() > 0
+                        && System.currentTimeMillis() < deadline; ) {
+                    Thread.sleep(10);
+                }
+                assertEquals(0, metrics.getActiveConnections());
+                assertTrue(metrics.getWritten() > 100);
+            } finally {
+                server.close();
+                serving.join(10000);
+            }
+        }
+    }
+}
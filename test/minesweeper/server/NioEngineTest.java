@@ -0,0 +1,75 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Tests for how the NIO engine copes with a request that fails unexpectedly.
+ */
+public class NioEngineTest {
+
+    @Test(timeout = 30000)
+    public void testFailedRequestClosesOnlyItsConnection() throws Exception {
+        ServerOptions options = new ServerOptions();
+        options.setEngine(ServerOptions.Engine.NIO);
+        MinesweeperServer server = new MinesweeperServer(0, true, options);
+        // a bug in the board, as far as the engine can tell
+        Board board = new Board(3, 3) {
+            @Override
+            public int dig(int x, int y) {
+                throw new IllegalStateException("broken square");
+            }
+        };
+        board.setBombs(new boolean[3][3]);
+        server.setBoard(board);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        EventLog events = new EventLog(log, false, 64);
+        server.setEvents(events);
+        Thread serving = Fixtures.serve(server);
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            // enough clients that every selector loop serves a few
+            for (int i = 0; i < 2 * Runtime.getRuntime().availableProcessors() + 2; i++) {
+                Socket socket = new Socket("127.0.0.1", server.getPort());
+                sockets.add(socket);
+                Fixtures.reader(socket).readLine();
+            }
+            Socket failing = sockets.remove(0);
+            new PrintWriter(failing.getOutputStream(), true).println("dig 0 0");
+            assertNull(Fixtures.reader(failing).readLine());
+            failing.close();
+
+            for (Socket socket : sockets) {
+                BufferedReader in = Fixtures.reader(socket);
+                new PrintWriter(socket.getOutputStream(), true).println("flag 1 1");
+                assertEquals("- - -", in.readLine());
+                assertEquals("- F -", in.readLine());
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.close();
+            serving.join(10000);
+            events.close();
+        }
+        String logged = new String(log.toByteArray(), StandardCharsets.US_ASCII);
+        assertTrue(logged, logged.contains(" exception=java.lang.IllegalStateException: broken square"));
+    }
+}
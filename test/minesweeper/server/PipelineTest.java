@@ -0,0 +1,174 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests that requests a client sends back-to-back, run as batches, get the same replies in the
+ * same order as requests sent one at a time.
+ */
+public class PipelineTest {
+
+    private static final int SIZE = 4;
+    /** Column and row of the one bomb. */
+    private static final int[] BOMBS = { 3, 3 };
+
+    private static MinesweeperServer start(ServerOptions.Engine engine, boolean debug, boolean striped)
+            throws IOException {
+        ServerOptions options = new ServerOptions();
+        options.setEngine(engine);
+        options.setStripedLocking(striped);
+        MinesweeperServer server = new MinesweeperServer(0, debug, options);
+        server.setBoard(Fixtures.board(SIZE, SIZE, BOMBS));
+        Fixtures.serve(server);
+        return server;
+    }
+
+    /**
+     * Send every request in one write, then read every line until the server closes.
+     */
+    private static List<String> pipeline(MinesweeperServer server, String... requests) throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            StringBuilder all = new StringBuilder();
+            for (String request : requests) {
+                all.append(request).append("\r\n");
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(all.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            BufferedReader in = Fixtures.reader(socket);
+            in.readLine(); // welcome
+            List<String> lines = new ArrayList<>();
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lines.add(line);
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * Replies of requests run one at a time against a fresh server, split into lines.
+     */
+    private static List<String> sequential(boolean debug, String... requests) throws IOException {
+        MinesweeperServer server = new MinesweeperServer(0, debug);
+        try {
+            server.setBoard(Fixtures.board(SIZE, SIZE, BOMBS));
+            Session session = new Session(() -> { });
+            List<String> lines = new ArrayList<>();
+            for (String request : requests) {
+                byte[] reply = server.handleRequest(new Command().parse(request), session);
+                for (String line : new String(reply, StandardCharsets.US_ASCII).split("\r\n")) {
+                    lines.add(line);
+                }
+                if (MinesweeperServer.endsConnection(reply, debug)) {
+                    break;
+                }
+            }
+            return lines;
+        } finally {
+            server.close();
+        }
+    }
+
+    private static String[] script(int repeats, String... ending) {
+        List<String> requests = new ArrayList<>();
+        for (int i = 0; i < repeats; i++) {
+            requests.add("flag 1 1");
+            requests.add("help");
+            requests.add("deflag 1 1");
+            requests.add("look");
+            requests.add("dig " + i % SIZE + " 0");
+            requests.add("dug");
+        }
+        for (String request : ending) {
+            requests.add(request);
+        }
+        return requests.toArray(new String[0]);
+    }
+
+    private static void assertPipelined(ServerOptions.Engine engine, boolean debug, boolean striped,
+            String... requests) throws IOException {
+        MinesweeperServer server = start(engine, debug, striped);
+        try {
+            assertEquals(sequential(debug, requests), pipeline(server, requests));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBatchesKeepReplyOrder() throws IOException {
+        // more requests than fit in one batch
+        String[] requests = script(2 * Batch.CAPACITY, "bye", "dig 3 3", "look");
+        for (ServerOptions.Engine engine : new ServerOptions.Engine[] {
+                ServerOptions.Engine.THREADS, ServerOptions.Engine.NIO }) {
+            assertPipelined(engine, false, false, requests);
+            assertPipelined(engine, false, true, requests);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBoomEndsBatch() throws IOException {
+        String[] requests = script(3, "dig 3 3", "dig 0 3", "look", "bye");
+        for (ServerOptions.Engine engine : new ServerOptions.Engine[] {
+                ServerOptions.Engine.THREADS, ServerOptions.Engine.NIO }) {
+            assertPipelined(engine, false, false, requests);
+            // in debug mode the requests after BOOM still run
+            assertPipelined(engine, true, false, requests);
+        }
+    }
+
+    @Test
+    public void testExecuteStopsAtConnectionEnd() throws IOException {
+        MinesweeperServer server = new MinesweeperServer(0, false);
+        try {
+            server.setBoard(Fixtures.board(SIZE, SIZE, BOMBS));
+            Batch batch = new Batch();
+            Command command = new Command();
+            batch.add(command.parse("flag 0 0"));
+            batch.add(command.parse("bye"));
+            batch.add(command.parse("deflag 0 0"));
+            Session session = new Session(() -> { });
+            assertEquals(2, server.execute(batch, 0, session));
+            assertEquals(MinesweeperServer.BYE_MESSAGE, batch.reply(1));
+            assertNull(batch.reply(2));
+            assertEquals("F", new String(server.handleRequest(command.parse("look"), session),
+                    StandardCharsets.US_ASCII).substring(0, 1));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testExecuteStopsBeforeWatch() throws IOException {
+        MinesweeperServer server = new MinesweeperServer(0, false);
+        try {
+            server.setBoard(Fixtures.board(SIZE, SIZE, BOMBS));
+            Batch batch = new Batch();
+            Command command = new Command();
+            batch.add(command.parse("look"));
+            batch.add(command.parse("watch"));
+            batch.add(command.parse("look"));
+            Session session = new Session(() -> { });
+            assertEquals(1, server.execute(batch, 0, session));
+            // the watch runs first in the next call, and the look after it goes to the subscription
+            assertEquals(3, server.execute(batch, 1, session));
+            assertNull(batch.reply(2));
+        } finally {
+            server.close();
+        }
+    }
+}
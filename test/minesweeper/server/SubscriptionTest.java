@@ -0,0 +1,167 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+import minesweeper.BoardDelta;
+import minesweeper.BoardSnapshot;
+
+/**
+ * Tests for Subscription and Broadcaster: coalesced pushes, and bounded queues for slow clients.
+ */
+public class SubscriptionTest {
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testBroadcastCoalescesChanges() {
+        Board board = Fixtures.board(20, 3);
+        board.enableSnapshots();
+        Broadcaster broadcaster = new Broadcaster(board::snapshot, 1000);
+        AtomicInteger signals = new AtomicInteger();
+        Subscription first = new Subscription(8, signals::incrementAndGet);
+        Subscription second = new Subscription(8, signals::incrementAndGet);
+        broadcaster.subscribe(first);
+        broadcaster.subscribe(second);
+        broadcaster.broadcast();
+        assertEquals(text(BoardDelta.encode(null, board.snapshot())), text(first.poll()));
+        second.poll();
+        assertNull(first.poll());
+
+        board.setFlag(1, 0);
+        board.setFlag(2, 0);
+        broadcaster.broadcast();
+        byte[] pushed = first.poll();
+        assertEquals("delta " + board.snapshot().getVersion() + " 1,0:FF", text(pushed));
+        // encoded once, shared by every client that was up to date
+        assertSame(pushed, second.poll());
+
+        // nothing changed, nothing pushed
+        broadcaster.broadcast();
+        assertNull(first.poll());
+        assertEquals(4, signals.get());
+    }
+
+    @Test
+    public void testSlowClientIsCollapsedToWholeBoard() {
+        Board board = Fixtures.board(20, 3);
+        board.enableSnapshots();
+        Broadcaster broadcaster = new Broadcaster(board::snapshot, 1000);
+        Subscription slow = new Subscription(2, () -> { });
+        broadcaster.subscribe(slow);
+        slow.add(MinesweeperServer.BOOM_MESSAGE);
+        for (int x = 0; x < 5; x++) {
+            board.setFlag(x, 1);
+            broadcaster.broadcast();
+        }
+        assertEquals(2, slow.getResyncs());
+        // the whole board as of the last collapse, where the first update was, then the message
+        // that is not a board update, then what changed after the collapse
+        long version = board.snapshot().getVersion();
+        assertEquals("delta " + (version - 1) + " 0,0:" + "-".repeat(20) + "FFFF" + "-".repeat(36),
+                text(slow.poll()));
+        assertSame(MinesweeperServer.BOOM_MESSAGE, slow.poll());
+        assertEquals("delta " + version + " 4,1:F", text(slow.poll()));
+        assertNull(slow.poll());
+
+        broadcaster.unsubscribe(slow);
+        board.setFlag(0, 2);
+        broadcaster.broadcast();
+        assertNull(slow.poll());
+    }
+
+    @Test
+    public void testCollapseKeepsRepliesInOrder() {
+        Board board = Fixtures.board(20, 3);
+        board.enableSnapshots();
+        Subscription subscription = new Subscription(2, () -> { });
+        // a client that looks, flags and looks again without reading
+        subscription.reply(board.snapshot());
+        subscription.add(MinesweeperServer.BOOM_MESSAGE);
+        board.setFlag(0, 0);
+        subscription.reply(board.snapshot());
+        subscription.add(MinesweeperServer.BYE_MESSAGE);
+        board.setFlag(1, 0);
+        subscription.reply(board.snapshot());
+        assertEquals(1, subscription.getResyncs());
+        // the board comes first, as the reply to the first look did
+        assertEquals(text(BoardDelta.encode(null, board.snapshot())), text(subscription.poll()));
+        assertSame(MinesweeperServer.BOOM_MESSAGE, subscription.poll());
+        assertSame(MinesweeperServer.BYE_MESSAGE, subscription.poll());
+        assertNull(subscription.poll());
+    }
+
+    @Test
+    public void testFailedPushIsReported() {
+        List<RuntimeException> failures = new ArrayList<>();
+        Broadcaster broadcaster = new Broadcaster(() -> {
+            throw new IllegalStateException("no snapshot");
+        }, 1000, null, failures::add);
+        broadcaster.broadcast();
+        assertEquals(1, failures.size());
+        assertEquals("no snapshot", failures.get(0).getMessage());
+    }
+
+    @Test(timeout = 10000)
+    public void testRepliesWaitForSlowClient() throws Exception {
+        Subscription subscription = new Subscription(2, () -> { });
+        subscription.put(MinesweeperServer.BOOM_MESSAGE);
+        subscription.put(MinesweeperServer.BYE_MESSAGE);
+        CountDownLatch queued = new CountDownLatch(1);
+        Thread handler = new Thread(() -> {
+            try {
+                subscription.put(MinesweeperServer.BOOM_MESSAGE);
+                queued.countDown();
+            } catch (InterruptedIOException iioe) {
+                // fails below
+            }
+        });
+        handler.start();
+        // the queue is full, so the third reply waits until the client takes one
+        assertFalse(queued.await(100, TimeUnit.MILLISECONDS));
+        assertSame(MinesweeperServer.BOOM_MESSAGE, subscription.poll());
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        handler.join();
+
+        // a client that cannot be written to any more never holds up its handler
+        subscription.abandon();
+        assertNull(subscription.poll());
+        for (int i = 0; i < 5; i++) {
+            subscription.put(MinesweeperServer.BYE_MESSAGE);
+        }
+        assertNull(subscription.poll());
+    }
+
+    @Test
+    public void testReplyAfterPushNeverGoesBack() {
+        Board board = Fixtures.board(20, 3);
+        board.enableSnapshots();
+        Subscription subscription = new Subscription(8, () -> { });
+        BoardSnapshot old = board.snapshot();
+        board.setFlag(0, 0);
+        BoardSnapshot latest = board.snapshot();
+        subscription.push(null, null, BoardDelta.encode(null, latest), latest);
+        subscription.reply(old);
+        subscription.poll();
+        assertEquals("delta " + latest.getVersion(), text(subscription.poll()));
+    }
+}